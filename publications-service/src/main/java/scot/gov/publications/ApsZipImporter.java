@@ -5,20 +5,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.publications.hippo.*;
 import scot.gov.publications.hippo.pages.PublicationPageUpdater;
-import scot.gov.publications.imageprocessing.ImageProcessing;
 import scot.gov.publications.manifest.Manifest;
 import scot.gov.publications.manifest.ManifestExtractor;
 import scot.gov.publications.metadata.Metadata;
 import scot.gov.publications.metadata.MetadataExtractor;
+import scot.gov.publications.prepare.AssetPreparer;
+import scot.gov.publications.prepare.PreparedAssets;
+import scot.gov.publications.repo.ImportTimings;
 import scot.gov.publications.repo.Publication;
-import scot.gov.publications.util.Exif;
 import scot.gov.publishing.searchjournal.SearchJournalEntry;
 
 import javax.inject.Inject;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.query.Query;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.zip.ZipFile;
@@ -32,6 +32,9 @@ public class ApsZipImporter {
 
     private static final Logger LOG = LoggerFactory.getLogger(ApsZipImporter.class);
 
+    private static final String PUBLICATION_TYPES =
+            "/content/documents/govscot/valuelists/publicationTypes/publicationTypes";
+
     @Inject
     PublicationsConfiguration configuration;
 
@@ -39,10 +42,10 @@ public class ApsZipImporter {
     SessionFactory sessionFactory;
 
     @Inject
-    ImageProcessing imageProcessing;
+    AssetPreparer assetPreparer;
 
     @Inject
-    Exif exif;
+    ReferenceDataIndex referenceData;
 
     HippoUtils hippoUtils = new HippoUtils();
 
@@ -53,16 +56,27 @@ public class ApsZipImporter {
     PublicationsSearchJournal searchJournal = new PublicationsSearchJournal();
 
     public String importApsZip(ZipFile zipFile, Publication publication) throws ApsZipImporterException {
+        return importApsZip(zipFile, publication, new ImportTimings());
+    }
+
+    /**
+     * Import a zip, recording how long each phase of the import takes.
+     */
+    public String importApsZip(ZipFile zipFile, Publication publication, ImportTimings timings)
+            throws ApsZipImporterException {
         Session session = newJCRSession();
-        PublicationNodeUpdater publicationNodeUpdater = new PublicationNodeUpdater(session, configuration);
-        PublicationPageUpdater publicationPageUpdater = new PublicationPageUpdater(session, configuration);
-        ImageUploader imageUploader = new ImageUploader(session, imageProcessing);
-        DocumentUploader documentUploader = new DocumentUploader(session, imageProcessing, exif, configuration);
+        Checkpoints checkpoints = new Checkpoints(session, configuration.getHippo().getCheckpointSize());
+        PublicationNodeUpdater publicationNodeUpdater = new PublicationNodeUpdater(session, configuration, referenceData);
+        PublicationPageUpdater publicationPageUpdater = new PublicationPageUpdater(session, configuration, checkpoints);
+        ImageUploader imageUploader = new ImageUploader(session, checkpoints);
+        DocumentUploader documentUploader = new DocumentUploader(session, configuration, checkpoints);
 
         Node publicationFolder = null;
         Node imagesFolder = null;
+        PreparedAssets assets = null;
 
         try {
+            long start = timings.start();
             Manifest manifest = manifestExtractor.extract(zipFile);
             Metadata metadata = metadataExtractor.extract(zipFile);
 
@@ -73,24 +87,45 @@ public class ApsZipImporter {
                     metadata.getIsbn(),
                     metadata.getTitle(),
                     metadata.getPublicationDateWithTimezone());
+            timings.record("extract", start, null, manifest.getEntries().size());
 
-            // if there is already a publication then unpublish it in funnelback
+            // compute page counts, thumbnails and image sizes in parallel before writing anything to the repository,
+            // skipping documents whose content is already in the repository
+            start = timings.start();
             Node publicationNode = publicationNodeUpdater.findPublicationNodeToUpdate(metadata);
+            Set<String> existingContentHashes = documentUploader.existingContentHashes(publicationNode);
+            assets = assetPreparer.prepare(zipFile, manifest, existingContentHashes);
+            timings.record("prepare", start);
+
+            // if there is already a publication then unpublish it in funnelback
+            start = timings.start();
             List<SearchJournalEntry> searchJournalEntries = new ArrayList<>();
-            if (publicationNode != null && "published".equals(publicationNode.getProperty("hippostd:state").getString())) {
+            boolean wasPublished = publicationNode != null
+                    && "published".equals(publicationNode.getProperty("hippostd:state").getString());
+            if (wasPublished) {
                 // it is currently published so collect the list of funnelback actions to completely unpublish it
                 // this is because we are about to replace it and some pages may not be there afterwards
                 searchJournalEntries.addAll(searchJournal.getJournalEntries("depublish", session, publicationNode.getParent().getParent()));
             }
             publicationFolder = publicationNodeUpdater.createOrUpdatePublicationNode(metadata, publication);
+            checkpoints.save();
+            timings.record("publication", start);
 
-            Map<String, String> imgMap = imageUploader.createImages(zipFile, publicationFolder);
-            Map<String, Node> docMap = documentUploader.uploadDocuments(zipFile, publicationFolder, manifest, metadata);
+            start = timings.start();
+            Map<String, String> imgMap = imageUploader.createImages(zipFile, publicationFolder, assets);
             if (!imgMap.isEmpty()) {
                 imagesFolder = session.getNodeByIdentifier(imgMap.entrySet().iterator().next().getValue()).getParent();
             }
+            checkpoints.save();
+            timings.record("images", start, null, imgMap.size());
+
+            start = timings.start();
+            Map<String, Node> docMap = documentUploader.uploadDocuments(zipFile, publicationFolder, manifest, metadata, assets);
+            checkpoints.save();
+            timings.record("documents", start, null, docMap.size());
 
-            publicationPageUpdater.addPages(
+            start = timings.start();
+            Set<String> unchangedPages = publicationPageUpdater.addPages(
                     zipFile,
                     publicationFolder,
                     imgMap,
@@ -98,30 +133,54 @@ public class ApsZipImporter {
                     metadata.getPublicationDateWithTimezone(),
                     metadata.shoudlEmbargo(),
                     metadata.isConsultation());
+            checkpoints.save();
+            timings.record("pages", start);
 
+            start = timings.start();
             publicationFolder = publicationNodeUpdater.ensureMonthNode(publicationFolder, metadata);
             ensureFolderActions(publicationFolder, metadata.getPublicationType());
+            timings.record("folders", start);
 
+            start = timings.start();
             session.save();
+            timings.record("save", start);
 
             // sort the parent folder
+            start = timings.start();
             hippoUtils.sortChildren(publicationFolder.getParent());
+            timings.record("sort", start);
 
             // if the publication is published then create journal entries for all pages
+            start = timings.start();
             boolean isPublished = metadata.getPublicationDateWithTimezone().isBefore(ZonedDateTime.now());
             if (isPublished) {
                 searchJournalEntries.addAll(searchJournal.getJournalEntries("publish", session, publicationFolder));
             }
+            if (wasPublished && isPublished) {
+                // pages that have not changed are already in the search index
+                searchJournalEntries = searchJournal.withoutPages(searchJournalEntries, publicationFolder, unchangedPages);
+            }
             searchJournal.recordJournalEntries(session, searchJournalEntries);
+            timings.record("journal", start, null, searchJournalEntries.size());
             return publicationFolder.getPath();
         } catch (RepositoryException e) {
+            if (checkpoints.getSaved() > 0) {
+                discardCheckpointsQuietly(session, checkpoints, publicationFolder, imagesFolder);
+            }
             throw new ApsZipImporterException("Failed to save session", e);
         } catch (ApsZipImporterException e) {
             LOG.error("Throwable thrown", e);
-            removePublicationFolderQuietly(publicationFolder, imagesFolder);
+            if (checkpoints.isEnabled()) {
+                discardCheckpointsQuietly(session, checkpoints, publicationFolder, imagesFolder);
+            } else {
+                removePublicationFolderQuietly(publicationFolder, imagesFolder);
+            }
             throw e;
         } finally {
-            session.logout();
+            if (assets != null) {
+                assets.close();
+            }
+            sessionFactory.release(session);
         }
     }
 
@@ -142,6 +201,39 @@ public class ApsZipImporter {
         }
     }
 
+    /**
+     * Undo an import that saved checkpoints before failing.  Unsaved changes are discarded and then whatever the
+     * checkpoints saved is removed, in the same way as a failed import that saves once at the end.
+     */
+    void discardCheckpointsQuietly(Session session, Checkpoints checkpoints, Node publicationFolder, Node imagesFolder) {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            LOG.error("Failed to discard unsaved changes after exception", e);
+            return;
+        }
+
+        if (checkpoints.getSaved() > 0) {
+            LOG.info("Removing {} saved checkpoints after exception", checkpoints.getSaved());
+            removePublicationFolderQuietly(saved(session, publicationFolder), saved(session, imagesFolder));
+        }
+    }
+
+    /**
+     * The saved version of a node, or null if it was never saved.
+     */
+    private Node saved(Session session, Node node) {
+        if (node == null) {
+            return null;
+        }
+
+        try {
+            return session.getNodeByIdentifier(node.getIdentifier());
+        } catch (RepositoryException e) {
+            return null;
+        }
+    }
+
     /**
      * Work out if the publication is already published or not.  If it is then this might change what we need to do to
      * reconcile with funnelback
@@ -160,11 +252,17 @@ public class ApsZipImporter {
         try {
             HippoPaths paths = new HippoPaths(session);
             String slugType = paths.slugify(type, false);
-            String xpath = String.format(
-                    "/jcr:root/content/documents/govscot/valuelists" +
-                    "/publicationTypes/publicationTypes/selection:listitem[selection:key = '%s']", slugType);
-            LOG.info("assertValidPublicationType {}", xpath);
-            Node typeNode = hippoUtils.findOneQuery(session, xpath, Query.XPATH);
+            if (referenceData.isPublicationType(session, slugType)) {
+                return;
+            }
+
+            // the list of types is small so check each of them rather than querying for the type
+            LOG.info("assertValidPublicationType {}", slugType);
+            Node typeNode = null;
+            if (session.nodeExists(PUBLICATION_TYPES)) {
+                typeNode = hippoUtils.find(session.getNode(PUBLICATION_TYPES).getNodes("selection:listitem"),
+                        item -> slugType.equals(item.getProperty("selection:key").getString()));
+            }
             if (typeNode == null) {
                 throw new ApsZipImporterException("Unrecognised publication type:" + type);
             }
@@ -178,8 +276,8 @@ public class ApsZipImporter {
         Node monthFolder = publicationFolder.getParent();
         Node yearFolder = monthFolder.getParent();
         hippoUtils.setPropertyStrings(publicationFolder, HIPPOSTD_FOLDERTYPE, actions());
-        hippoUtils.setPropertyStrings(monthFolder, HIPPOSTD_FOLDERTYPE, publicationActions(type));
-        hippoUtils.setPropertyStrings(yearFolder, HIPPOSTD_FOLDERTYPE, actions("new-publication-month-folder"));
+        hippoUtils.setPropertyStringsIfChanged(monthFolder, HIPPOSTD_FOLDERTYPE, publicationActions(type));
+        hippoUtils.setPropertyStringsIfChanged(yearFolder, HIPPOSTD_FOLDERTYPE, actions("new-publication-month-folder"));
     }
 
     Collection<String> publicationActions(String type) {
@@ -7,6 +7,7 @@ import org.flywaydb.core.Flyway;
 import org.jboss.resteasy.plugins.server.undertow.UndertowJaxrsServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scot.gov.publications.rest.ImportQueue;
 
 import javax.inject.Inject;
 import java.net.InetSocketAddress;
@@ -24,6 +25,9 @@ public class Publications {
     @Inject
     PublicationsApplication application;
 
+    @Inject
+    ImportQueue importQueue;
+
     public static final void main(String[] args) {
         ObjectGraph graph = ObjectGraph.create(new PublicationsModule());
         try {
@@ -37,6 +41,7 @@ public class Publications {
 
     public void run() {
         runDatabaseMigrations();
+        importQueue.start();
         startServer();
     }
 
@@ -54,7 +59,7 @@ public class Publications {
         Server server = new Server();
         server.deploy(application);
         server.start(Undertow.builder()
-                .setServerOption(UndertowOptions.MAX_ENTITY_SIZE, 50 * 1024 * 1024L)
+                .setServerOption(UndertowOptions.MAX_ENTITY_SIZE, config.getMaxUploadSize() * 1024 * 1024L)
                 .addHttpListener(config.getPort(), "::"));
         LOG.info("Listening on port {}", server.port());
     }
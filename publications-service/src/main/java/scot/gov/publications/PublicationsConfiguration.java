@@ -16,8 +16,23 @@ public class PublicationsConfiguration {
     @Valid
     S3 s3 = new S3();
 
+    @Valid
+    Queue queue = new Queue();
+
+    @Valid
+    Cache cache = new Cache();
+
+    @Valid
+    Admission admission = new Admission();
+
+    @Valid
+    Processes processes = new Processes();
+
     int port;
 
+    // maximum size of an uploaded zip in megabytes
+    int maxUploadSize = 200;
+
     public Hippo getHippo() {
         return hippo;
     }
@@ -42,6 +57,38 @@ public class PublicationsConfiguration {
         this.s3 = s3;
     }
 
+    public Queue getQueue() {
+        return queue;
+    }
+
+    public void setQueue(Queue queue) {
+        this.queue = queue;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    public Processes getProcesses() {
+        return processes;
+    }
+
+    public void setProcesses(Processes processes) {
+        this.processes = processes;
+    }
+
     public int getPort() {
         return port;
     }
@@ -50,6 +97,14 @@ public class PublicationsConfiguration {
         this.port = port;
     }
 
+    public int getMaxUploadSize() {
+        return maxUploadSize;
+    }
+
+    public void setMaxUploadSize(int maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+    }
+
     public static class Hippo {
 
         @Pattern(regexp = "rmi://.*")
@@ -61,6 +116,21 @@ public class PublicationsConfiguration {
         @NotNull
         private String password;
 
+        // number of documents, images or pages written between saves during an import, 0 saves once at the end
+        private int checkpointSize;
+
+        // maximum number of sessions kept open against the repository, 0 logs in for every session
+        private int poolSize = 4;
+
+        // seconds to wait for a session when all of them are in use
+        private int poolTimeout = 30;
+
+        // minutes after which an unused session is logged out
+        private int idleTimeout = 10;
+
+        // minutes before the index of topics, directorates, roles etc. is rebuilt, 0 queries the repository every time
+        private int referenceDataTtl = 10;
+
         public String getUrl() {
             return url;
         }
@@ -84,6 +154,46 @@ public class PublicationsConfiguration {
         public void setPassword(String password) {
             this.password = password;
         }
+
+        public int getCheckpointSize() {
+            return checkpointSize;
+        }
+
+        public void setCheckpointSize(int checkpointSize) {
+            this.checkpointSize = checkpointSize;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getPoolTimeout() {
+            return poolTimeout;
+        }
+
+        public void setPoolTimeout(int poolTimeout) {
+            this.poolTimeout = poolTimeout;
+        }
+
+        public int getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(int idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public int getReferenceDataTtl() {
+            return referenceDataTtl;
+        }
+
+        public void setReferenceDataTtl(int referenceDataTtl) {
+            this.referenceDataTtl = referenceDataTtl;
+        }
     }
 
     public static class Datasource {
@@ -144,6 +254,12 @@ public class PublicationsConfiguration {
 
         private String path;
 
+        // size in megabytes of the parts used to upload and download large zips, s3 requires at least 5
+        private int partSize = 16;
+
+        // number of parts transferred at the same time
+        private int concurrency = 4;
+
         public String getRegion() {
             return region;
         }
@@ -183,5 +299,198 @@ public class PublicationsConfiguration {
         public void setPath(String path) {
             this.path = path;
         }
+
+        public int getPartSize() {
+            return partSize;
+        }
+
+        public void setPartSize(int partSize) {
+            this.partSize = partSize;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+    }
+
+    public static class Queue {
+
+        // identifies this node when claiming publications, defaults to the hostname
+        private String nodeId;
+
+        // number of publications this node will import concurrently
+        private int workers = 2;
+
+        // seconds between polls of the database for pending publications
+        private int pollInterval = 10;
+
+        // minutes after which a publication claimed by another node is assumed to have been abandoned
+        private int orphanTimeout = 60;
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public void setNodeId(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(int pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+
+        public int getOrphanTimeout() {
+            return orphanTimeout;
+        }
+
+        public void setOrphanTimeout(int orphanTimeout) {
+            this.orphanTimeout = orphanTimeout;
+        }
+    }
+
+    public static class Cache {
+
+        // directory used to cache uploaded zips, defaults to a directory in java.io.tmpdir
+        private String directory;
+
+        // maximum size of the cache in megabytes, 0 disables the cache
+        private int maxSize = 2048;
+
+        // directory used to cache thumbnails, defaults to a directory in java.io.tmpdir
+        private String thumbnailDirectory;
+
+        // maximum size of the thumbnail cache in megabytes, 0 disables the cache
+        private int thumbnailMaxSize = 256;
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public String getThumbnailDirectory() {
+            return thumbnailDirectory;
+        }
+
+        public void setThumbnailDirectory(String thumbnailDirectory) {
+            this.thumbnailDirectory = thumbnailDirectory;
+        }
+
+        public int getThumbnailMaxSize() {
+            return thumbnailMaxSize;
+        }
+
+        public void setThumbnailMaxSize(int thumbnailMaxSize) {
+            this.thumbnailMaxSize = thumbnailMaxSize;
+        }
+    }
+
+    public static class Admission {
+
+        // minutes a new upload may be expected to wait before it is imported, 0 disables admission control
+        private int latencyBudget = 60;
+
+        // minutes of recent imports used to measure throughput
+        private int window = 60;
+
+        // uploads are always accepted while fewer than this many publications are waiting
+        private int minWaiting = 10;
+
+        public int getLatencyBudget() {
+            return latencyBudget;
+        }
+
+        public void setLatencyBudget(int latencyBudget) {
+            this.latencyBudget = latencyBudget;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+
+        public int getMinWaiting() {
+            return minWaiting;
+        }
+
+        public void setMinWaiting(int minWaiting) {
+            this.minWaiting = minWaiting;
+        }
+    }
+
+    public static class Processes {
+
+        // number of external processes such as graphicsmagick that can run at once, 0 uses the number of processors
+        private int concurrency;
+
+        // seconds an external process may run for before it is killed
+        private int timeout = 120;
+
+        // seconds to wait for one of the other processes to finish when concurrency processes are already running
+        private int permitTimeout = 300;
+
+        // number of long running exiftool processes used to count pages, 0 starts exiftool for every pdf
+        private int exiftoolPoolSize = 2;
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        public int getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getPermitTimeout() {
+            return permitTimeout;
+        }
+
+        public void setPermitTimeout(int permitTimeout) {
+            this.permitTimeout = permitTimeout;
+        }
+
+        public int getExiftoolPoolSize() {
+            return exiftoolPoolSize;
+        }
+
+        public void setExiftoolPoolSize(int exiftoolPoolSize) {
+            this.exiftoolPoolSize = exiftoolPoolSize;
+        }
     }
 }
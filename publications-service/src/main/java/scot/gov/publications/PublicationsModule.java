@@ -10,10 +10,14 @@ import scot.gov.publications.hippo.HippoSessionFactory;
 import scot.gov.publications.hippo.SessionFactory;
 import scot.gov.publications.imageprocessing.GraphicsMagickImageProcessingImpl;
 import scot.gov.publications.imageprocessing.ImageProcessing;
+import scot.gov.publications.imageprocessing.Java2DImageProcessingImpl;
+import scot.gov.publications.storage.CachingPublicationStorage;
 import scot.gov.publications.storage.PublicationStorage;
-import scot.gov.publications.storage.S3PublicationStorage;
 import scot.gov.publications.util.Exif;
+import scot.gov.publications.util.ExifPdfParserImpl;
 import scot.gov.publications.util.ExifProcessImpl;
+import scot.gov.publications.util.ExifStayOpenImpl;
+import scot.gov.publications.util.ProcessRunner;
 import scot.mygov.config.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
@@ -70,14 +74,19 @@ class PublicationsModule {
 
     @Provides
     @Singleton
-    ImageProcessing imageProcessing() {
-        return new GraphicsMagickImageProcessingImpl();
+    ImageProcessing imageProcessing(ProcessRunner processRunner) {
+        // graphicsmagick is still used to rasterise pdf cover pages
+        return new Java2DImageProcessingImpl(new GraphicsMagickImageProcessingImpl(processRunner));
     }
 
     @Provides
     @Singleton
-    Exif exif() {
-        return new ExifProcessImpl();
+    Exif exif(PublicationsConfiguration configuration, ProcessRunner processRunner) {
+        // exiftool is only used for pdfs that the parser cannot read
+        Exif exiftool = configuration.getProcesses().getExiftoolPoolSize() > 0
+                ? new ExifStayOpenImpl(processRunner)
+                : new ExifProcessImpl(processRunner);
+        return new ExifPdfParserImpl(exiftool);
     }
 
     @Provides
@@ -94,8 +103,8 @@ class PublicationsModule {
 
     @Provides
     @Singleton
-    public PublicationStorage publicationStorage(S3PublicationStorage s3Storage) {
-        return s3Storage;
+    public PublicationStorage publicationStorage(CachingPublicationStorage cachingStorage) {
+        return cachingStorage;
     }
 
     @Provides
@@ -106,6 +106,26 @@ public class PublicationsSearchJournal {
         return entries;
     }
 
+    /**
+     * Remove the entries for some of the pages of a publication, for example those that were not changed by a
+     * re-import of a publication that was already published.
+     */
+    List<SearchJournalEntry> withoutPages(
+            List<SearchJournalEntry> entries,
+            Node publicationFolder,
+            Set<String> pageNames) throws RepositoryException {
+
+        if (pageNames.isEmpty()) {
+            return entries;
+        }
+        Node publication = publicationFolder.getNode("index").getNode("index");
+        Set<String> urls = new HashSet<>();
+        for (String pageName : pageNames) {
+            urls.add(pageUrl(publication, pageName));
+        }
+        return entries.stream().filter(entry -> !urls.contains(entry.getUrl())).collect(toList());
+    }
+
     FunnelbackCollection funnelbackCollection(Node pub) throws RepositoryException {
         String publicationType = pub.getProperty("govscot:publicationType").getString();
         return FunnelbackCollection.getCollectionByPublicationType(publicationType);
@@ -117,8 +137,12 @@ public class PublicationsSearchJournal {
     }
 
     String pageUrl(Node pub, Node page) throws RepositoryException {
+        return pageUrl(pub, page.getName());
+    }
+
+    String pageUrl(Node pub, String pageName) throws RepositoryException {
         String publicationUrl = publicationUrl(pub);
-        return publicationUrl + "pages/" + page.getName() + "/";
+        return publicationUrl + "pages/" + pageName + "/";
     }
 
     boolean isContentsPage(Node handle) throws RepositoryException {
@@ -0,0 +1,74 @@
+package scot.gov.publications.hippo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Saves the session used by an import after every so many documents, images or pages have been written, so that the
+ * transient space of the session does not grow with the size of the publication.
+ *
+ * An interval of 0 disables checkpoints, in which case nothing is saved until the import saves the session itself.
+ */
+public class Checkpoints {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpoints.class);
+
+    private final Session session;
+
+    private final int interval;
+
+    private int written;
+
+    private int saved;
+
+    public Checkpoints(Session session, int interval) {
+        this.session = session;
+        this.interval = interval;
+    }
+
+    public static Checkpoints none(Session session) {
+        return new Checkpoints(session, 0);
+    }
+
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    /**
+     * The number of checkpoints saved so far.  Once this is non zero a failed import has to remove what it has saved.
+     */
+    public int getSaved() {
+        return saved;
+    }
+
+    /**
+     * Record that an item has been written, saving the session if a checkpoint is due.
+     */
+    public void written() throws RepositoryException {
+        if (!isEnabled()) {
+            return;
+        }
+
+        written++;
+        if (written >= interval) {
+            save();
+        }
+    }
+
+    /**
+     * Save the session if checkpoints are enabled and there is anything to save.
+     */
+    public void save() throws RepositoryException {
+        if (!isEnabled() || !session.hasPendingChanges()) {
+            return;
+        }
+
+        session.save();
+        saved++;
+        written = 0;
+        LOG.debug("Saved checkpoint {}", saved);
+    }
+}
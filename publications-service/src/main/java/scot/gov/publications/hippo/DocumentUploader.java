@@ -1,16 +1,14 @@
 package scot.gov.publications.hippo;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.publications.ApsZipImporterException;
 import scot.gov.publications.PublicationsConfiguration;
-import scot.gov.publications.imageprocessing.ImageProcessing;
-import scot.gov.publications.imageprocessing.ThumbnailsProvider;
 import scot.gov.publications.manifest.Manifest;
 import scot.gov.publications.manifest.ManifestEntry;
 import scot.gov.publications.metadata.Metadata;
-import scot.gov.publications.util.Exif;
+import scot.gov.publications.prepare.PreparedAssets;
+import scot.gov.publications.prepare.PreparedDocument;
 import scot.gov.publications.util.FileType;
 import scot.gov.publications.util.MimeTypeUtils;
 
@@ -18,6 +16,7 @@ import javax.jcr.*;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -25,15 +24,21 @@ import java.util.zip.ZipFile;
 import static scot.gov.publications.hippo.Constants.*;
 
 /**
- * Responsible for uploading documents to hippo.
+ * Responsible for uploading documents to hippo.  Page counts and thumbnails have already been computed by the
+ * AssetPreparer, so this only writes nodes.
+ *
+ * When a publication is re-imported, documents that have not changed since they were last imported are left alone
+ * so that their binaries and thumbnails are not written again.  Documents that have changed but whose content has
+ * not, for example because they were retitled or renamed, reuse the binary, page count and thumbnails of the existing
+ * document with the same content hash.
  */
 public class DocumentUploader {
 
     private static final Logger LOG = LoggerFactory.getLogger(DocumentUploader.class);
 
-    private Session session;
+    private static final String GOVSCOT_DOCUMENT = "govscot:document";
 
-    private Exif exif;
+    private Session session;
 
     private HippoUtils hippoUtils = new HippoUtils();
 
@@ -41,23 +46,27 @@ public class DocumentUploader {
 
     private HippoPaths hippoPaths;
 
-    private ThumbnailsProvider thumbnailsProvider;
+    private Checkpoints checkpoints;
 
-    public DocumentUploader(Session session, ImageProcessing imageProcessing, Exif exif, PublicationsConfiguration configuration) {
+    public DocumentUploader(Session session, PublicationsConfiguration configuration) {
+        this(session, configuration, Checkpoints.none(session));
+    }
+
+    public DocumentUploader(Session session, PublicationsConfiguration configuration, Checkpoints checkpoints) {
         this.session = session;
-        this.exif = exif;
         this.hippoPaths = new HippoPaths(session);
         this.nodeFactory = new HippoNodeFactory(session, configuration);
-        this.thumbnailsProvider = new ThumbnailsProvider(imageProcessing);
+        this.checkpoints = checkpoints;
     }
 
     public Map<String, Node> uploadDocuments(
             ZipFile zipFile,
             Node pubFolder,
             Manifest manifest,
-            Metadata metadata) throws ApsZipImporterException {
+            Metadata metadata,
+            PreparedAssets assets) throws ApsZipImporterException {
         try {
-            return doUploadDocuments(zipFile, pubFolder, manifest, metadata);
+            return doUploadDocuments(zipFile, pubFolder, manifest, metadata, assets);
         } catch (RepositoryException | IOException e) {
             throw new ApsZipImporterException("Failed to upload documents", e);
         }
@@ -67,7 +76,8 @@ public class DocumentUploader {
             ZipFile zipFile,
             Node pubFolder,
             Manifest manifest,
-            Metadata metadata) throws RepositoryException, IOException, ApsZipImporterException {
+            Metadata metadata,
+            PreparedAssets assets) throws RepositoryException, IOException, ApsZipImporterException {
 
         LOG.info("Uploading {} documents to {}", manifest.getEntries().size(), pubFolder.getPath());
         Map<String, Node> filenameToDocument = new HashMap<>();
@@ -76,18 +86,33 @@ public class DocumentUploader {
         Node documentsFolder = hippoPaths.ensurePath(path);
         documentsFolder.setProperty(HIPPOSTD_FOLDERTYPE, new String[]{"new-publication-document-info", "new-publication-documents-folder"});
         SortedMap<String, String> existingDocumentTitles = existingDocumentTitles(documentsFolder);
-        hippoUtils.removeChildren(documentsFolder);
+        Map<String, Node> existingHandles = existingHandles(documentsFolder);
+        ExistingContentIndex existingContent = new ExistingContentIndex(
+                existingHandles.values(), assets.getDocumentContentHashes());
 
+        List<String> handleNames = new ArrayList<>();
+        Set<String> keptHandles = new HashSet<>();
         for (ManifestEntry manifestEntry : manifest.getEntries()) {
             Node docNode = uploadDocument(
                     zipFile,
                     manifest,
                     manifestEntry,
                     documentsFolder,
+                    existingHandles.remove(manifestEntry.getFriendlyFilename()),
                     existingDocumentTitles,
-                    metadata);
+                    existingContent,
+                    metadata,
+                    assets);
             filenameToDocument.put(manifestEntry.getFilename(), docNode);
+            Node handle = docNode.getParent().getParent();
+            handleNames.add(handle.getName());
+            keptHandles.add(handle.getIdentifier());
+            checkpoints.written();
         }
+
+        // remove anything that is no longer in the manifest and keep the documents in manifest order
+        removeChildrenExcept(documentsFolder, keptHandles);
+        hippoUtils.orderChildren(documentsFolder, handleNames);
         return filenameToDocument;
     }
 
@@ -96,8 +121,11 @@ public class DocumentUploader {
             Manifest manifest,
             ManifestEntry manifestEntry,
             Node documentsFolder,
+            Node existingHandle,
             SortedMap<String, String> existingDocumentTitles,
-            Metadata metadata) throws RepositoryException, IOException, ApsZipImporterException {
+            ExistingContentIndex existingContent,
+            Metadata metadata,
+            PreparedAssets assets) throws RepositoryException, IOException, ApsZipImporterException {
 
         ZipEntry zipEntry = manifest.findZipEntry(zipFile, manifestEntry);
 
@@ -106,6 +134,27 @@ public class DocumentUploader {
                     "Manifest specifies document not present in zip: " + manifestEntry.getFilename());
         }
         String title = getTitle(manifestEntry, existingDocumentTitles);
+        ImportFingerprint fingerprint = ImportFingerprint.of(zipEntry)
+                .with(manifestEntry.getFriendlyFilename())
+                .with(title)
+                .withStatus(metadata.getPublicationDateWithTimezone(), metadata.shoudlEmbargo());
+        Node unchanged = unchangedDocument(existingHandle, fingerprint);
+        if (unchanged != null) {
+            LOG.info("Document {} has not changed, leaving it alone", manifestEntry.getFilename());
+            return unchanged.getNode(GOVSCOT_DOCUMENT);
+        }
+
+        PreparedDocument prepared = assets.getDocument(zipEntry.getName());
+        if (prepared == null) {
+            throw new ApsZipImporterException("Document was not prepared: " + manifestEntry.getFilename());
+        }
+
+        // the document has changed, replace it once anything that may be reused from it has been read
+        ExistingContent content = existingContent.get(prepared.getContentHash());
+        if (existingHandle != null) {
+            existingContent.beforeRemove(existingHandle);
+            existingHandle.remove();
+        }
         String slug = hippoPaths.slugify(title);
         Node handle = nodeFactory.newHandle(title, documentsFolder, slug);
         Node documentInfoNode = nodeFactory.newDocumentNodeWithoutSlug(
@@ -120,22 +169,105 @@ public class DocumentUploader {
         documentInfoNode.setProperty("govscot:highlighted", false);
 
         String mimeType = detectContentType(manifestEntry.getFriendlyFilename());
-        Node resourceNode = nodeFactory.newResourceNode(
-                documentInfoNode,
-                "govscot:document",
-                manifestEntry.getFriendlyFilename(),
-                mimeType,
-                zipFile,
-                zipEntry);
-
-        long pageCount = exif.pageCount(resourceNode.getProperty(JCR_DATA).getBinary(), mimeType);
-        documentInfoNode.setProperty(GOVSCOT_PAGE_COUNT, pageCount);
-        if ("application/pdf".equals(mimeType)) {
-            createThumbnails(resourceNode);
+        Node resourceNode;
+        if (content != null) {
+            LOG.info("Reusing existing content for {}", manifestEntry.getFilename());
+            resourceNode = nodeFactory.newResourceNode(
+                    documentInfoNode,
+                    GOVSCOT_DOCUMENT,
+                    manifestEntry.getFriendlyFilename(),
+                    mimeType,
+                    content.data);
+            documentInfoNode.setProperty(GOVSCOT_PAGE_COUNT, content.pageCount);
+            for (Map.Entry<String, Binary> thumbnail : content.thumbnails.entrySet()) {
+                addThumbnail(documentInfoNode, manifestEntry.getFriendlyFilename() + thumbnail.getKey(), thumbnail.getValue());
+            }
+        } else {
+            if (prepared.isExisting()) {
+                // the content this was prepared against is no longer in the repository
+                throw new ApsZipImporterException("Document was not prepared: " + manifestEntry.getFilename());
+            }
+            resourceNode = nodeFactory.newResourceNode(
+                    documentInfoNode,
+                    GOVSCOT_DOCUMENT,
+                    manifestEntry.getFriendlyFilename(),
+                    mimeType,
+                    zipFile,
+                    zipEntry);
+            documentInfoNode.setProperty(GOVSCOT_PAGE_COUNT, prepared.getPageCount());
+            if ("application/pdf".equals(mimeType)) {
+                createThumbnails(resourceNode, prepared.getThumbnails());
+            }
         }
+        documentInfoNode.setProperty(GOVSCOT_CONTENT_HASH, prepared.getContentHash());
+        fingerprint.record(documentInfoNode);
         return resourceNode;
     }
 
+    /**
+     * The existing document if it was imported from the same entry with the same title and status and has not been
+     * edited since, otherwise null.
+     */
+    private Node unchangedDocument(Node handle, ImportFingerprint fingerprint) throws RepositoryException {
+        if (handle == null) {
+            return null;
+        }
+        Node variant = hippoUtils.onlyVariant(handle);
+        if (variant == null || !variant.hasNode(GOVSCOT_DOCUMENT)) {
+            return null;
+        }
+        return fingerprint.matches(variant) ? variant : null;
+    }
+
+    /**
+     * The document handles in the documents folder, by the filename of their document.
+     */
+    private Map<String, Node> existingHandles(Node documentsFolder) throws RepositoryException {
+        Map<String, Node> handles = new HashMap<>();
+        NodeIterator it = documentsFolder.getNodes();
+        while (it.hasNext()) {
+            Node handle = it.nextNode();
+            Node variant = handle.isNodeType("hippo:handle") ? hippoUtils.mostRecentDraft(handle) : null;
+            if (variant != null && variant.hasNode(GOVSCOT_DOCUMENT)) {
+                String filename = variant.getNode(GOVSCOT_DOCUMENT).getProperty(HIPPO_FILENAME).getString();
+                handles.putIfAbsent(filename, handle);
+            }
+        }
+        return handles;
+    }
+
+    /**
+     * The content hashes of the documents in the documents folder of a publication, used to avoid preparing
+     * documents whose content is already in the repository.
+     */
+    public Set<String> existingContentHashes(Node publicationNode) throws RepositoryException {
+        Set<String> hashes = new HashSet<>();
+        if (publicationNode == null) {
+            return hashes;
+        }
+        Node pubFolder = publicationNode.getParent().getParent();
+        if (!pubFolder.hasNode("documents")) {
+            return hashes;
+        }
+        for (Node handle : existingHandles(pubFolder.getNode("documents")).values()) {
+            Node variant = hippoUtils.mostRecentDraft(handle);
+            if (variant.hasProperty(GOVSCOT_CONTENT_HASH)) {
+                hashes.add(variant.getProperty(GOVSCOT_CONTENT_HASH).getString());
+            }
+        }
+        return hashes;
+    }
+
+    private void removeChildrenExcept(Node node, Set<String> identifiers) throws RepositoryException {
+        NodeIterator it = node.getNodes();
+        while (it.hasNext()) {
+            Node child = it.nextNode();
+            if (!identifiers.contains(child.getIdentifier())) {
+                child.remove();
+            }
+        }
+    }
+
     private String detectContentType(String filename) throws ApsZipImporterException {
         try {
             return MimeTypeUtils.detectContentType(filename);
@@ -153,7 +285,7 @@ public class DocumentUploader {
             if ("hippo:handle".equals(handle.getPrimaryNodeType())) {
                 Node documentInfoNode = hippoUtils.mostRecentDraft(handle);
                 String title = documentInfoNode.getProperty("govscot:title").getString();
-                String name = documentInfoNode.getNode("govscot:document").getProperty("hippo:friendlyFilename").getString();
+                String name = documentInfoNode.getNode(GOVSCOT_DOCUMENT).getProperty("hippo:friendlyFilename").getString();
                 titleByName.put(name, title);
             }
         }
@@ -177,26 +309,111 @@ public class DocumentUploader {
         return manifestEntry.getTitleOrFilename();
     }
 
-    private void createThumbnails(Node documentNode) throws RepositoryException, IOException {
+    private void createThumbnails(Node documentNode, Map<Integer, File> thumbnails) throws RepositoryException, IOException {
         Node documentInformationNode = documentNode.getParent();
-        Binary data = documentNode.getProperty(JCR_DATA).getBinary();
-        String mimeType = documentNode.getProperty(JCR_MIMETYPE).getString();
         String filename = documentNode.getProperty(HIPPO_FILENAME).getString();
-        Map<Integer, File> thumbnails = thumbnailsProvider.thumbnails(data.getStream(), mimeType);
 
         List<Integer> sortedKeys = new ArrayList<>(thumbnails.keySet());
         Collections.sort(sortedKeys);
         for (Integer size : sortedKeys) {
             File thumbnail = thumbnails.get(size);
-            Node resourceNode = documentInformationNode.addNode("govscot:thumbnails", "hippo:resource");
-            resourceNode.addMixin("hippo:skipindex");
-            Binary binary = session.getValueFactory().createBinary(new FileInputStream(thumbnail));
-            String thumbnailFilename = String.format("%s_%s.png", filename, size);
-            resourceNode.setProperty(HIPPO_FILENAME, thumbnailFilename);
-            resourceNode.setProperty(JCR_DATA, binary);
-            resourceNode.setProperty(JCR_MIMETYPE, FileType.PNG.getMimeType());
-            resourceNode.setProperty(JCR_LAST_MODIFIED, Calendar.getInstance());
-            FileUtils.deleteQuietly(thumbnail);
+            Binary binary;
+            try (InputStream in = new FileInputStream(thumbnail)) {
+                binary = session.getValueFactory().createBinary(in);
+            }
+            addThumbnail(documentInformationNode, String.format("%s_%s.png", filename, size), binary);
+        }
+    }
+
+    private void addThumbnail(Node documentInformationNode, String filename, Binary binary) throws RepositoryException {
+        Node resourceNode = documentInformationNode.addNode("govscot:thumbnails", "hippo:resource");
+        resourceNode.addMixin("hippo:skipindex");
+        resourceNode.setProperty(HIPPO_FILENAME, filename);
+        resourceNode.setProperty(JCR_DATA, binary);
+        resourceNode.setProperty(JCR_MIMETYPE, FileType.PNG.getMimeType());
+        resourceNode.setProperty(JCR_LAST_MODIFIED, Calendar.getInstance());
+    }
+
+    /**
+     * Content of an existing document that can be reused by a document with the same content hash.  Thumbnails are
+     * keyed by the part of their filename that follows the document filename, e.g. "_330.png".
+     */
+    private static class ExistingContent {
+
+        Binary data;
+
+        long pageCount;
+
+        Map<String, Binary> thumbnails = new LinkedHashMap<>();
+    }
+
+    /**
+     * The existing documents by content hash.  Fetching a binary over rmi copies its content, so binaries are only
+     * read for a hash that a changed document needs, either when that document asks for it or just before the
+     * existing document holding it is removed.
+     */
+    private class ExistingContentIndex {
+
+        private final Map<String, Node> variants = new HashMap<>();
+
+        private final Map<String, ExistingContent> loaded = new HashMap<>();
+
+        // the content hashes of the documents being imported
+        private final Set<String> needed;
+
+        ExistingContentIndex(Collection<Node> handles, Set<String> needed) throws RepositoryException {
+            this.needed = needed;
+            for (Node handle : handles) {
+                Node variant = hippoUtils.mostRecentDraft(handle);
+                if (variant.hasProperty(GOVSCOT_CONTENT_HASH) && variant.hasProperty(GOVSCOT_PAGE_COUNT)) {
+                    variants.putIfAbsent(variant.getProperty(GOVSCOT_CONTENT_HASH).getString(), variant);
+                }
+            }
+        }
+
+        ExistingContent get(String contentHash) throws RepositoryException {
+            if (loaded.containsKey(contentHash)) {
+                return loaded.get(contentHash);
+            }
+            Node variant = variants.get(contentHash);
+            ExistingContent content = variant == null ? null : load(variant);
+            loaded.put(contentHash, content);
+            return content;
+        }
+
+        /**
+         * Read the content of a handle that is about to be removed if a document being imported could reuse it.
+         */
+        void beforeRemove(Node handle) throws RepositoryException {
+            Node variant = hippoUtils.mostRecentDraft(handle);
+            if (variant != null && variant.hasProperty(GOVSCOT_CONTENT_HASH)) {
+                String contentHash = variant.getProperty(GOVSCOT_CONTENT_HASH).getString();
+                if (needed.contains(contentHash)) {
+                    get(contentHash);
+                }
+            }
+        }
+
+        private ExistingContent load(Node variant) throws RepositoryException {
+            Node documentNode = variant.getNode(GOVSCOT_DOCUMENT);
+            String filename = documentNode.getProperty(HIPPO_FILENAME).getString();
+            ExistingContent content = new ExistingContent();
+            content.data = documentNode.getProperty(JCR_DATA).getBinary();
+            content.pageCount = variant.getProperty(GOVSCOT_PAGE_COUNT).getLong();
+            NodeIterator it = variant.getNodes("govscot:thumbnails");
+            while (it.hasNext()) {
+                Node thumbnail = it.nextNode();
+                String thumbnailFilename = thumbnail.getProperty(HIPPO_FILENAME).getString();
+                if (!thumbnailFilename.startsWith(filename)) {
+                    LOG.warn("Not reusing thumbnail {} of {}, its name does not start with the document filename",
+                            thumbnailFilename, filename);
+                    continue;
+                }
+                content.thumbnails.put(
+                        thumbnailFilename.substring(filename.length()),
+                        thumbnail.getProperty(JCR_DATA).getBinary());
+            }
+            return content;
         }
     }
 }
@@ -0,0 +1,75 @@
+package scot.gov.publications.hippo;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.util.Map;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Lookups of the handles of published directorates, roles, people, featured roles and topics by node name.
+ *
+ * These are the fallbacks used when a name is not in the reference data index.  The name is a bind variable, so the
+ * statements are parsed once per session and names that are not valid in an xpath step are matched rather than
+ * breaking the query.
+ */
+public class HandleQueries {
+
+    private static final String BY_NAME =
+            "SELECT * FROM [%s] AS d " +
+            "WHERE ISDESCENDANTNODE(d, '%s') " +
+            "AND NAME(d) = $name " +
+            "AND d.[hippostd:state] = 'published'";
+
+    // documents of a type anywhere inside a folder with the given name
+    private static final String IN_FOLDER =
+            "SELECT d.* FROM [%s] AS d " +
+            "INNER JOIN [hippostd:folder] AS f ON ISDESCENDANTNODE(d, f) " +
+            "WHERE ISDESCENDANTNODE(f, '/content/documents/govscot') " +
+            "AND NAME(f) = $name " +
+            "AND d.[hippostd:state] = 'published'";
+
+    private static final String ROLE = String.format(BY_NAME, "govscot:Role", "/content/documents/govscot");
+
+    private static final String PERSON = String.format(BY_NAME, "govscot:Person", "/content/documents/govscot");
+
+    private static final String TOPIC = String.format(BY_NAME, "nt:base", "/content/documents/govscot/topics");
+
+    private static final String DIRECTORATE = String.format(IN_FOLDER, "govscot:Directorate");
+
+    private static final String FEATURED_ROLE = String.format(IN_FOLDER, "govscot:FeaturedRole");
+
+    private final PreparedQueries queries;
+
+    public HandleQueries(PreparedQueries queries) {
+        this.queries = queries;
+    }
+
+    public Node directorateHandle(String directorate) throws RepositoryException {
+        return handle(queries.findOne(DIRECTORATE, "d", name(directorate)));
+    }
+
+    public Node featuredRoleHandle(String role) throws RepositoryException {
+        return handle(queries.findOne(FEATURED_ROLE, "d", name(role)));
+    }
+
+    public Node roleHandle(String role) throws RepositoryException {
+        return handle(queries.findOne(ROLE, name(role)));
+    }
+
+    public Node personHandle(String person) throws RepositoryException {
+        return handle(queries.findOne(PERSON, name(person)));
+    }
+
+    public Node topicHandle(String topic) throws RepositoryException {
+        return handle(queries.findOne(TOPIC, name(topic)));
+    }
+
+    private static Map<String, String> name(String name) {
+        return singletonMap("name", name);
+    }
+
+    private static Node handle(Node document) throws RepositoryException {
+        return document == null ? null : document.getParent();
+    }
+}
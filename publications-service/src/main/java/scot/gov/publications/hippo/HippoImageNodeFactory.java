@@ -1,42 +1,38 @@
 package scot.gov.publications.hippo;
 
-import org.apache.commons.io.FileUtils;
-import scot.gov.publications.imageprocessing.ImageProcessing;
-import scot.gov.publications.imageprocessing.ImageProcessingException;
+import scot.gov.publications.prepare.PreparedImage;
 import scot.gov.publications.util.MimeTypeUtils;
 
 import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Calendar;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 public class HippoImageNodeFactory {
 
-    Session session;
+    private static final String ORIGINAL = "hippogallery:original";
+
+    private static final String FILENAME = "hippogallery:filename";
 
-    BufferedImageSource bufferedImageSource = new BufferedImageSource();
+    Session session;
 
     BinarySource binarySource;
 
     HippoUtils hippoUtils = new HippoUtils();
 
-    ImageProcessing imageProcessing;
-
     HippoImageNodeFactory() {
         // default constructor useful in tests
     }
 
-    public HippoImageNodeFactory(Session session, ImageProcessing imageProcessing) {
+    public HippoImageNodeFactory(Session session) {
         this.session = session;
         this.binarySource = new BinarySource(session);
-        this.imageProcessing = imageProcessing;
     }
 
     public Node ensureImageSetNodeExists(
@@ -44,41 +40,36 @@ public class HippoImageNodeFactory {
             ZipEntry zipEntry,
             Node folder,
             String type,
-            String name) throws RepositoryException {
+            String name,
+            PreparedImage prepared) throws RepositoryException {
 
         Node imageSet = imageSetNode(folder, type, name);
-        String mimetype = MimeTypeUtils.detectContentType(name);
-        ensureImageNode(imageSet, "hippogallery:original", mimetype, zipFile, zipEntry);
-
-        File thumbnail = null;
+        ImportFingerprint fingerprint = ImportFingerprint.of(zipEntry);
+        if (fingerprint.matches(imageSet) && imageSet.hasNode(ORIGINAL)) {
+            // the image has not changed since it was last imported
+            return imageSet;
+        }
 
-        try {
-            thumbnail = imageProcessing.thumbnail(zipFile.getInputStream(zipEntry), 60);
-            ensureImageNode(imageSet, "hippogallery:thumbnail", mimetype, binarySource.get(new FileInputStream(thumbnail)), 60, 60);
+        String mimetype = MimeTypeUtils.detectContentType(name);
+        try (InputStream original = zipFile.getInputStream(zipEntry);
+             InputStream thumbnail = new FileInputStream(prepared.getThumbnail())) {
+            ensureImageNode(imageSet, ORIGINAL, mimetype, binarySource.get(original),
+                    prepared.getWidth(), prepared.getHeight());
+            ensureImageNode(imageSet, "hippogallery:thumbnail", mimetype, binarySource.get(thumbnail), 60, 60);
+            fingerprint.record(imageSet);
             return imageSet;
-        } catch (IOException | ImageProcessingException e) {
+        } catch (IOException e) {
             throw new RepositoryException("Failed to create images", e);
-        } finally {
-            FileUtils.deleteQuietly(thumbnail);
         }
     }
 
     Node imageSetNode(Node galleryNode, String type, String name) throws RepositoryException {
         Node handle = hippoUtils.ensureNode(galleryNode, name, "hippo:handle", "mix:referenceable");
         Node imageSet = hippoUtils.ensureNode(handle, name, type);
-        imageSet.setProperty("hippogallery:filename", name);
-        return imageSet;
-    }
-
-    Node ensureImageNode(Node imageSet, String name, String mimetype, ZipFile zipFile, ZipEntry zipEntry) throws RepositoryException {
-        try {
-            BufferedImage bimg = bufferedImageSource.get(zipFile.getInputStream(zipEntry));
-            int width = bimg.getWidth();
-            int height = bimg.getHeight();
-            return ensureImageNode(imageSet, name, mimetype, binarySource.get(zipFile.getInputStream(zipEntry)), width, height);
-        } catch (IOException e) {
-            throw new RepositoryException("Unable to read image", e);
+        if (!imageSet.hasProperty(FILENAME) || !name.equals(imageSet.getProperty(FILENAME).getString())) {
+            imageSet.setProperty(FILENAME, name);
         }
+        return imageSet;
     }
 
     Node ensureImageNode(Node imageSet, String name, String mimetype, Binary bin, int width, int height)
@@ -4,6 +4,7 @@ import scot.gov.publications.PublicationsConfiguration;
 
 import javax.jcr.*;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.zip.ZipEntry;
@@ -190,23 +191,36 @@ public class HippoNodeFactory {
             ZipFile zipFile, ZipEntry zipEntry)
             throws RepositoryException {
 
-        try {
-            Node resourceNode = parent.addNode(property, "hippo:resource");
-            Binary binary = session.getValueFactory().createBinary(zipFile.getInputStream(zipEntry));
-
-            resourceNode.setProperty(HIPPO_FILENAME, filename);
-            resourceNode.setProperty(JCR_DATA, binary);
-            resourceNode.setProperty(JCR_MIMETYPE, contentType);
-            resourceNode.setProperty(JCR_LAST_MODIFIED, Calendar.getInstance());
-
-            // to avoid costly text extraction, set hippo:text to an empty string
-            resourceNode.setProperty("hippo:text", "");
-            return resourceNode;
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            Binary binary = session.getValueFactory().createBinary(in);
+            return newResourceNode(parent, property, filename, contentType, binary);
         } catch (IOException e) {
             throw new RepositoryException(e);
         }
     }
 
+    /**
+     * Create a resource node for a binary that is already in the repository, without uploading it again.
+     */
+    public Node newResourceNode(
+            Node parent,
+            String property,
+            String filename,
+            String contentType,
+            Binary binary)
+            throws RepositoryException {
+
+        Node resourceNode = parent.addNode(property, "hippo:resource");
+        resourceNode.setProperty(HIPPO_FILENAME, filename);
+        resourceNode.setProperty(JCR_DATA, binary);
+        resourceNode.setProperty(JCR_MIMETYPE, contentType);
+        resourceNode.setProperty(JCR_LAST_MODIFIED, Calendar.getInstance());
+
+        // to avoid costly text extraction, set hippo:text to an empty string
+        resourceNode.setProperty("hippo:text", "");
+        return resourceNode;
+    }
+
     public void addBasicFields(Node node, String name) throws RepositoryException {
         hippoUtils.setPropertyIfAbsent(node, "hippo:name", name);
         node.setProperty("hippotranslation:locale", "en");
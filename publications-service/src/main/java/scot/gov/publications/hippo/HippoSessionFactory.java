@@ -1,27 +1,134 @@
 package scot.gov.publications.hippo;
 
 import org.hippoecm.repository.HippoRepositoryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scot.gov.publications.PublicationsConfiguration;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Factory for JCR sessions
+ * Factory for JCR sessions.
+ *
+ * Logging in to the repository over rmi is slow, so sessions are kept in a bounded pool and reused.  A session taken
+ * from the pool is checked to still be live, and one that has been idle for a while is also checked against the
+ * repository.  Released sessions have any unsaved changes discarded before they go back into the pool, and sessions
+ * that have not been used for the idle timeout are logged out.
  */
+@Singleton
 public class HippoSessionFactory implements SessionFactory {
 
+    private static final Logger LOG = LoggerFactory.getLogger(HippoSessionFactory.class);
+
+    // sessions idle for longer than this are checked against the repository before being reused
+    static final Duration VALIDATE_AFTER = Duration.ofSeconds(30);
+
     @Inject
     PublicationsConfiguration configuration;
 
+    @Inject
+    Clock clock;
+
+    // idle sessions, most recently used first
+    private final Deque<IdleSession> idle = new ArrayDeque<>();
+
+    // sessions currently handed out by the pool
+    private final Set<Session> active = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private Semaphore permits;
+
+    private long borrows;
+
+    private long totalWaitMillis;
+
+    private long maxWaitMillis;
+
     /**
-     * Create a new JCR session.
+     * Take a session from the pool, logging in if there is no idle session to reuse.
      *
-     * @return new JCR session
-     * @throws RepositoryException if session could not be created
+     * @return JCR session, to be passed to release once it is no longer needed
+     * @throws RepositoryException if session could not be created, or none became available within the pool timeout
      */
     public Session newSession() throws RepositoryException {
+        if (!pooled()) {
+            return login();
+        }
+
+        long start = System.nanoTime();
+        acquire();
+        recordWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        try {
+            Session session = takeIdle();
+            if (session == null) {
+                session = login();
+            }
+            synchronized (this) {
+                active.add(session);
+            }
+            return session;
+        } catch (RepositoryException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return a session to the pool.  Unsaved changes are discarded, and sessions that are no longer live or that did
+     * not come from the pool are logged out.
+     */
+    @Override
+    public void release(Session session) {
+        synchronized (this) {
+            if (!active.remove(session)) {
+                logoutQuietly(session);
+                return;
+            }
+        }
+
+        try {
+            if (session.isLive()) {
+                session.refresh(false);
+                synchronized (this) {
+                    idle.addFirst(new IdleSession(session, clock.instant()));
+                    evictIdle();
+                }
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.warn("Failed to reset session, discarding it", e);
+            logoutQuietly(session);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Number> metrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("size", active.size() + idle.size());
+        metrics.put("active", active.size());
+        metrics.put("idle", idle.size());
+        metrics.put("borrows", borrows);
+        metrics.put("meanWaitMillis", borrows == 0 ? 0 : totalWaitMillis / borrows);
+        metrics.put("maxWaitMillis", maxWaitMillis);
+        return metrics;
+    }
+
+    Session login() throws RepositoryException {
         String url = configuration.getHippo().getUrl();
         String user = configuration.getHippo().getUser();
         String password = configuration.getHippo().getPassword();
@@ -29,4 +136,100 @@ public class HippoSessionFactory implements SessionFactory {
                 .getHippoRepository(url)
                 .login(user, password.toCharArray());
     }
+
+    private boolean pooled() {
+        return configuration.getHippo().getPoolSize() > 0;
+    }
+
+    private void acquire() throws RepositoryException {
+        int timeout = configuration.getHippo().getPoolTimeout();
+        try {
+            if (!permits().tryAcquire(timeout, TimeUnit.SECONDS)) {
+                throw new RepositoryException(
+                        String.format("No JCR session became available within %d seconds", timeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted waiting for a JCR session", e);
+        }
+    }
+
+    private synchronized Semaphore permits() {
+        if (permits == null) {
+            permits = new Semaphore(configuration.getHippo().getPoolSize(), true);
+        }
+        return permits;
+    }
+
+    private synchronized void recordWait(long waitMillis) {
+        borrows++;
+        totalWaitMillis += waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+        if (waitMillis > 1000) {
+            LOG.warn("Waited {}ms for a JCR session", waitMillis);
+        }
+    }
+
+    /**
+     * The most recently used idle session that is still usable, or null if there is none.
+     */
+    private Session takeIdle() {
+        while (true) {
+            IdleSession candidate;
+            synchronized (this) {
+                evictIdle();
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            if (isValid(candidate)) {
+                return candidate.session;
+            }
+            LOG.info("Discarding JCR session that is no longer valid");
+            logoutQuietly(candidate.session);
+        }
+    }
+
+    private boolean isValid(IdleSession candidate) {
+        try {
+            if (!candidate.session.isLive()) {
+                return false;
+            }
+            Duration idleFor = Duration.between(candidate.since, clock.instant());
+            return idleFor.compareTo(VALIDATE_AFTER) < 0 || candidate.session.itemExists(HippoPaths.ROOT);
+        } catch (RepositoryException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Log out of sessions that have been idle for longer than the idle timeout, oldest first.
+     */
+    private void evictIdle() {
+        Instant cutoff = clock.instant().minus(Duration.ofMinutes(configuration.getHippo().getIdleTimeout()));
+        while (!idle.isEmpty() && idle.peekLast().since.isBefore(cutoff)) {
+            logoutQuietly(idle.pollLast().session);
+        }
+    }
+
+    private void logoutQuietly(Session session) {
+        try {
+            session.logout();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to log out of JCR session", e);
+        }
+    }
+
+    private static class IdleSession {
+
+        final Session session;
+
+        final Instant since;
+
+        IdleSession(Session session, Instant since) {
+            this.session = session;
+            this.since = since;
+        }
+    }
 }
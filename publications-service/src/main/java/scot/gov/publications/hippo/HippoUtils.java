@@ -134,10 +134,42 @@ public class HippoUtils {
         setPropertyStrings(node, property, values);
     }
 
+    /**
+     * Set a multi valued string property only if its values differ from the ones given.  Avoids modifying shared
+     * folders that other imports may be saving at the same time.
+     */
+    public void setPropertyStringsIfChanged(Node node, String property, Collection<String> values) throws RepositoryException {
+        if (node.hasProperty(property) && new ArrayList<>(values).equals(propertyStrings(node, property))) {
+            return;
+        }
+        setPropertyStrings(node, property, values);
+    }
+
+    private List<String> propertyStrings(Node node, String property) throws RepositoryException {
+        Property prop = node.getProperty(property);
+        List<String> strings = new ArrayList<>();
+        if (!prop.isMultiple()) {
+            strings.add(prop.getString());
+            return strings;
+        }
+        for (Value value : prop.getValues()) {
+            strings.add(value.getString());
+        }
+        return strings;
+    }
+
+    /**
+     * @deprecated values are formatted into the query, use PreparedQueries to bind them instead
+     */
+    @Deprecated
     public Node findOne(Session session, String queryTemplate, Object... args) throws RepositoryException {
         return findOneQuery(session, queryTemplate, Query.SQL, args);
     }
 
+    /**
+     * @deprecated values are formatted into the query, use PreparedQueries to bind them instead
+     */
+    @Deprecated
     public Node findFirst(Session session, String queryTemplate, Object... args) throws RepositoryException {
         String sql = String.format(queryTemplate, args);
         Query queryObj = session.getWorkspace().getQueryManager().createQuery(sql, Query.SQL);
@@ -147,6 +179,10 @@ public class HippoUtils {
                 : null;
     }
 
+    /**
+     * @deprecated values are formatted into the query, use PreparedQueries to bind them instead
+     */
+    @Deprecated
     public Node findOneQuery(Session session, String queryTemplate, String type, Object... args) throws RepositoryException {
         String sql = String.format(queryTemplate, args);
         Query queryObj = session.getWorkspace().getQueryManager().createQuery(sql, type);
@@ -184,6 +220,10 @@ public class HippoUtils {
         if (reverse) {
             Collections.reverse(sortedNames);
         }
+        // leave the node alone if it is already sorted so that concurrent imports do not both reorder it
+        if (sortedNames.equals(names(node.getNodes()))) {
+            return;
+        }
         for (int i = sortedNames.size() - 1; i >= 0; i--) {
             String before = sortedNames.get(i);
             String after = i < sortedNames.size() - 1 ? sortedNames.get(i + 1) : null;
@@ -214,6 +254,42 @@ public class HippoUtils {
         return names;
     }
 
+    /**
+     * Put the named children of a node in the given order.  The node is left alone if they are already in that order,
+     * otherwise any children that are not named end up before the named ones.
+     */
+    public void orderChildren(Node node, List<String> names) throws RepositoryException {
+        List<String> current = names(node.getNodes());
+        current.retainAll(names);
+        if (current.equals(names)) {
+            return;
+        }
+        for (String name : names) {
+            node.orderBefore(name, null);
+        }
+    }
+
+    /**
+     * The document variant of a handle if it has exactly one, otherwise null.  Documents that have been edited or
+     * published in the CMS have more than one variant.
+     */
+    public Node onlyVariant(Node handle) throws RepositoryException {
+        NodeIterator it = handle.getNodes(handle.getName());
+        if (!it.hasNext()) {
+            return null;
+        }
+        Node variant = it.nextNode();
+        return it.hasNext() ? null : variant;
+    }
+
+    private List<String> names(NodeIterator it) throws RepositoryException {
+        List<String> names = new ArrayList<>();
+        while (it.hasNext()) {
+            names.add(it.nextNode().getName());
+        }
+        return names;
+    }
+
     public boolean isHippoFolder(Node node) throws RepositoryException {
         return "hippostd:folder".equals(node.getPrimaryNodeType().getName());
     }
@@ -1,7 +1,7 @@
 package scot.gov.publications.hippo;
 
 import scot.gov.publications.ApsZipImporterException;
-import scot.gov.publications.imageprocessing.ImageProcessing;
+import scot.gov.publications.prepare.PreparedAssets;
 import scot.gov.publications.util.ZipEntryUtil;
 
 import javax.jcr.Node;
@@ -25,21 +25,30 @@ public class ImageUploader {
 
     HippoImageNodeFactory imageNodeFactory = new HippoImageNodeFactory();
 
-    public ImageUploader(Session session, ImageProcessing imageProcessing) {
+    Checkpoints checkpoints;
+
+    public ImageUploader(Session session) {
+        this(session, Checkpoints.none(session));
+    }
+
+    public ImageUploader(Session session, Checkpoints checkpoints) {
         this.hippoPaths = new HippoPaths(session);
-        this.imageNodeFactory = new HippoImageNodeFactory(session, imageProcessing);
+        this.imageNodeFactory = new HippoImageNodeFactory(session);
+        this.checkpoints = checkpoints;
     }
 
-    public Map<String, String> createImages(ZipFile zipFile, Node pubFolder) throws ApsZipImporterException {
+    public Map<String, String> createImages(ZipFile zipFile, Node pubFolder, PreparedAssets assets)
+            throws ApsZipImporterException {
         try {
             List<String> path = hippoUtils.pathFromNode(pubFolder);
-            return doCreateImages(zipFile, path);
+            return doCreateImages(zipFile, path, assets);
         } catch (RepositoryException e) {
             throw new ApsZipImporterException("Failed to upload images", e);
         }
     }
 
-    private Map<String, String> doCreateImages(ZipFile zipFile, List<String> path) throws RepositoryException {
+    private Map<String, String> doCreateImages(ZipFile zipFile, List<String> path, PreparedAssets assets)
+            throws RepositoryException {
         Map<String, String> filenameToImage = new HashMap<>();
 
         List<ZipEntry> imgEntries = zipFile.stream()
@@ -55,9 +64,11 @@ public class ImageUploader {
                     imgEntry,
                     galleryNode,
                     "govscot:PublicationInlineImage",
-                    imageFileName);
+                    imageFileName,
+                    assets.getImage(imgEntry.getName()));
             String imageNodeIdentifier = imgSetNode.getParent().getIdentifier();
             filenameToImage.put(imageFileName, imageNodeIdentifier);
+            checkpoints.written();
         }
         return filenameToImage;
     }
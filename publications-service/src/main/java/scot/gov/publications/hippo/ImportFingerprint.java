@@ -0,0 +1,83 @@
+package scot.gov.publications.hippo;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.HexFormat;
+import java.util.zip.ZipEntry;
+
+import static scot.gov.publications.hippo.Constants.GOVSCOT_IMPORT_FINGERPRINT;
+
+/**
+ * Summarises everything a node was imported from: the CRC of its zip entry and any other values that affect what is
+ * written.  The fingerprint is stored on the node so that when a publication is re-imported, nodes whose fingerprint
+ * has not changed can be left alone.
+ */
+public class ImportFingerprint {
+
+    private final MessageDigest digest;
+
+    private boolean known = true;
+
+    public ImportFingerprint() {
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Start a fingerprint from a zip entry.  Entries read from a zip file always have a CRC, if it is not known then
+     * the fingerprint never matches.
+     */
+    public static ImportFingerprint of(ZipEntry zipEntry) {
+        ImportFingerprint fingerprint = new ImportFingerprint();
+        if (zipEntry.getCrc() == -1) {
+            fingerprint.known = false;
+        }
+        return fingerprint.with(zipEntry.getName()).with(Long.toHexString(zipEntry.getCrc()));
+    }
+
+    public ImportFingerprint with(String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        // separate the values so that ("ab", "c") and ("a", "bc") have different fingerprints
+        digest.update((byte) 0);
+        return this;
+    }
+
+    /**
+     * Add the values that determine the publication status of a document, including whether it is published yet.
+     */
+    public ImportFingerprint withStatus(ZonedDateTime publishDateTime, boolean embargo) {
+        return with(publishDateTime.toInstant().toString())
+                .with(Boolean.toString(embargo))
+                .with(Boolean.toString(publishDateTime.isBefore(ZonedDateTime.now())));
+    }
+
+    public boolean matches(Node node) throws RepositoryException {
+        return known
+                && node.hasProperty(GOVSCOT_IMPORT_FINGERPRINT)
+                && value().equals(node.getProperty(GOVSCOT_IMPORT_FINGERPRINT).getString());
+    }
+
+    public void record(Node node) throws RepositoryException {
+        if (known) {
+            node.setProperty(GOVSCOT_IMPORT_FINGERPRINT, value());
+        } else if (node.hasProperty(GOVSCOT_IMPORT_FINGERPRINT)) {
+            node.getProperty(GOVSCOT_IMPORT_FINGERPRINT).remove();
+        }
+    }
+
+    public String value() {
+        try {
+            // clone so that the fingerprint can be read more than once
+            return HexFormat.of().formatHex(((MessageDigest) digest.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -8,6 +8,9 @@ import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import java.util.regex.Pattern;
+
+import static scot.gov.publications.hippo.Constants.HIPPOSTD_STATE;
 
 /**
  * Update relationships with policies based on the metadata.
@@ -16,12 +19,21 @@ public class PoliciesUpdater {
 
     private static final Logger LOG = LoggerFactory.getLogger(PoliciesUpdater.class);
 
+    private static final Pattern POLICY_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]*");
+
     Session session;
 
     HippoUtils hippoUtils = new HippoUtils();
 
+    ReferenceDataIndex referenceData;
+
     public PoliciesUpdater(Session session) {
+        this(session, ReferenceDataIndex.disabled());
+    }
+
+    public PoliciesUpdater(Session session, ReferenceDataIndex referenceData) {
         this.session = session;
+        this.referenceData = referenceData;
     }
 
     /**
@@ -54,10 +66,25 @@ public class PoliciesUpdater {
         }
     }
 
-    private Node    findPolicyLatestNode(String policy) throws RepositoryException {
-        String sql = "SELECT * FROM govscot:PolicyLatest WHERE jcr:path LIKE " +
-                "'/content/documents/govscot/policies/%s/latest/%%' AND hippostd:state = 'published'";
-        return hippoUtils.findOne(session, sql, policy);
+    private Node findPolicyLatestNode(String policy) throws RepositoryException {
+        Node policyLatest = referenceData.policyLatest(session, policy);
+        if (policyLatest != null) {
+            return policyLatest;
+        }
+
+        // the latest page of a policy is at a known path, so look it up rather than query for it
+        if (!POLICY_NAME.matcher(policy).matches()) {
+            LOG.warn("Invalid policy name {}", policy);
+            return null;
+        }
+        String path = String.format("/content/documents/govscot/policies/%s/latest", policy);
+        if (!session.nodeExists(path)) {
+            return null;
+        }
+        return hippoUtils.find(session.getNode(path).getNodes(),
+                node -> node.isNodeType("govscot:PolicyLatest")
+                        && node.hasProperty(HIPPOSTD_STATE)
+                        && "published".equals(node.getProperty(HIPPOSTD_STATE).getString()));
     }
 
     private boolean alreadyRelated(Node policyLatest, Node publication) throws RepositoryException {
@@ -0,0 +1,87 @@
+package scot.gov.publications.hippo;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JCR-SQL2 queries with bind variables, parsed once per session and reused.
+ *
+ * Values are bound rather than formatted into the statement, so they do not need escaping and the statement is the
+ * same for every value.  A PreparedQueries belongs to a single session and, like the session, should only be used by
+ * one thread.
+ */
+public class PreparedQueries {
+
+    private final Session session;
+
+    private final Map<String, Query> queries = new HashMap<>();
+
+    public PreparedQueries(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Execute a statement with its bind variables.
+     *
+     * @param statement JCR-SQL2 statement, with bind variables written as $name
+     * @param bindings the value of each bind variable by name
+     */
+    public QueryResult execute(String statement, Map<String, String> bindings) throws RepositoryException {
+        Query query = prepare(statement);
+        ValueFactory valueFactory = session.getValueFactory();
+        for (Map.Entry<String, String> binding : bindings.entrySet()) {
+            query.bindValue(binding.getKey(), valueFactory.createValue(binding.getValue()));
+        }
+        return query.execute();
+    }
+
+    /**
+     * The only node matched by a statement, or null if it matches no nodes or more than one.
+     */
+    public Node findOne(String statement, Map<String, String> bindings) throws RepositoryException {
+        NodeIterator it = execute(statement, bindings).getNodes();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Node node = it.nextNode();
+        return it.hasNext() ? null : node;
+    }
+
+    /**
+     * The only node matched by a selector of a statement, or null if it matches no rows or more than one.  Statements
+     * with a join have to name the selector to get nodes from.
+     */
+    public Node findOne(String statement, String selector, Map<String, String> bindings) throws RepositoryException {
+        RowIterator it = execute(statement, bindings).getRows();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Node node = it.nextRow().getNode(selector);
+        return it.hasNext() ? null : node;
+    }
+
+    /**
+     * The first node matched by a statement, or null if it matches none.
+     */
+    public Node findFirst(String statement, Map<String, String> bindings) throws RepositoryException {
+        NodeIterator it = execute(statement, bindings).getNodes();
+        return it.hasNext() ? it.nextNode() : null;
+    }
+
+    private Query prepare(String statement) throws RepositoryException {
+        Query query = queries.get(statement);
+        if (query == null) {
+            query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+            queries.put(statement, query);
+        }
+        return query;
+    }
+}
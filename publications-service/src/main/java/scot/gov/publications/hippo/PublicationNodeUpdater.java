@@ -13,7 +13,6 @@ import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -24,7 +23,6 @@ import java.util.*;
 import static org.apache.commons.lang3.ObjectUtils.firstNonNull;
 import static org.apache.commons.lang3.StringUtils.*;
 import static scot.gov.publications.hippo.Constants.*;
-import static scot.gov.publications.hippo.XpathQueryHelper.*;
 
 /**
  * Responsible for creating and updating publication nodes in Hippo based on the metedata from an APS  zip file.
@@ -63,13 +61,30 @@ public class PublicationNodeUpdater {
 
     SlugLookups slugLookups;
 
+    ReferenceDataIndex referenceData;
+
+    PreparedQueries queries;
+
+    HandleQueries handleQueries;
+
+    // publication nodes found for each isbn, kept for the length of the import
+    private final Map<String, Node> publicationNodesByIsbn = new HashMap<>();
+
     public PublicationNodeUpdater(Session session, PublicationsConfiguration configuration) {
+        this(session, configuration, ReferenceDataIndex.disabled());
+    }
+
+    public PublicationNodeUpdater(
+            Session session,
+            PublicationsConfiguration configuration,
+            ReferenceDataIndex referenceData) {
         this.session = session;
+        this.referenceData = referenceData;
         this.hippoPaths = new HippoPaths(session);
         this.nodeFactory = new HippoNodeFactory(session, configuration);
-        this.topicMappings = new TopicsUpdater(session);
+        this.topicMappings = new TopicsUpdater(session, referenceData);
         this.pathStrategy = new PublicationPathStrategy(session);
-        this.policiesUpdater = new PoliciesUpdater(session);
+        this.policiesUpdater = new PoliciesUpdater(session, referenceData);
         this.sitemap = new Sitemap(session);
         this.slugLookups = new SlugLookups(session);
     }
@@ -189,7 +204,10 @@ public class PublicationNodeUpdater {
             Node publicationNode,
             String propertyName,
             String directorate) throws RepositoryException {
-        Node handle = hippoUtils.findOneXPath(session, directorateHandleQuery(directorate));
+        Node handle = referenceData.directorateHandle(session, directorate);
+        if (handle == null) {
+            handle = handleQueries().directorateHandle(directorate);
+        }
         if (handle != null) {
             hippoUtils.createMirror(publicationNode, propertyName, handle);
         } else {
@@ -300,8 +318,10 @@ public class PublicationNodeUpdater {
             throw new ApsZipImporterException("invalid consultation URL");
         }
 
-        String xpath = String.format("//element(*, govscot:Publication)[govscot:slug = '%s'][hippo:availability = 'live'][hippostd:state = 'published']", slug);
-        Node consultation = hippoUtils.findOneXPath(session, xpath);
+        Node consultation = queries().findOne(
+                "SELECT * FROM [govscot:Publication] WHERE [govscot:slug] = $slug " +
+                        "AND [hippo:availability] = 'live' AND [hippostd:state] = 'published'",
+                Collections.singletonMap("slug", slug));
         if (consultation == null) {
             throw new ApsZipImporterException("Unable to find consultation " + consultationUrl);
         }
@@ -375,10 +395,15 @@ public class PublicationNodeUpdater {
     }
 
     private Node findRoleOrPerson(String roleOrPerson) throws RepositoryException {
+        Node handle = referenceData.roleOrPersonHandle(session, roleOrPerson);
+        if (handle != null) {
+            return handle;
+        }
+
         return firstNonNull(
-                hippoUtils.findOneXPath(session, roleHandleQuery(roleOrPerson)),
-                hippoUtils.findOneXPath(session, personHandleQuery(roleOrPerson)),
-                hippoUtils.findOneXPath(session, featuredRoleHandleQuery(roleOrPerson)));
+                handleQueries().roleHandle(roleOrPerson),
+                handleQueries().personHandle(roleOrPerson),
+                handleQueries().featuredRoleHandle(roleOrPerson));
     }
 
     private String mailToLink(String email) {
@@ -427,6 +452,7 @@ public class PublicationNodeUpdater {
                     type,
                     metadata.getPublicationDateWithTimezone(),
                     metadata.shoudlEmbargo());
+            publicationNodesByIsbn.put(metadata.normalisedIsbn(), pubNode);
         } else {
             // remove any other nodes there are ...
             hippoUtils.removeSiblings(pubNode);
@@ -480,12 +506,17 @@ public class PublicationNodeUpdater {
      * node we want to find all of then and then decide which node to use if there are multiple drafts.  If a
      * published node exists then use that. Then fall back to using the unpublished one and then finally to draft.
      */
-     public Node findPublicationNodeToUpdate(Metadata metadata) throws RepositoryException {
+    public Node findPublicationNodeToUpdate(Metadata metadata) throws RepositoryException {
         // Query to see if a publications with this ISBN already exist.  If it does then we will update the existing
-        // node rather than create a new one
-        String sql = String.format("SELECT * FROM govscot:Publication WHERE govscot:isbn = '%s'", metadata.normalisedIsbn());
-        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.SQL);
-        QueryResult result = query.execute();
+        // node rather than create a new one.  The result is kept since this is called more than once per import.
+        String isbn = metadata.normalisedIsbn();
+        if (publicationNodesByIsbn.containsKey(isbn)) {
+            return publicationNodesByIsbn.get(isbn);
+        }
+
+        QueryResult result = queries().execute(
+                "SELECT * FROM [govscot:Publication] WHERE [govscot:isbn] = $isbn",
+                Collections.singletonMap("isbn", isbn));
         Map<String, Node> byState = new HashMap<>();
         NodeIterator it = result.getNodes();
         while (it.hasNext()) {
@@ -493,10 +524,26 @@ public class PublicationNodeUpdater {
             String state = node.getProperty(HIPPOSTD_STATE).getString();
             byState.put(state, node);
         }
-        return firstNonNull(
+        Node publicationNode = firstNonNull(
                 byState.get("published"),
                 byState.get("unpublished"),
                 byState.get("draft"));
+        publicationNodesByIsbn.put(isbn, publicationNode);
+        return publicationNode;
+    }
+
+    private PreparedQueries queries() {
+        if (queries == null) {
+            queries = new PreparedQueries(session);
+        }
+        return queries;
+    }
+
+    private HandleQueries handleQueries() {
+        if (handleQueries == null) {
+            handleQueries = new HandleQueries(queries());
+        }
+        return handleQueries;
     }
 
 }
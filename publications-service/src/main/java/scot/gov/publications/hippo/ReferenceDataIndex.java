@@ -0,0 +1,268 @@
+package scot.gov.publications.hippo;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In memory index of the reference data that publications link to: publication types, topics, directorates, roles,
+ * people, featured roles and policies.
+ *
+ * This data changes rarely, so rather than querying the repository for each link an import makes, the index is built
+ * with one query per type the first time it is used and rebuilt once it is older than the configured ttl.  The index
+ * holds identifiers rather than nodes so that it can be shared between sessions.
+ *
+ * Lookups return null if the index does not contain exactly one match, in which case callers fall back to querying
+ * the repository.  This means that reference data created since the index was built can still be used.
+ *
+ * Only one thread rebuilds the index at a time, without holding a lock.  While it does, other threads keep using the
+ * previous index, or fall back to querying the repository if there is none.
+ */
+@Singleton
+public class ReferenceDataIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReferenceDataIndex.class);
+
+    private static final String GOVSCOT = "/jcr:root/content/documents/govscot";
+
+    private static final String PUBLISHED = "[hippostd:state = 'published']";
+
+    private static final String POLICIES_PATH = "/content/documents/govscot/policies/";
+
+    @Inject
+    PublicationsConfiguration configuration;
+
+    @Inject
+    Clock clock;
+
+    HippoUtils hippoUtils = new HippoUtils();
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // incremented by invalidate so that a rebuild started before it does not publish an out of date index
+    private long generation;
+
+    @Inject
+    public ReferenceDataIndex() {
+        // default constructor for injection
+    }
+
+    public ReferenceDataIndex(PublicationsConfiguration configuration, Clock clock) {
+        this.configuration = configuration;
+        this.clock = clock;
+    }
+
+    /**
+     * An index that never contains anything, so that every lookup falls back to querying the repository.
+     */
+    public static ReferenceDataIndex disabled() {
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getHippo().setReferenceDataTtl(0);
+        return new ReferenceDataIndex(configuration, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param slug the slugified publication type
+     * @return true if the type is known, false if it is not in the index
+     */
+    public boolean isPublicationType(Session session, String slug) throws RepositoryException {
+        Snapshot current = snapshot(session);
+        return current != null && current.publicationTypes.contains(slug);
+    }
+
+    public Node topicHandle(Session session, String topic) throws RepositoryException {
+        Snapshot current = snapshot(session);
+        return current == null ? null : resolve(session, current.topics, topic);
+    }
+
+    public Node directorateHandle(Session session, String directorate) throws RepositoryException {
+        Snapshot current = snapshot(session);
+        return current == null ? null : resolve(session, current.directorates, directorate);
+    }
+
+    /**
+     * Find a role, person or featured role, in that order.
+     */
+    public Node roleOrPersonHandle(Session session, String name) throws RepositoryException {
+        Snapshot current = snapshot(session);
+        if (current == null) {
+            return null;
+        }
+
+        Node handle = resolve(session, current.roles, name);
+        if (handle == null) {
+            handle = resolve(session, current.people, name);
+        }
+        if (handle == null) {
+            handle = resolve(session, current.featuredRoles, name);
+        }
+        return handle;
+    }
+
+    public Node policyLatest(Session session, String policy) throws RepositoryException {
+        Snapshot current = snapshot(session);
+        return current == null ? null : resolve(session, current.policies, policy);
+    }
+
+    /**
+     * Rebuild the index the next time it is used.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        snapshot = null;
+    }
+
+    private Snapshot snapshot(Session session) throws RepositoryException {
+        Duration ttl = Duration.ofMinutes(configuration.getHippo().getReferenceDataTtl());
+        if (ttl.isZero() || ttl.isNegative()) {
+            return null;
+        }
+
+        Snapshot current = snapshot;
+        Instant now = clock.instant();
+        if (current != null && !current.built.plus(ttl).isBefore(now)) {
+            return current;
+        }
+
+        if (!rebuilding.compareAndSet(false, true)) {
+            // another thread is rebuilding the index
+            return current;
+        }
+
+        try {
+            long started = currentGeneration();
+            Snapshot built = build(session, now);
+            return publish(built, started);
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    private synchronized long currentGeneration() {
+        return generation;
+    }
+
+    private synchronized Snapshot publish(Snapshot built, long started) {
+        if (generation == started) {
+            snapshot = built;
+        }
+        return built;
+    }
+
+    private Node resolve(Session session, Map<String, Set<String>> index, String name) throws RepositoryException {
+        Set<String> identifiers = index.get(name);
+        if (identifiers == null || identifiers.size() != 1) {
+            return null;
+        }
+
+        try {
+            return session.getNodeByIdentifier(identifiers.iterator().next());
+        } catch (ItemNotFoundException e) {
+            // deleted since the index was built
+            return null;
+        }
+    }
+
+    Snapshot build(Session session, Instant now) throws RepositoryException {
+        long start = System.currentTimeMillis();
+        Snapshot built = new Snapshot(now);
+
+        hippoUtils.executeXpathQuery(session,
+                GOVSCOT + "/valuelists/publicationTypes/publicationTypes/selection:listitem",
+                node -> built.publicationTypes.add(node.getProperty("selection:key").getString()));
+        hippoUtils.executeXpathQuery(session,
+                GOVSCOT + "/topics//*" + PUBLISHED,
+                node -> add(built.topics, node.getName(), node.getParent()));
+        hippoUtils.executeXpathQuery(session,
+                GOVSCOT + "//element(*, govscot:Role)" + PUBLISHED,
+                node -> add(built.roles, node.getName(), node.getParent()));
+        hippoUtils.executeXpathQuery(session,
+                GOVSCOT + "//element(*, govscot:Person)" + PUBLISHED,
+                node -> add(built.people, node.getName(), node.getParent()));
+        hippoUtils.executeXpathQuery(session,
+                GOVSCOT + "//element(*, govscot:Directorate)" + PUBLISHED,
+                node -> addByFolder(built.directorates, node.getParent()));
+        hippoUtils.executeXpathQuery(session,
+                GOVSCOT + "//element(*, govscot:FeaturedRole)" + PUBLISHED,
+                node -> addByFolder(built.featuredRoles, node.getParent()));
+        hippoUtils.executeQuery(session,
+                "SELECT * FROM govscot:PolicyLatest WHERE jcr:path LIKE '" + POLICIES_PATH + "%/latest/%' " +
+                        "AND hippostd:state = 'published'",
+                Query.SQL,
+                node -> true,
+                node -> add(built.policies, StringUtils.substringBetween(node.getPath(), POLICIES_PATH, "/latest/"), node));
+
+        LOG.info("Built reference data index in {}ms: {} publication types, {} topics, {} directorates, {} roles, " +
+                        "{} people, {} featured roles, {} policies",
+                System.currentTimeMillis() - start,
+                built.publicationTypes.size(),
+                built.topics.size(),
+                built.directorates.size(),
+                built.roles.size(),
+                built.people.size(),
+                built.featuredRoles.size(),
+                built.policies.size());
+        return built;
+    }
+
+    private void add(Map<String, Set<String>> index, String name, Node node) throws RepositoryException {
+        if (name != null) {
+            index.computeIfAbsent(name, k -> new HashSet<>()).add(node.getIdentifier());
+        }
+    }
+
+    /**
+     * Directorates and featured roles are looked up by the name of any folder they are in.
+     */
+    private void addByFolder(Map<String, Set<String>> index, Node handle) throws RepositoryException {
+        Node folder = handle.getParent();
+        while (folder.getPath().startsWith("/content/documents/govscot/")) {
+            if (folder.isNodeType("hippostd:folder")) {
+                add(index, folder.getName(), handle);
+            }
+            folder = folder.getParent();
+        }
+    }
+
+    static class Snapshot {
+
+        final Instant built;
+
+        final Set<String> publicationTypes = new HashSet<>();
+
+        final Map<String, Set<String>> topics = new HashMap<>();
+
+        final Map<String, Set<String>> directorates = new HashMap<>();
+
+        final Map<String, Set<String>> roles = new HashMap<>();
+
+        final Map<String, Set<String>> people = new HashMap<>();
+
+        final Map<String, Set<String>> featuredRoles = new HashMap<>();
+
+        final Map<String, Set<String>> policies = new HashMap<>();
+
+        Snapshot(Instant built) {
+            this.built = built;
+        }
+    }
+}
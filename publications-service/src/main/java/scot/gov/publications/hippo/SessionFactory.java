@@ -3,6 +3,8 @@ package scot.gov.publications.hippo;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import java.util.Collections;
+import java.util.Map;
 
 public interface SessionFactory {
 
@@ -13,4 +15,20 @@ public interface SessionFactory {
      * @throws RepositoryException if session could not be created
      */
     Session newSession() throws RepositoryException;
+
+    /**
+     * Release a session obtained from newSession once it is no longer needed.
+     *
+     * @param session the session to release
+     */
+    default void release(Session session) {
+        session.logout();
+    }
+
+    /**
+     * Metrics describing the sessions held by this factory, empty if it does not hold any.
+     */
+    default Map<String, Number> metrics() {
+        return Collections.emptyMap();
+    }
 }
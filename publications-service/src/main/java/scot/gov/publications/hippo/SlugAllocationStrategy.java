@@ -1,26 +1,37 @@
 package scot.gov.publications.hippo;
 
-import javax.jcr.Node;
+import org.apache.commons.lang3.StringUtils;
+
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Decide what slug we should use for a publication based on its title.
  *
- * The strategy used to avoid clashes is simply to add a number to the end of the slug starting with 2.
+ * The strategy used to avoid clashes is simply to add a number to the end of the slug starting with 2.  The slugs
+ * already in use for a title are fetched with a single query, so the cost of allocating a slug does not grow with
+ * the number of publications that share a title.
  */
 public class SlugAllocationStrategy {
 
+    private static final String SLUG = "govscot:slug";
+
     Session session;
 
     HippoPaths paths;
 
-    HippoUtils hippoUtils;
+    PreparedQueries queries;
 
     public SlugAllocationStrategy(Session session) {
         this.session = session;
         this.paths = new HippoPaths(session);
-        this.hippoUtils = new HippoUtils();
     }
 
     /**
@@ -32,31 +43,61 @@ public class SlugAllocationStrategy {
     public String allocate(String title) throws RepositoryException {
         // turn the title into a slug
         String slug = paths.slugify(title);
+        Set<String> existingSlugs = existingSlugs(slug);
 
         // if it does not already exist then just use this slug
-        if (!slugAlreadyExists(slug)) {
+        if (!existingSlugs.contains(slug)) {
             return slug;
         }
 
-        // the slug is already used, try appending a number starting from 2
+        // the slug is already used, use the first free number starting from 2
         // i.e. rather than try my-document-1 we will start from my-document-2
-        return disambiguate(slug, 2);
+        Set<Integer> usedPostfixes = usedPostfixes(slug, existingSlugs);
+        int postfix = 2;
+        while (usedPostfixes.contains(postfix)) {
+            postfix++;
+        }
+        return String.format("%s-%d", slug, postfix);
     }
 
-    private String disambiguate(String slug, int postfix) throws RepositoryException {
-        String candidate = String.format("%s-%d", slug, postfix);
-        if (!slugAlreadyExists(candidate)) {
-            // base case: we have found a unique slug
-            return candidate;
+    /**
+     * Fetch the slug and any slugs that start with it followed by a hyphen.
+     */
+    private Set<String> existingSlugs(String slug) throws RepositoryException {
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("slug", slug);
+        bindings.put("prefix", slug + "-%");
+        QueryResult result = queries().execute(
+                "SELECT [govscot:slug] FROM [govscot:SimpleContent] " +
+                        "WHERE [govscot:slug] = $slug OR [govscot:slug] LIKE $prefix",
+                bindings);
+        Set<String> slugs = new HashSet<>();
+        RowIterator it = result.getRows();
+        while (it.hasNext()) {
+            Row row = it.nextRow();
+            if (row.getValue(SLUG) != null) {
+                slugs.add(row.getValue(SLUG).getString());
+            }
         }
+        return slugs;
+    }
 
-        // recursive call to try the next number
-        return disambiguate(slug, postfix + 1);
+    private PreparedQueries queries() {
+        if (queries == null) {
+            queries = new PreparedQueries(session);
+        }
+        return queries;
     }
 
-    private boolean slugAlreadyExists(String slug) throws RepositoryException {
-        String sql = "SELECT * FROM govscot:SimpleContent WHERE govscot:slug = '%s'";
-        Node node = hippoUtils.findFirst(session, sql, slug);
-        return node != null;
+    private Set<Integer> usedPostfixes(String slug, Set<String> existingSlugs) {
+        Set<Integer> postfixes = new HashSet<>();
+        String prefix = slug + "-";
+        for (String existing : existingSlugs) {
+            String postfix = StringUtils.removeStart(existing, prefix);
+            if (existing.startsWith(prefix) && StringUtils.isNumeric(postfix) && postfix.length() < 10) {
+                postfixes.add(Integer.parseInt(postfix));
+            }
+        }
+        return postfixes;
     }
 }
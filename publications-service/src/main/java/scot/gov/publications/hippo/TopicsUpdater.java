@@ -10,8 +10,6 @@ import javax.jcr.Session;
 import java.util.HashMap;
 import java.util.Map;
 
-import static scot.gov.publications.hippo.XpathQueryHelper.topicHandleQuery;
-
 /**
  * Object capable of updating the topics a node has based on Metadara object.
  *
@@ -37,8 +35,17 @@ public class TopicsUpdater {
 
     HippoUtils hippoUtils = new HippoUtils();
 
+    ReferenceDataIndex referenceData;
+
+    HandleQueries handleQueries;
+
     public TopicsUpdater(Session session) {
+        this(session, ReferenceDataIndex.disabled());
+    }
+
+    public TopicsUpdater(Session session, ReferenceDataIndex referenceData) {
         this.session = session;
+        this.referenceData = referenceData;
 
         // Mappings from legacy topic to the new topics.
         topics.put("Agriculture", "farming-and-rural");
@@ -87,8 +94,10 @@ public class TopicsUpdater {
     }
 
     private void ensureTopic(Node publicationNode, String topic) throws RepositoryException {
-        String xpath = topicHandleQuery(topic);
-        Node topicNode = hippoUtils.findOneXPath(session, xpath);
+        Node topicNode = referenceData.topicHandle(session, topic);
+        if (topicNode == null) {
+            topicNode = handleQueries().topicHandle(topic);
+        }
         if (topicNode == null) {
             LOG.warn("No such topic {}", topic);
             return;
@@ -108,4 +117,11 @@ public class TopicsUpdater {
         mirror.setProperty("hippo:docbase", topicNode.getIdentifier());
     }
 
+    private HandleQueries handleQueries() {
+        if (handleQueries == null) {
+            handleQueries = new HandleQueries(new PreparedQueries(session));
+        }
+        return handleQueries;
+    }
+
 }
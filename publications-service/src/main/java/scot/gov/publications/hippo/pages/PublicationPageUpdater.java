@@ -12,6 +12,7 @@ import scot.gov.publications.hippo.rewriter.PublicationLinkRewriter;
 import scot.gov.publications.util.ZipEntryUtil;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import java.io.IOException;
@@ -24,6 +25,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static scot.gov.publications.hippo.Constants.*;
@@ -45,24 +47,36 @@ public class PublicationPageUpdater {
 
     HippoPaths hippoPaths;
 
+    Checkpoints checkpoints;
+
     public PublicationPageUpdater(Session session, PublicationsConfiguration configuration) {
+        this(session, configuration, Checkpoints.none(session));
+    }
+
+    public PublicationPageUpdater(Session session, PublicationsConfiguration configuration, Checkpoints checkpoints) {
         this.session = session;
         this.nodeFactory = new HippoNodeFactory(session, configuration);
         this.hippoPaths = new HippoPaths(session);
+        this.checkpoints = checkpoints;
     }
 
     /**
      * Ensure that the publication folder contains a pages folder containing a page node for each of the html pages
      * contained in the zip file.
      *
+     * When a publication is re-imported, pages that have not changed since they were last imported are left alone.
+     * Pages link to documents, images and each other, so if any of those have been replaced then every page is
+     * written again.
+     *
      * @param zipFile The zip file containing the publication
      * @param publicationFolder Node of the folder containing the publication in the repo
      * @param filenameToImageId Map image filenames to the node of that image in the repo
      * @param docnameToNode Map from the document name to the node of that document in the repo
      * @param publishDateTime The embargo date to use when creating page nodes
+     * @return the names of the pages that were left unchanged
      * @throws ApsZipImporterException
      */
-    public void addPages(
+    public Set<String> addPages(
             ZipFile zipFile,
             Node publicationFolder,
             Map<String, String> filenameToImageId,
@@ -73,68 +87,162 @@ public class PublicationPageUpdater {
 
         try {
             // map the names of all pages we have created
-            Map<String, Node> nodesByEntryname = doAddPages(
+            Map<String, Node> nodesByEntryname = new HashMap<>();
+            Set<String> unchangedPages = new HashSet<>();
+            List<Node> changedPages = doAddPages(
                     zipFile,
                     publicationFolder,
                     filenameToImageId,
+                    docnameToNode,
                     publishDateTime,
                     shouldEmbargo,
-                    isConsultation);
+                    isConsultation,
+                    nodesByEntryname,
+                    unchangedPages);
             nodesByEntryname.putAll(docnameToNode);
             PublicationLinkRewriter linkRewriter = new PublicationLinkRewriter(publicationFolder.getName(), nodesByEntryname);
-            linkRewriter.rewrite(publicationFolder);
+            linkRewriter.rewrite(changedPages);
+            return unchangedPages;
         } catch (IOException | RepositoryException e) {
             throw new ApsZipImporterException("Failed to upload pages", e);
         }
     }
 
-    private Map<String, Node> doAddPages(
+    private List<Node> doAddPages(
             ZipFile zipFile,
             Node publicationFolder,
             Map<String, String> filenameToImageId,
+            Map<String, Node> docnameToNode,
             ZonedDateTime publishDateTime,
             boolean shouldEmbargo,
-            boolean isConsultation)
+            boolean isConsultation,
+            Map<String, Node> pageNodesByEntry,
+            Set<String> unchangedPages)
                 throws IOException, RepositoryException, ApsZipImporterException {
 
         Node pages = ensurePagesNode(publicationFolder);
-        pages.setProperty(HIPPOSTD_FOLDERTYPE, new String[]{"new-publication-page"});
+        hippoUtils.setPropertyStringsIfChanged(pages, HIPPOSTD_FOLDERTYPE, singletonList("new-publication-page"));
         List<ZipEntry> htmlEntries = zipFile.stream().filter(ZipEntryUtil::isHtml).sorted(Comparator.comparing(ZipEntry::getName)).collect(toList());
-        Map<String, Node> pageNodesByEntry = new HashMap<>();
+        String linkTargets = linkTargets(publicationFolder, htmlEntries, filenameToImageId, docnameToNode);
+        List<Node> changedPages = new ArrayList<>();
+        List<String> pageNames = new ArrayList<>();
         boolean hasRespondPage = false;
         int i = 0;
         for (ZipEntry htmlEntry : htmlEntries) {
-            InputStream in = zipFile.getInputStream(htmlEntry);
-            String pageContent = IOUtils.toString(in, UTF_8);
-            Node pageNode = addPage(pages, pageContent, i, filenameToImageId, publishDateTime, shouldEmbargo);
+            String slug = Integer.toString(i);
+            ImportFingerprint fingerprint = ImportFingerprint.of(htmlEntry)
+                    .with(slug)
+                    .with(linkTargets)
+                    .withStatus(publishDateTime, shouldEmbargo);
+            Node pageNode = unchangedPage(pages, slug, fingerprint);
+            if (pageNode != null) {
+                unchangedPages.add(slug);
+            } else {
+                String pageContent;
+                try (InputStream in = zipFile.getInputStream(htmlEntry)) {
+                    pageContent = IOUtils.toString(in, UTF_8);
+                }
+                pageNode = addPage(pages, pageContent, i, filenameToImageId, publishDateTime, shouldEmbargo);
+                fingerprint.record(pageNode);
+                changedPages.add(pageNode);
+                checkpoints.written();
+            }
             if ("respond".equals(pageNode.getName())) {
                 hasRespondPage = true;
             }
             Path entryPath = java.nio.file.Paths.get(htmlEntry.getName());
             pageNodesByEntry.put(entryPath.getFileName().toString(), pageNode);
+            pageNames.add(slug);
             i++;
         }
 
         // ensure that consultaitons have a 'Respond' page if one exists in the zip then use it, otherwise create an empty one
         if (isConsultation && !hasRespondPage) {
             String slug = "respond";
-            String title = "How to respond";
-            Node pageHandle = nodeFactory.newHandle(title, pages, slug);
-            Node pageNode = nodeFactory.newDocumentNodeWithoutSlug(
-                    pageHandle, slug, title, "govscot:PublicationPage", publishDateTime, shouldEmbargo);
-            nodeFactory.addBasicFields(pageNode, title);
-            pageNode.setProperty(GOVSCOT_TITLE, title);
-            String html = IOUtils.resourceToString("/consultationResponse.html", Charset.defaultCharset());
-            hippoUtils.ensureHtmlNode(pageNode, GOVSCOT_CONTENT, html);
+            ImportFingerprint fingerprint = new ImportFingerprint().with(slug).withStatus(publishDateTime, shouldEmbargo);
+            if (unchangedPage(pages, slug, fingerprint) != null) {
+                unchangedPages.add(slug);
+            } else {
+                String title = "How to respond";
+                Node pageHandle = pageHandle(title, pages, slug);
+                Node pageNode = nodeFactory.newDocumentNodeWithoutSlug(
+                        pageHandle, slug, title, "govscot:PublicationPage", publishDateTime, shouldEmbargo);
+                nodeFactory.addBasicFields(pageNode, title);
+                pageNode.setProperty(GOVSCOT_TITLE, title);
+                String html = IOUtils.resourceToString("/consultationResponse.html", Charset.defaultCharset());
+                hippoUtils.ensureHtmlNode(pageNode, GOVSCOT_CONTENT, html);
+                fingerprint.record(pageNode);
+            }
+            pageNames.add(slug);
+        }
+
+        // remove pages that are no longer in the zip and keep the rest in order
+        removePagesExcept(pages, pageNames);
+        hippoUtils.orderChildren(pages, pageNames);
+        return changedPages;
+    }
+
+    /**
+     * Everything pages can link to: the other pages, documents and images.  Pages are written again if any of these
+     * change since the links in them are rewritten to point at the nodes.
+     */
+    private String linkTargets(
+            Node publicationFolder,
+            List<ZipEntry> htmlEntries,
+            Map<String, String> filenameToImageId,
+            Map<String, Node> docnameToNode) throws RepositoryException {
+
+        ImportFingerprint fingerprint = new ImportFingerprint().with(publicationFolder.getName());
+        for (ZipEntry htmlEntry : htmlEntries) {
+            fingerprint.with(htmlEntry.getName());
+        }
+        for (Map.Entry<String, String> image : new TreeMap<>(filenameToImageId).entrySet()) {
+            fingerprint.with(image.getKey()).with(image.getValue());
+        }
+        for (Map.Entry<String, Node> doc : new TreeMap<>(docnameToNode).entrySet()) {
+            fingerprint.with(doc.getKey()).with(doc.getValue().getIdentifier());
+        }
+        return fingerprint.value();
+    }
+
+    /**
+     * The existing page if it was imported with the same fingerprint and has not been edited since, otherwise null.
+     */
+    private Node unchangedPage(Node pages, String slug, ImportFingerprint fingerprint) throws RepositoryException {
+        if (!pages.hasNode(slug)) {
+            return null;
+        }
+        Node variant = hippoUtils.onlyVariant(pages.getNode(slug));
+        return variant != null && fingerprint.matches(variant) ? variant : null;
+    }
+
+    /**
+     * Reuse the handle of an existing page so that links to it from other pages still work, replacing its
+     * variants and any workflow jobs.
+     */
+    private Node pageHandle(String title, Node pages, String slug) throws RepositoryException {
+        if (!pages.hasNode(slug)) {
+            return nodeFactory.newHandle(title, pages, slug);
+        }
+        Node handle = pages.getNode(slug);
+        hippoUtils.removeChildren(handle);
+        handle.setProperty(HIPPO_NAME, TitleSanitiser.sanitise(title));
+        return handle;
+    }
+
+    private void removePagesExcept(Node pages, List<String> names) throws RepositoryException {
+        NodeIterator it = pages.getNodes();
+        while (it.hasNext()) {
+            Node page = it.nextNode();
+            if (!names.contains(page.getName())) {
+                page.remove();
+            }
         }
-        return pageNodesByEntry;
     }
 
     private Node ensurePagesNode(Node publicationsFolder) throws RepositoryException {
         if (publicationsFolder.hasNode(PAGES)) {
-            Node pages = publicationsFolder.getNode(PAGES);
-            hippoUtils.removeChildren(pages);
-            return pages;
+            return publicationsFolder.getNode(PAGES);
         }
         return hippoPaths.folderNode(publicationsFolder, PAGES);
     }
@@ -155,7 +263,7 @@ public class PublicationPageUpdater {
         mainTextDiv.select("script").remove();
         String title = TitleSanitiser.sanitise(htmlUtil.getTitle(mainTextDiv, index));
         String slug = Integer.toString(index);
-        Node pageHandle = nodeFactory.newHandle(title, pagesNode, slug);
+        Node pageHandle = pageHandle(title, pagesNode, slug);
         Node pageNode = nodeFactory.newDocumentNodeWithoutSlug(
                 pageHandle, slug, title, "govscot:PublicationPage", publishDateTime, shouldEmbaro);
         nodeFactory.addBasicFields(pageNode, title);
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +51,17 @@ public class PublicationLinkRewriter {
         }
     }
 
+    /**
+     * Rewrite the links in some of the pages of a publication, for example those that have changed in a re-import.
+     *
+     * @param pages the page document nodes to rewrite
+     */
+    public void rewrite(Collection<Node> pages) throws RepositoryException {
+        for (Node page : pages) {
+            rewritePage(page);
+        }
+    }
+
     private void rewritePage(Node pageNode) throws RepositoryException {
         Node htmlNode = pageNode.getNode("govscot:content");
         String html = htmlNode.getProperty(CONTENT_ATTRIB).getString();
@@ -2,21 +2,32 @@ package scot.gov.publications.imageprocessing;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import scot.gov.publications.PublicationsConfiguration;
 import scot.gov.publications.util.FileType;
 import scot.gov.publications.util.FileUtil;
+import scot.gov.publications.util.ProcessResult;
+import scot.gov.publications.util.ProcessRunner;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
-import java.util.concurrent.*;
 
-import static java.util.stream.Collectors.joining;
+import static java.util.Arrays.asList;
 
 public class GraphicsMagickImageProcessingImpl implements ImageProcessing {
 
     FileUtil fileUtil = new FileUtil();
 
+    private final ProcessRunner processRunner;
+
+    public GraphicsMagickImageProcessingImpl() {
+        this(new ProcessRunner(new PublicationsConfiguration()));
+    }
+
+    public GraphicsMagickImageProcessingImpl(ProcessRunner processRunner) {
+        this.processRunner = processRunner;
+    }
+
     public File extractPdfCoverImage(InputStream source) throws ImageProcessingException {
 
         File sourceFile = null;
@@ -75,7 +86,11 @@ public class GraphicsMagickImageProcessingImpl implements ImageProcessing {
     private void execute(File target, String... commands) throws ImageProcessingException {
         try {
             run(target, commands);
-        } catch (InterruptedException | IOException e) {
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(target);
+            throw new ImageProcessingException("GraphicsMagickImageProcessingImpl execute failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             FileUtils.deleteQuietly(target);
             throw new ImageProcessingException("GraphicsMagickImageProcessingImpl execute failed", e);
         }
@@ -84,48 +99,22 @@ public class GraphicsMagickImageProcessingImpl implements ImageProcessing {
     private void run(File target, String... commands)
             throws InterruptedException, IOException, ImageProcessingException {
 
-        ProcessBuilder pb = new ProcessBuilder(commands);
-        java.lang.Process process = pb.start();
-
-        InputStream outputStream = process.getInputStream();
-        InputStream errorStream = process.getErrorStream();
-
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        Future<String> outputFuture = executorService.submit(copyStream(outputStream));
-        Future<String> errorFuture = executorService.submit(copyStream(errorStream));
-
-        int code = process.waitFor();
-
-        String output = toString(outputFuture);
-        String error = toString(errorFuture);
-
-        if (code != 0) {
+        ProcessResult result = processRunner.run("gm", asList(commands));
+        if (!result.isSuccess()) {
             FileUtils.deleteQuietly(target);
             String errorMessage = new StringBuilder()
                     .append("Failed to run graphicsmagick: ")
                     .append("\n Command: ")
-                    .append(pb.command().stream().collect(joining(" ")))
+                    .append(String.join(" ", commands))
                     .append("\n Exit code: ")
-                    .append(code)
+                    .append(result.getExitCode())
                     .append("\n Output: ")
-                    .append(output.replace("\n", "\\n"))
+                    .append(result.getOutput().replace("\n", "\\n"))
                     .append("\n Error: ")
-                    .append(error.replace("\n", "\\n"))
+                    .append(result.getError().replace("\n", "\\n"))
                     .toString();
             throw new ImageProcessingException(errorMessage);
         }
     }
 
-    private Callable<String> copyStream(InputStream stream) {
-        return () -> IOUtils.toString(stream, Charset.defaultCharset());
-    }
-
-    private String toString(Future<String> future) throws IOException, InterruptedException {
-        try {
-            return future.get();
-        } catch (ExecutionException ex) {
-            throw new IOException(ex);
-        }
-    }
-
-}
\ No newline at end of file
+}
@@ -1,7 +1,17 @@
 package scot.gov.publications.imageprocessing;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Used to create PDF cover page images an thumbnails of images.
@@ -26,4 +36,87 @@ public interface ImageProcessing {
      * @throws ImageProcessingException If resizing fails for some reason
      */
     File thumbnail(InputStream source, int width) throws ImageProcessingException;
+
+    /**
+     * Convert an image into thumbnails of each of the specified widths.
+     *
+     * The default implementation copies the image to a temporary file and calls thumbnail once per width.
+     * Implementations that can decode the image once and scale it for every width should override it.
+     *
+     * @param source A valid image file.
+     * @param widths required image widths
+     * @return A file containing a resized version of the image for each width
+     * @throws ImageProcessingException If resizing fails for some reason
+     */
+    default Map<Integer, File> thumbnails(InputStream source, Collection<Integer> widths)
+            throws ImageProcessingException {
+        File sourceFile = null;
+        Map<Integer, File> thumbnails = new HashMap<>();
+        try {
+            sourceFile = File.createTempFile("thumbnailsrc-tmp-", ".img");
+            FileUtils.copyInputStreamToFile(source, sourceFile);
+            for (Integer width : widths) {
+                thumbnails.put(width, thumbnail(new FileInputStream(sourceFile), width));
+            }
+            return thumbnails;
+        } catch (IOException e) {
+            thumbnails.values().forEach(FileUtils::deleteQuietly);
+            throw new ImageProcessingException("Failed to generate thumbnails", e);
+        } catch (ImageProcessingException e) {
+            thumbnails.values().forEach(FileUtils::deleteQuietly);
+            throw e;
+        } finally {
+            FileUtils.deleteQuietly(sourceFile);
+            IOUtils.closeQuietly(source);
+        }
+    }
+
+    /**
+     * Convert an image that has already been decoded into thumbnails of each of the specified widths.
+     *
+     * The default implementation writes the image to a temporary png file and calls thumbnails with it.
+     * Implementations that scale images in process should override it to use the decoded image directly.
+     *
+     * @param image decoded image
+     * @param widths required image widths
+     * @return A file containing a resized version of the image for each width
+     * @throws ImageProcessingException If resizing fails for some reason
+     */
+    default Map<Integer, File> thumbnails(BufferedImage image, Collection<Integer> widths)
+            throws ImageProcessingException {
+        File sourceFile = null;
+        try {
+            sourceFile = File.createTempFile("thumbnailsrc-tmp-", ".png");
+            if (!ImageIO.write(image, "png", sourceFile)) {
+                throw new ImageProcessingException("No ImageIO writer for png");
+            }
+            return thumbnails(new FileInputStream(sourceFile), widths);
+        } catch (IOException e) {
+            throw new ImageProcessingException("Failed to write image", e);
+        } finally {
+            FileUtils.deleteQuietly(sourceFile);
+        }
+    }
+
+    /**
+     * Create thumbnails of each of the specified widths from the cover page of a pdf.
+     *
+     * The cover page is rasterised once and every width is created from that image.
+     *
+     * @param source Input stream for a PDF
+     * @param widths required image widths
+     * @return A file containing a thumbnail of the cover page for each width
+     * @throws ImageProcessingException If we fail to extract the cover image or resize it
+     */
+    default Map<Integer, File> pdfThumbnails(InputStream source, Collection<Integer> widths)
+            throws ImageProcessingException {
+        File cover = extractPdfCoverImage(source);
+        try {
+            return thumbnails(new FileInputStream(cover), widths);
+        } catch (IOException e) {
+            throw new ImageProcessingException("Failed to read pdf cover image", e);
+        } finally {
+            FileUtils.deleteQuietly(cover);
+        }
+    }
 }
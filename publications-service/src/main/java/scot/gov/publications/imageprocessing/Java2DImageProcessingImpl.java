@@ -0,0 +1,193 @@
+package scot.gov.publications.imageprocessing;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.util.FileType;
+import scot.gov.publications.util.FileUtil;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Creates thumbnails in process using Java2D rather than forking a process per thumbnail.
+ *
+ * The image, or for pdfs the rasterised cover page, is decoded once and scaled to each of the requested widths,
+ * largest first, with each width scaled from the previous one.  Scaling halves the image in steps until it is close to
+ * the target width so that the result is as smooth as a single high quality resize.  Images that ImageIO does not
+ * support or fails to decode are handed to the delegate, as is rasterising pdf cover pages.
+ */
+public class Java2DImageProcessingImpl implements ImageProcessing {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Java2DImageProcessingImpl.class);
+
+    private final ImageProcessing delegate;
+
+    FileUtil fileUtil = new FileUtil();
+
+    public Java2DImageProcessingImpl(ImageProcessing delegate) {
+        this.delegate = delegate;
+    }
+
+    public File extractPdfCoverImage(InputStream source) throws ImageProcessingException {
+        return delegate.extractPdfCoverImage(source);
+    }
+
+    public File thumbnail(InputStream source, int width) throws ImageProcessingException {
+        return thumbnails(source, singleton(width)).get(width);
+    }
+
+    @Override
+    public Map<Integer, File> thumbnails(InputStream source, Collection<Integer> widths)
+            throws ImageProcessingException {
+
+        byte[] bytes;
+        try {
+            bytes = IOUtils.toByteArray(source);
+        } catch (IOException e) {
+            throw new ImageProcessingException("Failed to read image", e);
+        } finally {
+            IOUtils.closeQuietly(source);
+        }
+
+        BufferedImage image = decode(bytes);
+        if (image == null) {
+            return delegate.thumbnails(new ByteArrayInputStream(bytes), widths);
+        }
+
+        return thumbnails(image, widths);
+    }
+
+    /**
+     * Decode an image with ImageIO.
+     *
+     * @return the image, or null if ImageIO does not support it.  As well as unknown formats this includes images that
+     * ImageIO recognises but fails to decode, such as CMYK jpegs with an embedded colour profile.
+     */
+    private BufferedImage decode(byte[] bytes) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null) {
+                LOG.info("Image format not supported by ImageIO, using {}", delegate.getClass().getSimpleName());
+            }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            LOG.info("ImageIO failed to decode image, using {}: {}",
+                    delegate.getClass().getSimpleName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rasterise the cover page with the delegate and create every width from the decoded cover image.
+     */
+    @Override
+    public Map<Integer, File> pdfThumbnails(InputStream source, Collection<Integer> widths)
+            throws ImageProcessingException {
+
+        File cover = delegate.extractPdfCoverImage(source);
+        try {
+            BufferedImage image = ImageIO.read(cover);
+            if (image == null) {
+                throw new ImageProcessingException("Failed to decode pdf cover image");
+            }
+            return thumbnails(image, widths);
+        } catch (IOException e) {
+            throw new ImageProcessingException("Failed to read pdf cover image", e);
+        } finally {
+            FileUtils.deleteQuietly(cover);
+        }
+    }
+
+    /**
+     * Scale an image that has already been decoded, so that callers that need the image themselves only decode it
+     * once.
+     */
+    @Override
+    public Map<Integer, File> thumbnails(BufferedImage image, Collection<Integer> widths)
+            throws ImageProcessingException {
+
+        Map<Integer, File> thumbnails = new HashMap<>();
+        try {
+            List<Integer> largestFirst = widths.stream().distinct().sorted(Comparator.reverseOrder()).collect(toList());
+            BufferedImage current = image;
+            for (Integer width : largestFirst) {
+                current = scale(current, image, width);
+                thumbnails.put(width, write(current));
+            }
+            return thumbnails;
+        } catch (IOException | RuntimeException e) {
+            thumbnails.values().forEach(FileUtils::deleteQuietly);
+            throw new ImageProcessingException("Failed to generate thumbnail", e);
+        }
+    }
+
+    /**
+     * Scale an image to the given width, keeping the aspect ratio of the original image.
+     *
+     * @param current the image to scale, either the original or a larger thumbnail of it
+     * @param original the original image, used to calculate the height
+     */
+    static BufferedImage scale(BufferedImage current, BufferedImage original, int width) {
+        int height = Math.max(1, (int) Math.round((double) original.getHeight() * width / original.getWidth()));
+        int type = original.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage scaled = current;
+        int stepWidth = current.getWidth();
+        int stepHeight = current.getHeight();
+        do {
+            // halve the image until it is within a factor of two of the target, then scale to the exact size
+            if (stepWidth / 2 > width && stepHeight / 2 > height) {
+                stepWidth /= 2;
+                stepHeight /= 2;
+            } else {
+                stepWidth = width;
+                stepHeight = height;
+            }
+            scaled = resize(scaled, stepWidth, stepHeight, type);
+        } while (stepWidth != width || stepHeight != height);
+        return scaled;
+    }
+
+    private static BufferedImage resize(BufferedImage source, int width, int height, int type) {
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private File write(BufferedImage image) throws IOException {
+        File file = fileUtil.createTempFile("thumbnail", FileType.PNG);
+        try {
+            if (!ImageIO.write(image, FileType.PNG.getExtension(), file)) {
+                throw new IOException("No ImageIO writer for png");
+            }
+            return file;
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(file);
+            throw e;
+        }
+    }
+}
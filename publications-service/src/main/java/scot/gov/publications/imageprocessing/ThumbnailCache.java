@@ -0,0 +1,237 @@
+package scot.gov.publications.imageprocessing;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.util.FileType;
+import scot.gov.publications.util.FileUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Keeps a bounded, least recently used cache of thumbnails on local disk, keyed by the content hash of the document
+ * or image and the thumbnail width.
+ *
+ * Publications are often uploaded many times with the same documents, so this saves creating the same thumbnails
+ * again.  Callers are given copies of the cached thumbnails so that they can delete them as they would newly created
+ * ones.
+ */
+@Singleton
+public class ThumbnailCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    private static final String PARTIAL = ".partial";
+
+    private static final String EXTENSION = "." + FileType.PNG.getExtension();
+
+    @Inject
+    PublicationsConfiguration configuration;
+
+    FileUtil fileUtil = new FileUtil();
+
+    // sizes of the cached thumbnails by name, in access order so that the first entry is the least recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private Path directory;
+
+    @Inject
+    public ThumbnailCache() {
+        // default constructor for injection
+    }
+
+    public ThumbnailCache(PublicationsConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * A cache that never contains anything.
+     */
+    public static ThumbnailCache disabled() {
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getCache().setThumbnailMaxSize(0);
+        return new ThumbnailCache(configuration);
+    }
+
+    /**
+     * Copies of the cached thumbnails of each width for some content.
+     *
+     * @return temporary copies of the thumbnails, or null unless every width is cached
+     */
+    public Map<Integer, File> get(String contentHash, Collection<Integer> widths) {
+        if (!enabled()) {
+            return null;
+        }
+
+        Map<Integer, File> cached = new HashMap<>();
+        for (Integer width : widths) {
+            File file = lookup(name(contentHash, width));
+            if (file == null) {
+                recordLookup(false);
+                return null;
+            }
+            cached.put(width, file);
+        }
+
+        Map<Integer, File> copies = new HashMap<>();
+        try {
+            for (Map.Entry<Integer, File> entry : cached.entrySet()) {
+                File copy = fileUtil.createTempFile("cachedthumbnail", FileType.PNG);
+                copies.put(entry.getKey(), copy);
+                Files.copy(entry.getValue().toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // evicted while being copied
+            LOG.warn("Failed to read cached thumbnails for {}", contentHash, e);
+            copies.values().forEach(FileUtils::deleteQuietly);
+            recordLookup(false);
+            return null;
+        }
+        recordLookup(true);
+        return copies;
+    }
+
+    /**
+     * Copy thumbnails into the cache.  Failures are logged since the thumbnails can always be created again.
+     */
+    public void put(String contentHash, Map<Integer, File> thumbnails) {
+        if (!enabled()) {
+            return;
+        }
+
+        for (Map.Entry<Integer, File> thumbnail : thumbnails.entrySet()) {
+            String name = name(contentHash, thumbnail.getKey());
+            try {
+                Path dir = directory();
+                Path partial = Files.createTempFile(dir, name, PARTIAL);
+                Files.copy(thumbnail.getValue().toPath(), partial, StandardCopyOption.REPLACE_EXISTING);
+                synchronized (this) {
+                    Path target = dir.resolve(name);
+                    Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    add(dir, name, Files.size(target));
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to cache thumbnail {}", name, e);
+            }
+        }
+    }
+
+    public synchronized Map<String, Number> metrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("hits", hits);
+        metrics.put("misses", misses);
+        metrics.put("entries", entries.size());
+        metrics.put("bytes", size);
+        return metrics;
+    }
+
+    private synchronized void recordLookup(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    private synchronized File lookup(String name) {
+        try {
+            directory();
+        } catch (IOException e) {
+            LOG.warn("Failed to open the thumbnail cache", e);
+            return null;
+        }
+
+        if (entries.get(name) == null) {
+            return null;
+        }
+        File file = directory.resolve(name).toFile();
+        if (!file.exists()) {
+            entries.remove(name);
+            return null;
+        }
+        return file;
+    }
+
+    private void add(Path dir, String name, long length) {
+        Long previous = entries.put(name, length);
+        if (previous != null) {
+            size -= previous;
+        }
+        size += length;
+        evict(dir);
+    }
+
+    private void evict(Path dir) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxBytes() && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            FileUtils.deleteQuietly(dir.resolve(eldest.getKey()).toFile());
+        }
+    }
+
+    /**
+     * The cache directory, created on first use.  Thumbnails left by a previous run are added to the cache oldest
+     * first and any partial copies are deleted.
+     */
+    private synchronized Path directory() throws IOException {
+        if (directory != null) {
+            return directory;
+        }
+
+        Path dir = isNotBlank(configuration.getCache().getThumbnailDirectory())
+                ? Paths.get(configuration.getCache().getThumbnailDirectory())
+                : Paths.get(System.getProperty("java.io.tmpdir"), "publications-thumbnails");
+        Files.createDirectories(dir);
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : paths.sorted(Comparator.comparing(p -> p.toFile().lastModified())).collect(toList())) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(EXTENSION)) {
+                    add(dir, name, Files.size(path));
+                } else {
+                    FileUtils.deleteQuietly(path.toFile());
+                }
+            }
+        }
+        directory = dir;
+        LOG.info("Using thumbnail cache {} containing {} thumbnails", directory, entries.size());
+        return directory;
+    }
+
+    private static String name(String contentHash, int width) {
+        return contentHash + "-" + width + EXTENSION;
+    }
+
+    private boolean enabled() {
+        return configuration.getCache().getThumbnailMaxSize() > 0;
+    }
+
+    private long maxBytes() {
+        return configuration.getCache().getThumbnailMaxSize() * 1024L * 1024L;
+    }
+}
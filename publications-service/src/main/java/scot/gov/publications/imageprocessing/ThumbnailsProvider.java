@@ -1,6 +1,5 @@
 package scot.gov.publications.imageprocessing;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.publications.util.FileType;
@@ -8,7 +7,6 @@ import scot.gov.publications.util.IconNames;
 import scot.gov.publications.util.FileUtil;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -30,12 +28,42 @@ public class ThumbnailsProvider {
 
     private final ImageProcessing imageProcessing;
 
+    private final ThumbnailCache thumbnailCache;
+
     public ThumbnailsProvider(ImageProcessing imageProcessing) {
+        this(imageProcessing, ThumbnailCache.disabled());
+    }
+
+    public ThumbnailsProvider(ImageProcessing imageProcessing, ThumbnailCache thumbnailCache) {
         this.imageProcessing = imageProcessing;
+        this.thumbnailCache = thumbnailCache;
     }
 
     FileUtil fileUtil = new FileUtil();
 
+    /**
+     * Create thumbnails for document attachments, using cached thumbnails of pdfs and images with the same content
+     * hash if there are any.
+     */
+    public Map<Integer, File> thumbnails(InputStream documentStream, String mimeType, String contentHash)
+            throws IOException {
+
+        FileType type = FileType.forMimeType(mimeType);
+        if (type == null || !(type == FileType.PDF || type.isImage())) {
+            return thumbnails(documentStream, mimeType);
+        }
+
+        Map<Integer, File> cached = thumbnailCache.get(contentHash, SIZES);
+        if (cached != null) {
+            documentStream.close();
+            return cached;
+        }
+
+        Map<Integer, File> thumbnails = thumbnails(documentStream, mimeType);
+        thumbnailCache.put(contentHash, thumbnails);
+        return thumbnails;
+    }
+
     /**
      * Create thumbnails for document attachments.
      */
@@ -54,56 +82,24 @@ public class ThumbnailsProvider {
         }
 
         if (type.isImage()) {
-            return imageThumbnails(documentStream, type);
+            return imageThumbnails(documentStream);
         }
 
         return fixedThumbnails(type.getIconName());
     }
 
     private Map<Integer, File> pdfThumbnails(InputStream documentStream) throws IOException {
-        File pdfImage = pdfImageStream(documentStream);
-        Map<Integer, File> thumbnails = imageThumbnails(pdfImage);
-        FileUtils.deleteQuietly(pdfImage);
-        return thumbnails;
-    }
-
-    private File pdfImageStream(InputStream documentStream) throws IOException {
-        File pdfImg = null;
         try {
-            pdfImg = imageProcessing.extractPdfCoverImage(documentStream);
-            return pdfImg;
+            return imageProcessing.pdfThumbnails(documentStream, SIZES);
         } catch (Exception e) {
-            FileUtils.deleteQuietly(pdfImg);
             throw new IOException(e);
         }
     }
 
-    private Map<Integer, File> imageThumbnails(InputStream input, FileType type) throws IOException {
-        File imageFile = null;
-        try {
-            imageFile = fileUtil.createTempFile("imagethumbs", type, input);
-            return imageThumbnails(imageFile);
-        } finally {
-            FileUtils.deleteQuietly(imageFile);
-        }
-    }
-
-    private Map<Integer, File> imageThumbnails(File image) throws IOException {
-        Map<Integer, File> thumbs = new HashMap<>();
-        for (Integer size : SIZES) {
-            File thumb = imageThumbnail(image, size);
-            thumbs.put(size, thumb);
-        }
-        return thumbs;
-    }
-
-    private File imageThumbnail(File image, int size) throws IOException {
-        File thumbnail = null;
+    private Map<Integer, File> imageThumbnails(InputStream image) throws IOException {
         try {
-            thumbnail = imageProcessing.thumbnail(new FileInputStream(image), size);
-            return thumbnail;
+            return imageProcessing.thumbnails(image, SIZES);
         } catch (Exception e) {
-            FileUtils.deleteQuietly(thumbnail);
             throw new IOException(e);
         }
     }
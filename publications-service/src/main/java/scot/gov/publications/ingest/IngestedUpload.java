@@ -0,0 +1,47 @@
+package scot.gov.publications.ingest;
+
+import scot.gov.publications.metadata.Metadata;
+
+import java.io.File;
+
+/**
+ * The result of ingesting an uploaded zip: the zip as uploaded, the zip that should be processed (a nested zip if
+ * the upload contained one), its checksum and the metadata it contains.
+ */
+public class IngestedUpload {
+
+    private final File zip;
+
+    private final File zipToProcess;
+
+    private final String checksum;
+
+    private final Metadata metadata;
+
+    public IngestedUpload(File zip, File zipToProcess, String checksum, Metadata metadata) {
+        this.zip = zip;
+        this.zipToProcess = zipToProcess;
+        this.checksum = checksum;
+        this.metadata = metadata;
+    }
+
+    public File getZip() {
+        return zip;
+    }
+
+    public File getZipToProcess() {
+        return zipToProcess;
+    }
+
+    public boolean isNested() {
+        return !zip.equals(zipToProcess);
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+}
@@ -0,0 +1,199 @@
+package scot.gov.publications.ingest;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.ApsZipImporterException;
+import scot.gov.publications.metadata.Metadata;
+import scot.gov.publications.metadata.MetadataExtractor;
+import scot.gov.publications.util.FileUtil;
+import scot.gov.publications.util.ZipEntryUtil;
+import scot.gov.publications.util.ZipUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Ingests an uploaded zip in a single pass over its bytes.
+ *
+ * As the upload is streamed to disk its checksum is calculated, its entries are read to detect a nested zip (as
+ * produced by Simplyasset) and the metadata file is located.  A nested zip is written out to its own file as it is
+ * read.  This replaces writing the file, hashing it, opening it as a ZipFile to find any nested zip and then opening
+ * the zip again to extract the metadata.
+ *
+ * Some zips cannot be read as a stream (for example stored entries that use a data descriptor).  If that happens
+ * the rest of the upload is still written to disk and the zip is processed using its central directory instead.
+ */
+public class UploadIngester {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UploadIngester.class);
+
+    FileUtil fileUtil = new FileUtil();
+
+    ZipUtil zipUtil = new ZipUtil();
+
+    MetadataExtractor metadataExtractor = new MetadataExtractor();
+
+    /**
+     * Ingest an upload.
+     *
+     * @param content the uploaded zip
+     * @param zip file to write the upload to
+     * @return the ingested upload
+     * @throws IOException if the upload cannot be written or is not a zip
+     * @throws IllegalArgumentException if the upload contains more than one nested zip
+     * @throws ApsZipImporterException if the metadata is missing or invalid
+     */
+    public IngestedUpload ingest(InputStream content, File zip) throws IOException, ApsZipImporterException {
+        MessageDigest digest = fileUtil.md5();
+        ArchiveScan scan = null;
+        try (InputStream digestStream = new DigestInputStream(content, digest);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(zip));
+             InputStream in = new TeeInputStream(digestStream, out)) {
+            scan = scanQuietly(new ZipInputStream(in), true);
+
+            // read the rest of the upload (e.g. the central directory) so that the file and checksum are complete
+            IOUtils.skip(in, Long.MAX_VALUE);
+        }
+        String checksum = HexFormat.of().formatHex(digest.digest());
+
+        if (scan == null) {
+            return ingestFromFile(zip, checksum);
+        }
+
+        try {
+            ArchiveScan toProcess = scan.nested == null ? scan : scan.nested;
+            Metadata metadata = toProcess.metadata();
+            File zipToProcess = scan.nested == null ? zip : scan.nested.file;
+            return new IngestedUpload(zip, zipToProcess, checksum, metadata);
+        } catch (ApsZipImporterException e) {
+            scan.deleteQuietly();
+            throw e;
+        }
+    }
+
+    private IngestedUpload ingestFromFile(File zip, String checksum) throws IOException, ApsZipImporterException {
+        File zipToProcess = zipUtil.getZipToProcess(zip);
+        try {
+            Metadata metadata = metadataExtractor.extract(zipToProcess);
+            return new IngestedUpload(zip, zipToProcess, checksum, metadata);
+        } catch (ApsZipImporterException e) {
+            if (!zipToProcess.equals(zip)) {
+                FileUtils.deleteQuietly(zipToProcess);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Scan the zip, returning null if it could not be read as a stream.
+     */
+    private ArchiveScan scanQuietly(ZipInputStream in, boolean allowNested) throws IOException {
+        ArchiveScan scan = new ArchiveScan();
+        try {
+            scan(in, scan, allowNested);
+        } catch (ZipException e) {
+            LOG.info("Unable to read zip as a stream, falling back to reading it from disk: {}", e.getMessage());
+            scan.deleteQuietly();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            scan.deleteQuietly();
+            throw e;
+        }
+
+        if (scan.entryCount == 0) {
+            throw new ZipException("Upload is not a zip file");
+        }
+        return scan;
+    }
+
+    private void scan(ZipInputStream in, ArchiveScan scan, boolean allowNested) throws IOException {
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            scan.entryCount++;
+            if (scan.dirname == null) {
+                scan.dirname = entry.getName();
+            }
+
+            if (allowNested && ZipUtil.isNestedZip(entry)) {
+                if (scan.nested != null) {
+                    throw new IllegalArgumentException("More than one zip in the zip!");
+                }
+                scan.nested = new ArchiveScan();
+                scanNested(in, scan.nested);
+            } else if (entry.getName().startsWith(scan.dirname) && ZipEntryUtil.isJson(entry)) {
+                scan.jsonCount++;
+                if (scan.json == null) {
+                    scan.json = IOUtils.toByteArray(in);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the current entry of the zip to its own file, scanning its entries as it is written.
+     */
+    private void scanNested(ZipInputStream in, ArchiveScan nested) throws IOException {
+        nested.file = fileUtil.createTempFile("extractedFromZip", "zip");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(nested.file))) {
+            // the tee must not close the outer zip stream, which is still being read
+            InputStream entryStream = new TeeInputStream(in, out, false);
+            scan(new ZipInputStream(entryStream), nested, false);
+            IOUtils.skip(entryStream, Long.MAX_VALUE);
+        }
+
+        if (nested.entryCount == 0) {
+            throw new ZipException("Nested zip is not a zip file");
+        }
+    }
+
+    /**
+     * What we have learned about a zip (or nested zip) while streaming it.
+     */
+    private class ArchiveScan {
+
+        File file;
+
+        int entryCount;
+
+        String dirname;
+
+        int jsonCount;
+
+        byte[] json;
+
+        ArchiveScan nested;
+
+        Metadata metadata() throws ApsZipImporterException {
+            if (json == null) {
+                throw new ApsZipImporterException("No metadata file in zip");
+            }
+
+            if (jsonCount > 1) {
+                throw new ApsZipImporterException("More than one JSON file in zip, unable to identify metadata file");
+            }
+
+            return metadataExtractor.extract(new ByteArrayInputStream(json));
+        }
+
+        void deleteQuietly() {
+            FileUtils.deleteQuietly(file);
+            if (nested != null) {
+                nested.deleteQuietly();
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ import scot.gov.publications.util.ZipUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -38,8 +39,7 @@ public class MetadataExtractor {
 
     public Metadata extract(File file) throws ApsZipImporterException {
 
-        try {
-            ZipFile zipFile = new ZipFile(file);
+        try (ZipFile zipFile = new ZipFile(file)) {
             return extract(zipFile);
         } catch (IOException e) {
             throw new ApsZipImporterException("Failed to create zip file", e);
@@ -64,13 +64,22 @@ public class MetadataExtractor {
         }
 
         try {
-            Metadata metadata = metadataParser.parse(zipFile.getInputStream(jsonEntries.get(0)));
+            return extract(zipFile.getInputStream(jsonEntries.get(0)));
+        } catch (IOException e) {
+            throw new ApsZipImporterException("Unable to read metadata file", e);
+        }
+    }
+
+    /**
+     * Parse and sanitise the contents of a metadata file that has already been located in a zip.
+     */
+    public Metadata extract(InputStream metadataStream) throws ApsZipImporterException {
+        try {
+            Metadata metadata = metadataParser.parse(metadataStream);
             sanitizeData(metadata);
             return metadata;
         } catch (MetadataParserException e) {
             throw new ApsZipImporterException(e.getMessage(), e);
-        } catch (IOException e) {
-            throw new ApsZipImporterException("Unable to read metadata file", e);
         }
     }
 
@@ -0,0 +1,276 @@
+package scot.gov.publications.prepare;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.ApsZipImporterException;
+import scot.gov.publications.hippo.BufferedImageSource;
+import scot.gov.publications.imageprocessing.ImageProcessing;
+import scot.gov.publications.imageprocessing.ThumbnailCache;
+import scot.gov.publications.imageprocessing.ThumbnailsProvider;
+import scot.gov.publications.manifest.Manifest;
+import scot.gov.publications.manifest.ManifestEntry;
+import scot.gov.publications.util.Exif;
+import scot.gov.publications.util.FileType;
+import scot.gov.publications.util.MimeTypeUtils;
+import scot.gov.publications.util.ZipEntryUtil;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Computes the content hashes, page counts, thumbnails and image dimensions for the entries in a zip before anything
+ * is written to the repository.
+ *
+ * Each document and image is prepared as a separate task so that the exiftool and GraphicsMagick processes for
+ * different entries run in parallel.  The pool is shared by all imports on this node and sized to the number of
+ * cores, so concurrent imports do not oversubscribe the machine.  Thumbnails are kept in the thumbnail cache by
+ * content hash, so documents and images that have been imported before do not need new thumbnails.
+ */
+@Singleton
+public class AssetPreparer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssetPreparer.class);
+
+    static final int IMAGE_THUMBNAIL_SIZE = 60;
+
+    @Inject
+    ImageProcessing imageProcessing;
+
+    @Inject
+    Exif exif;
+
+    @Inject
+    ThumbnailCache thumbnailCache;
+
+    BufferedImageSource bufferedImageSource = new BufferedImageSource();
+
+    private ExecutorService executor;
+
+    @Inject
+    public AssetPreparer() {
+        // default constructor for injection
+    }
+
+    public AssetPreparer(ImageProcessing imageProcessing, Exif exif) {
+        this(imageProcessing, exif, ThumbnailCache.disabled());
+    }
+
+    public AssetPreparer(ImageProcessing imageProcessing, Exif exif, ThumbnailCache thumbnailCache) {
+        this.imageProcessing = imageProcessing;
+        this.exif = exif;
+        this.thumbnailCache = thumbnailCache;
+    }
+
+    public PreparedAssets prepare(ZipFile zipFile, Manifest manifest) throws ApsZipImporterException {
+        return prepare(zipFile, manifest, Collections.emptySet());
+    }
+
+    /**
+     * Prepare the entries in a zip.
+     *
+     * @param existingContentHashes content hashes of documents already in the repository, page counts and thumbnails
+     * are not computed for documents with these hashes
+     */
+    public PreparedAssets prepare(ZipFile zipFile, Manifest manifest, Set<String> existingContentHashes)
+            throws ApsZipImporterException {
+        PreparedAssets assets = new PreparedAssets();
+        List<Future<?>> futures = new ArrayList<>();
+        for (ManifestEntry manifestEntry : manifest.getEntries()) {
+            ZipEntry zipEntry = manifest.findZipEntry(zipFile, manifestEntry);
+            // missing entries and unsupported file types are reported when the documents are uploaded
+            if (zipEntry != null && MimeTypeUtils.isSupportedMimeType(manifestEntry.getFriendlyFilename())) {
+                String mimeType = MimeTypeUtils.detectContentType(manifestEntry.getFriendlyFilename());
+                futures.add(executor().submit(
+                        () -> prepareDocument(zipFile, zipEntry, mimeType, existingContentHashes, assets)));
+            }
+        }
+
+        List<ZipEntry> imgEntries = zipFile.stream().filter(ZipEntryUtil::isImg).collect(toList());
+        for (ZipEntry imgEntry : imgEntries) {
+            futures.add(executor().submit(() -> prepareImage(zipFile, imgEntry, assets)));
+        }
+
+        LOG.info("Preparing {} documents and {} images", futures.size() - imgEntries.size(), imgEntries.size());
+        awaitAll(futures, assets);
+        return assets;
+    }
+
+    private Void prepareDocument(
+            ZipFile zipFile,
+            ZipEntry zipEntry,
+            String mimeType,
+            Set<String> existingContentHashes,
+            PreparedAssets assets) throws IOException {
+
+        String contentHash;
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            contentHash = contentHash(in);
+        }
+        if (existingContentHashes.contains(contentHash)) {
+            assets.addDocument(zipEntry.getName(), PreparedDocument.existing(contentHash));
+            return null;
+        }
+
+        long pageCount;
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            pageCount = exif.pageCount(in, mimeType);
+        }
+
+        Map<Integer, File> thumbnails = Collections.emptyMap();
+        if (FileType.forMimeType(mimeType) == FileType.PDF) {
+            try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                thumbnails = new ThumbnailsProvider(imageProcessing, thumbnailCache)
+                        .thumbnails(in, mimeType, contentHash);
+            }
+        }
+        assets.addDocument(zipEntry.getName(), new PreparedDocument(contentHash, pageCount, thumbnails));
+        return null;
+    }
+
+    /**
+     * Hex encoded SHA-256 of the content of an entry.
+     */
+    static String contentHash(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream digestIn = new DigestInputStream(in, digest)) {
+            byte[] buffer = new byte[8192];
+            while (digestIn.read(buffer) != -1) {
+                // digest updated by DigestInputStream
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * The image is read once and, unless its thumbnail is cached, decoded once: its size comes from the decoded image
+     * and the thumbnail is scaled from it.  Images that ImageIO fails to decode, such as CMYK jpegs with an embedded
+     * colour profile, are thumbnailed from their bytes so that image processing can hand them to its fallback, and
+     * their size is read from the image header, which ImageIO can still read for all of the image types we import.
+     */
+    private Void prepareImage(ZipFile zipFile, ZipEntry zipEntry, PreparedAssets assets) throws Exception {
+        byte[] bytes;
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            bytes = IOUtils.toByteArray(in);
+        }
+        String contentHash = contentHash(new ByteArrayInputStream(bytes));
+
+        Set<Integer> sizes = Collections.singleton(IMAGE_THUMBNAIL_SIZE);
+        Map<Integer, File> cached = thumbnailCache.get(contentHash, sizes);
+        if (cached != null) {
+            Dimension size = size(bytes, zipEntry);
+            assets.addImage(zipEntry.getName(),
+                    new PreparedImage(size.width, size.height, cached.get(IMAGE_THUMBNAIL_SIZE)));
+            return null;
+        }
+
+        BufferedImage image = decode(bytes, zipEntry);
+        Dimension size;
+        Map<Integer, File> thumbnails;
+        if (image != null) {
+            size = new Dimension(image.getWidth(), image.getHeight());
+            thumbnails = imageProcessing.thumbnails(image, sizes);
+        } else {
+            size = size(bytes, zipEntry);
+            thumbnails = imageProcessing.thumbnails(new ByteArrayInputStream(bytes), sizes);
+        }
+        File thumbnail = thumbnails.get(IMAGE_THUMBNAIL_SIZE);
+        thumbnailCache.put(contentHash, Collections.singletonMap(IMAGE_THUMBNAIL_SIZE, thumbnail));
+        assets.addImage(zipEntry.getName(), new PreparedImage(size.width, size.height, thumbnail));
+        return null;
+    }
+
+    /**
+     * Decode an image with ImageIO, or null if ImageIO cannot decode it.
+     */
+    private BufferedImage decode(byte[] bytes, ZipEntry zipEntry) {
+        try {
+            return bufferedImageSource.get(new ByteArrayInputStream(bytes));
+        } catch (IOException | RuntimeException e) {
+            LOG.info("ImageIO failed to decode {}: {}", zipEntry.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The width and height of an image, read from its header without decoding it.
+     */
+    private static Dimension size(byte[] bytes, ZipEntry zipEntry) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unable to read image " + zipEntry.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Wait for every task so that no task is still writing files when the assets are cleaned up after a failure.
+     */
+    private void awaitAll(List<Future<?>> futures, PreparedAssets assets) throws ApsZipImporterException {
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            assets.close();
+            throw new ApsZipImporterException("Failed to prepare documents and images", failure);
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,49 @@
+package scot.gov.publications.prepare;
+
+import org.apache.commons.io.FileUtils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * The results of preparing the documents and images in a zip, keyed by zip entry name.  Closing it deletes any
+ * thumbnail files that were created.
+ */
+public class PreparedAssets implements AutoCloseable {
+
+    private final Map<String, PreparedDocument> documents = new ConcurrentHashMap<>();
+
+    private final Map<String, PreparedImage> images = new ConcurrentHashMap<>();
+
+    public PreparedDocument getDocument(String entryName) {
+        return documents.get(entryName);
+    }
+
+    /**
+     * The content hashes of all of the prepared documents.
+     */
+    public Set<String> getDocumentContentHashes() {
+        return documents.values().stream().map(PreparedDocument::getContentHash).collect(toSet());
+    }
+
+    public PreparedImage getImage(String entryName) {
+        return images.get(entryName);
+    }
+
+    void addDocument(String entryName, PreparedDocument document) {
+        documents.put(entryName, document);
+    }
+
+    void addImage(String entryName, PreparedImage image) {
+        images.put(entryName, image);
+    }
+
+    @Override
+    public void close() {
+        documents.values().forEach(document -> document.getThumbnails().values().forEach(FileUtils::deleteQuietly));
+        images.values().forEach(image -> FileUtils.deleteQuietly(image.getThumbnail()));
+    }
+}
@@ -0,0 +1,55 @@
+package scot.gov.publications.prepare;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Content hash, page count and thumbnails computed for a document before it is written to the repository.
+ */
+public class PreparedDocument {
+
+    private final String contentHash;
+
+    private final long pageCount;
+
+    // thumbnail files by size, empty for documents that are not pdfs
+    private final Map<Integer, File> thumbnails;
+
+    private final boolean existing;
+
+    public PreparedDocument(String contentHash, long pageCount, Map<Integer, File> thumbnails) {
+        this(contentHash, pageCount, thumbnails, false);
+    }
+
+    private PreparedDocument(String contentHash, long pageCount, Map<Integer, File> thumbnails, boolean existing) {
+        this.contentHash = contentHash;
+        this.pageCount = pageCount;
+        this.thumbnails = thumbnails;
+        this.existing = existing;
+    }
+
+    /**
+     * A document whose content is already in the repository.  Its page count and thumbnails are not computed since
+     * those of the existing document are reused.
+     */
+    public static PreparedDocument existing(String contentHash) {
+        return new PreparedDocument(contentHash, -1, Collections.emptyMap(), true);
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    public Map<Integer, File> getThumbnails() {
+        return Collections.unmodifiableMap(thumbnails);
+    }
+
+    public boolean isExisting() {
+        return existing;
+    }
+}
@@ -0,0 +1,33 @@
+package scot.gov.publications.prepare;
+
+import java.io.File;
+
+/**
+ * Dimensions and thumbnail computed for an inline image before it is written to the repository.
+ */
+public class PreparedImage {
+
+    private final int width;
+
+    private final int height;
+
+    private final File thumbnail;
+
+    public PreparedImage(int width, int height, File thumbnail) {
+        this.width = width;
+        this.height = height;
+        this.thumbnail = thumbnail;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public File getThumbnail() {
+        return thumbnail;
+    }
+}
@@ -0,0 +1,47 @@
+package scot.gov.publications.repo;
+
+/**
+ * How long one phase of an import took, and optionally how many bytes or zip entries it handled.
+ */
+public class ImportPhase {
+
+    private String phase;
+
+    private long durationms;
+
+    private Long bytes;
+
+    private Integer entries;
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public long getDurationms() {
+        return durationms;
+    }
+
+    public void setDurationms(long durationms) {
+        this.durationms = durationms;
+    }
+
+    public Long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(Long bytes) {
+        this.bytes = bytes;
+    }
+
+    public Integer getEntries() {
+        return entries;
+    }
+
+    public void setEntries(Integer entries) {
+        this.entries = entries;
+    }
+}
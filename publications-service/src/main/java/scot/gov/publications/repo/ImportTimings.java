@@ -0,0 +1,42 @@
+package scot.gov.publications.repo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the phases of a single import, in the order they finished, so that they can be saved with the publication.
+ *
+ * Usage:
+ * <pre>
+ *     long start = timings.start();
+ *     ... do the work ...
+ *     timings.record("download", start, bytes, null);
+ * </pre>
+ */
+public class ImportTimings {
+
+    private final List<ImportPhase> phases = new ArrayList<>();
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(String phase, long start) {
+        record(phase, start, null, null);
+    }
+
+    public void record(String phase, long start, Long bytes, Integer entries) {
+        ImportPhase importPhase = new ImportPhase();
+        importPhase.setPhase(phase);
+        importPhase.setDurationms(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        importPhase.setBytes(bytes);
+        importPhase.setEntries(entries);
+        phases.add(importPhase);
+    }
+
+    public List<ImportPhase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+}
@@ -1,8 +1,10 @@
 package scot.gov.publications.repo;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.sql.Timestamp;
+import java.util.List;
 
 public class Publication {
 
@@ -33,6 +35,10 @@ public class Publication {
     @JsonIgnore
     private int fullcount;
 
+    // only populated when a single publication is fetched
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<ImportPhase> timings;
+
     public String getId() {
         return id;
     }
@@ -136,4 +142,12 @@ public class Publication {
     public void setContact(String contact) {
         this.contact = contact;
     }
+
+    public List<ImportPhase> getTimings() {
+        return timings;
+    }
+
+    public void setTimings(List<ImportPhase> timings) {
+        this.timings = timings;
+    }
 }
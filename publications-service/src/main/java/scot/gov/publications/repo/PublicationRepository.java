@@ -1,12 +1,15 @@
 package scot.gov.publications.repo;
 
+import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.handlers.BeanHandler;
 import org.apache.commons.dbutils.handlers.BeanListHandler;
 import org.apache.commons.dbutils.handlers.ColumnListHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.inject.Inject;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Clock;
@@ -39,11 +42,17 @@ public class PublicationRepository {
 
     String waitingSQL;
 
+    String claimSQL;
+
+    String recoverSQL;
+
     PublicationRepository() {
         insertSQL = queryLoader.loadSQL("/sql/insert.sql");
         updateSQL = queryLoader.loadSQL("/sql/update.sql");
         listSQL = queryLoader.loadSQL("/sql/list.sql");
         waitingSQL = queryLoader.loadSQL("/sql/waiting.sql");
+        claimSQL = queryLoader.loadSQL("/sql/claim.sql");
+        recoverSQL = queryLoader.loadSQL("/sql/recover.sql");
     }
 
     /**
@@ -170,6 +179,150 @@ public class PublicationRepository {
         }
     }
 
+    /**
+     * Claim the oldest pending publication for processing.
+     *
+     * The pending row is locked while it is claimed and rows locked by other claimants are skipped, so several
+     * workers (on this or other nodes) can claim publications concurrently without claiming the same one twice.
+     *
+     * A publication is not claimed while another publication with the same ISBN is being processed, since the
+     * importer assumes nobody else is writing that publication.  The same applies to publications with the same
+     * title so that two new publications are not allocated the same slug.  Claims are serialised using the
+     * importlock row so that two claimants cannot both see that no such publication is being processed.
+     *
+     * @param claimant identifies the node claiming the publication
+     * @return the claimed publication, now in the PROCESSING state, or null if there are no pending publications
+     * @throws PublicationRepositoryException if the claim failed
+     */
+    public Publication claimNextPending(String claimant) throws PublicationRepositoryException {
+        Timestamp now = Timestamp.from(clock.instant());
+        Connection connection = null;
+        try {
+            connection = queryRunner.getDataSource().getConnection();
+            connection.setAutoCommit(false);
+            Publication publication = claimNextPending(connection, claimant, now);
+            connection.commit();
+            return publication;
+        } catch (SQLException e) {
+            DbUtils.rollbackQuietly(connection);
+            throw new PublicationRepositoryException("Failed to claim publication", e);
+        } finally {
+            resetAutoCommitAndClose(connection);
+        }
+    }
+
+    private Publication claimNextPending(Connection connection, String claimant, Timestamp now) throws SQLException {
+        queryRunner.query(connection, "SELECT id FROM importlock WHERE id = 1 FOR UPDATE", new ScalarHandler<Integer>());
+        String id = queryRunner.query(connection, claimSQL, new ScalarHandler<String>());
+        if (id == null) {
+            return null;
+        }
+
+        queryRunner.update(connection,
+                "UPDATE publication SET state = ?, claimedby = ?, claimeddate = ?, lastmodifieddate = ? WHERE id = ?",
+                State.PROCESSING.name(), claimant, now, now, id);
+        return queryRunner.query(connection,
+                "SELECT * FROM publication WHERE id = ?", new BeanHandler<>(Publication.class), id);
+    }
+
+    private void resetAutoCommitAndClose(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            // the connection is being closed anyway
+        }
+        DbUtils.closeQuietly(connection);
+    }
+
+    /**
+     * Return orphaned publications to the PENDING state so that they are processed again.  A publication is orphaned
+     * if it is PROCESSING and was claimed by this claimant (which has since restarted), was claimed before claims
+     * were recorded, or was claimed before the stale time.
+     *
+     * @param claimant identifies this node
+     * @param staleBefore claims made before this time are assumed to have been abandoned
+     * @return the number of publications recovered
+     * @throws PublicationRepositoryException if the update failed
+     */
+    public int recoverOrphans(String claimant, Timestamp staleBefore) throws PublicationRepositoryException {
+        try {
+            return queryRunner.update(recoverSQL, Timestamp.from(clock.instant()), claimant, staleBefore);
+        } catch (SQLException e) {
+            throw new PublicationRepositoryException("Failed to recover orphaned publications", e);
+        }
+    }
+
+    /**
+     * Count the publications waiting to be imported, i.e. pending or being processed.
+     *
+     * @return number of publications waiting to be imported
+     * @throws PublicationRepositoryException if the count failed
+     */
+    public long countWaiting() throws PublicationRepositoryException {
+        try {
+            Number count = queryRunner.query(
+                    "SELECT COUNT(*) FROM publication WHERE state IN ('PENDING', 'PROCESSING')",
+                    new ScalarHandler<Number>());
+            return count.longValue();
+        } catch (SQLException e) {
+            throw new PublicationRepositoryException("Failed to count waiting publications", e);
+        }
+    }
+
+    /**
+     * Find when the longest waiting publication was uploaded.
+     *
+     * @return creation time of the oldest pending or processing publication, or null if none are waiting
+     * @throws PublicationRepositoryException if the lookup failed
+     */
+    public Timestamp oldestWaiting() throws PublicationRepositoryException {
+        try {
+            return queryRunner.query(
+                    "SELECT MIN(createddate) FROM publication WHERE state IN ('PENDING', 'PROCESSING')",
+                    new ScalarHandler<Timestamp>());
+        } catch (SQLException e) {
+            throw new PublicationRepositoryException("Failed to find oldest waiting publication", e);
+        }
+    }
+
+    /**
+     * Count the publications whose import finished, successfully or not, since a given time.
+     *
+     * @param since only count imports that finished after this time
+     * @return number of imports finished since the given time
+     * @throws PublicationRepositoryException if the count failed
+     */
+    public long countFinishedSince(Timestamp since) throws PublicationRepositoryException {
+        try {
+            Number count = queryRunner.query(
+                    "SELECT COUNT(*) FROM publication WHERE state IN ('DONE', 'FAILED') AND lastmodifieddate >= ?",
+                    new ScalarHandler<Number>(), since);
+            return count.longValue();
+        } catch (SQLException e) {
+            throw new PublicationRepositoryException("Failed to count finished publications", e);
+        }
+    }
+
+    /**
+     * Determine if any publication has been uploaded with this checksum.
+     *
+     * @param checksum the checksum to look for
+     * @return true if a publication with this checksum exists
+     * @throws PublicationRepositoryException if the lookup failed
+     */
+    public boolean hasChecksum(String checksum) throws PublicationRepositoryException {
+        try {
+            Integer found = queryRunner.query(
+                    "SELECT 1 FROM publication WHERE checksum = ? LIMIT 1", new ScalarHandler<Integer>(), checksum);
+            return found != null;
+        } catch (SQLException e) {
+            throw new PublicationRepositoryException("Failed to look up checksum", e);
+        }
+    }
+
     /**
      * Get the set of checksums stored in the repo.
      *
@@ -178,13 +331,66 @@ public class PublicationRepository {
      */
     public Set<String> allChecksums() throws PublicationRepositoryException {
         try {
-            List<String> checksumList = queryRunner.query("SELECT checksum FROM publication", new ColumnListHandler<String>(1));
+            List<String> checksumList = queryRunner.query("SELECT DISTINCT checksum FROM publication", new ColumnListHandler<String>(1));
             return new HashSet<>(checksumList);
         } catch (SQLException e) {
             throw new PublicationRepositoryException("Failed to list checksums", e);
         }
     }
 
+    /**
+     * Save the phase timings of an import, replacing those recorded by any previous import of the same publication.
+     *
+     * @param publicationId id of the publication that was imported
+     * @param phases the phases of the import in the order they finished
+     * @throws PublicationRepositoryException if the timings could not be saved
+     */
+    public void saveTimings(String publicationId, List<ImportPhase> phases) throws PublicationRepositoryException {
+        Object[][] args = new Object[phases.size()][];
+        for (int i = 0; i < phases.size(); i++) {
+            ImportPhase phase = phases.get(i);
+            args[i] = new Object[] {
+                    publicationId, i, phase.getPhase(), phase.getDurationms(), phase.getBytes(), phase.getEntries()
+            };
+        }
+
+        Connection connection = null;
+        try {
+            connection = queryRunner.getDataSource().getConnection();
+            connection.setAutoCommit(false);
+            queryRunner.update(connection, "DELETE FROM importphase WHERE publicationid = ?", publicationId);
+            if (args.length > 0) {
+                queryRunner.batch(connection,
+                        "INSERT INTO importphase (publicationid, seq, phase, durationms, bytes, entries) " +
+                                "VALUES (?, ?, ?, ?, ?, ?)",
+                        args);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            DbUtils.rollbackQuietly(connection);
+            throw new PublicationRepositoryException("Failed to save import timings", e);
+        } finally {
+            resetAutoCommitAndClose(connection);
+        }
+    }
+
+    /**
+     * Get the phase timings of the last import of a publication.
+     *
+     * @param publicationId id of the publication
+     * @return the phases in the order they finished, empty if the publication has not been imported
+     * @throws PublicationRepositoryException if the timings could not be fetched
+     */
+    public List<ImportPhase> getTimings(String publicationId) throws PublicationRepositoryException {
+        try {
+            return queryRunner.query(
+                    "SELECT phase, durationms, bytes, entries FROM importphase WHERE publicationid = ? ORDER BY seq",
+                    new BeanListHandler<>(ImportPhase.class), publicationId);
+        } catch (SQLException e) {
+            throw new PublicationRepositoryException("Failed to get import timings", e);
+        }
+    }
+
     private Object[] insertQueryArgs(Publication publication) {
         Timestamp now = Timestamp.from(clock.instant());
         return new Object[] {
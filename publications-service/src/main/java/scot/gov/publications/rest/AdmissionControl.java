@@ -0,0 +1,106 @@
+package scot.gov.publications.rest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.PublicationRepository;
+import scot.gov.publications.repo.PublicationRepositoryException;
+
+import javax.inject.Inject;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Decides whether a new upload should be accepted, based on how long it would wait to be imported.
+ *
+ * The expected wait is the number of publications already waiting divided by the rate at which imports have been
+ * finishing recently, across all nodes.  If a new upload would wait longer than the configured latency budget then
+ * it is refused with the number of seconds until the backlog should have drained far enough to accept it.
+ *
+ * If no imports have finished recently there is no throughput to go on, which is normal after a quiet spell or when
+ * the service has just started.  In that case uploads are only refused once the oldest waiting publication has been
+ * waiting longer than the budget, i.e. when the queue really is stuck.
+ */
+public class AdmissionControl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionControl.class);
+
+    // used when nothing has finished recently and the oldest waiting publication is already over budget
+    static final long DEFAULT_RETRY_AFTER = 60;
+
+    @Inject
+    PublicationsConfiguration configuration;
+
+    @Inject
+    PublicationRepository repository;
+
+    @Inject
+    Clock clock;
+
+    /**
+     * Determine how long the client should wait before uploading.
+     *
+     * @return 0 if the upload should be accepted, otherwise the number of seconds to wait before retrying.
+     */
+    public long retryAfter() {
+        PublicationsConfiguration.Admission admission = configuration.getAdmission();
+        if (admission.getLatencyBudget() <= 0) {
+            return 0;
+        }
+
+        try {
+            long waiting = repository.countWaiting();
+            if (waiting < admission.getMinWaiting()) {
+                return 0;
+            }
+
+            Duration window = Duration.ofMinutes(admission.getWindow());
+            Duration budget = Duration.ofMinutes(admission.getLatencyBudget());
+            long finished = repository.countFinishedSince(Timestamp.from(clock.instant().minus(window)));
+            if (finished == 0) {
+                return retryAfterWithoutThroughput(waiting, window, budget);
+            }
+            return retryAfter(waiting, finished, window, budget);
+        } catch (PublicationRepositoryException e) {
+            // do not refuse uploads just because we could not measure the queue
+            LOG.error("Failed to measure the import queue, accepting upload", e);
+            return 0;
+        }
+    }
+
+    private long retryAfterWithoutThroughput(long waiting, Duration window, Duration budget)
+            throws PublicationRepositoryException {
+        Timestamp oldest = repository.oldestWaiting();
+        if (oldest == null) {
+            return 0;
+        }
+
+        Duration waited = Duration.between(oldest.toInstant(), clock.instant());
+        if (waited.compareTo(budget) <= 0) {
+            return 0;
+        }
+
+        LOG.warn("{} publications waiting, none imported in the last {} and the oldest has waited {}, refusing upload",
+                waiting, window, waited);
+        return DEFAULT_RETRY_AFTER;
+    }
+
+    long retryAfter(long waiting, long finished, Duration window, Duration budget) {
+        // how long this upload would wait behind those already waiting, at the rate imports finished in the window
+        long expectedWait = ceilDiv((waiting + 1) * window.getSeconds(), finished);
+        if (expectedWait <= budget.getSeconds()) {
+            return 0;
+        }
+
+        // how long until enough of the backlog has been imported for this upload to fit within the budget
+        long retryAfter = expectedWait - budget.getSeconds();
+        LOG.info("{} publications waiting, {} imported in the last {}, refusing upload for {}s",
+                waiting, finished, window, retryAfter);
+        return retryAfter;
+    }
+
+    private long ceilDiv(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
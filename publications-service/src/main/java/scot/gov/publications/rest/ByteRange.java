@@ -0,0 +1,89 @@
+package scot.gov.publications.rest;
+
+import org.apache.commons.lang3.StringUtils;
+
+import static org.apache.commons.lang3.StringUtils.substringAfter;
+
+/**
+ * A single byte range from a Range header, resolved against the length of the content being requested.
+ *
+ * Only a single range is supported: headers asking for several ranges, or that cannot be parsed, are treated as a
+ * request for the whole content, as the HTTP spec allows.
+ */
+public class ByteRange {
+
+    private static final String BYTES = "bytes=";
+
+    private final long start;
+
+    private final long end;
+
+    private final long length;
+
+    ByteRange(long start, long end, long length) {
+        this.start = start;
+        this.end = end;
+        this.length = length;
+    }
+
+    /**
+     * Parse a Range header.
+     *
+     * @param header the value of the Range header, may be null
+     * @param length the length of the content
+     * @return the requested range, or null if the whole content should be sent
+     */
+    public static ByteRange parse(String header, long length) {
+        if (StringUtils.isBlank(header) || !header.startsWith(BYTES) || header.contains(",")) {
+            return null;
+        }
+
+        String spec = substringAfter(header, BYTES).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range: the last n bytes
+                long suffix = Long.parseLong(last);
+                return new ByteRange(Math.max(0, length - suffix), length - 1, length);
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (end < start && start < length) {
+                return null;
+            }
+            return new ByteRange(start, end, length);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A range is unsatisfiable if it starts beyond the end of the content.
+     */
+    public boolean isSatisfiable() {
+        return start < length && end >= start;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long size() {
+        return end - start + 1;
+    }
+
+    public String contentRange() {
+        return String.format("bytes %d-%d/%d", start, end, length);
+    }
+}
@@ -11,11 +11,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.publications.hippo.HippoPaths;
 import scot.gov.publications.hippo.SessionFactory;
+import scot.gov.publications.imageprocessing.ThumbnailCache;
 import scot.gov.publications.repo.Publication;
 import scot.gov.publications.repo.PublicationRepository;
 import scot.gov.publications.repo.PublicationRepositoryException;
 import scot.gov.publications.storage.PublicationStorage;
 import scot.gov.publications.storage.PublicationStorageException;
+import scot.gov.publications.util.ProcessRunner;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
@@ -25,6 +27,7 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
@@ -38,6 +41,10 @@ import java.util.concurrent.TimeoutException;
  *
  * In additions it also checks if jobs have been waitinbg longer than 5 minutes or that the totel number of waiting
  * jobs does not rise above 5.
+ *
+ * The size of the JCR session pool and how long imports have waited for a session are included in the response, as
+ * are the number of runs, failures and timings of each external tool such as graphicsmagick and the thumbnail cache
+ * hit rate.
  */
 @Path("health")
 public class HealthCheckResource {
@@ -58,6 +65,12 @@ public class HealthCheckResource {
     @Inject
     PublicationStorage publicationStorage;
 
+    @Inject
+    ProcessRunner processRunner;
+
+    @Inject
+    ThumbnailCache thumbnailCache;
+
     @GET
     @Produces({ MediaType.APPLICATION_JSON })
     public Response health() {
@@ -71,6 +84,24 @@ public class HealthCheckResource {
         boolean ok = errors.size() == 0;
         result.put("ok", ok);
 
+        Map<String, Number> sessionMetrics = sessionFactory.metrics();
+        if (!sessionMetrics.isEmpty()) {
+            ObjectNode sessions = result.putObject("sessions");
+            sessionMetrics.forEach((name, value) -> sessions.put(name, value.longValue()));
+        }
+
+        Map<String, Map<String, Number>> processMetrics = processRunner.metrics();
+        if (!processMetrics.isEmpty()) {
+            ObjectNode processes = result.putObject("processes");
+            processMetrics.forEach((tool, toolMetrics) -> {
+                ObjectNode toolNode = processes.putObject(tool);
+                toolMetrics.forEach((name, value) -> toolNode.put(name, value.longValue()));
+            });
+        }
+
+        ObjectNode thumbnails = result.putObject("thumbnails");
+        thumbnailCache.metrics().forEach((name, value) -> thumbnails.put(name, value.longValue()));
+
         if (!ok) {
             result.set("errors", errors);
         }
@@ -122,8 +153,11 @@ public class HealthCheckResource {
     private Void addJCRInfoBlocking(ArrayNode errors) {
         try {
             Session session = sessionFactory.newSession();
-            session.itemExists(HippoPaths.ROOT);
-            session.logout();
+            try {
+                session.itemExists(HippoPaths.ROOT);
+            } finally {
+                sessionFactory.release(session);
+            }
         } catch (RepositoryException | RemoteRuntimeException e) {
             LOG.error("Failed to contact JCR repository : " + e.getMessage(), e);
             errors.add("Unable to contact the JCR repository:" + e.getMessage());
@@ -0,0 +1,166 @@
+package scot.gov.publications.rest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.Publication;
+import scot.gov.publications.repo.PublicationRepository;
+import scot.gov.publications.repo.PublicationRepositoryException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Durable queue of publications waiting to be imported.
+ *
+ * The queue is the publication table itself: uploads are created in the PENDING state and a worker claims the oldest
+ * pending publication, using row locks so that several nodes can share the same database.  Each node runs a
+ * configurable number of workers so that different publications are imported in parallel, while publications that
+ * share an ISBN are imported one at a time (see PublicationRepository.claimNextPending).  Workers poll the
+ * database, and are woken early when a publication is uploaded to this node.
+ *
+ * On startup any publications left PROCESSING by a previous run of this node, or abandoned by another node, are
+ * returned to the PENDING state.
+ */
+@Singleton
+public class ImportQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImportQueue.class);
+
+    @Inject
+    PublicationsConfiguration configuration;
+
+    @Inject
+    PublicationRepository repository;
+
+    @Inject
+    PublicationUploader publicationUploader;
+
+    @Inject
+    Clock clock;
+
+    private final Object signal = new Object();
+
+    private volatile boolean running;
+
+    private String nodeId;
+
+    ExecutorService executor;
+
+    @Inject
+    public ImportQueue() {
+        // default constructor for injection
+    }
+
+    public void start() {
+        nodeId = nodeId();
+        recoverOrphans();
+        running = true;
+        int workers = Math.max(1, configuration.getQueue().getWorkers());
+        executor = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::work);
+        }
+        LOG.info("Started {} import queue workers for node {}", workers, nodeId);
+    }
+
+    public void stop() {
+        running = false;
+        wake();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wake the workers, called when a publication has been added to the queue.
+     */
+    public void wake() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    void work() {
+        while (running) {
+            if (!processNext()) {
+                awaitWork();
+            }
+        }
+    }
+
+    /**
+     * Claim and import the next pending publication.
+     *
+     * @return true if a publication was claimed
+     */
+    boolean processNext() {
+        Publication publication;
+        try {
+            publication = repository.claimNextPending(nodeId);
+        } catch (PublicationRepositoryException e) {
+            LOG.error("Failed to claim publication", e);
+            return false;
+        }
+
+        if (publication == null) {
+            return false;
+        }
+
+        try {
+            publicationUploader.importPublication(publication);
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error importing publication {}", publication.getId(), e);
+        }
+        return true;
+    }
+
+    private void awaitWork() {
+        long pollMillis = Duration.ofSeconds(configuration.getQueue().getPollInterval()).toMillis();
+        synchronized (signal) {
+            try {
+                signal.wait(pollMillis);
+            } catch (InterruptedException e) {
+                running = false;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void recoverOrphans() {
+        Duration timeout = Duration.ofMinutes(configuration.getQueue().getOrphanTimeout());
+        Timestamp staleBefore = Timestamp.from(clock.instant().minus(timeout));
+        try {
+            int recovered = repository.recoverOrphans(nodeId, staleBefore);
+            if (recovered > 0) {
+                LOG.warn("Returned {} orphaned publications to the queue", recovered);
+            }
+        } catch (PublicationRepositoryException e) {
+            LOG.error("Failed to recover orphaned publications", e);
+        }
+    }
+
+    String nodeId() {
+        String configured = configuration.getQueue().getNodeId();
+        if (isNotBlank(configured)) {
+            return configured;
+        }
+
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            LOG.warn("Unable to determine hostname, using a random node id", e);
+            return UUID.randomUUID().toString();
+        }
+    }
+}
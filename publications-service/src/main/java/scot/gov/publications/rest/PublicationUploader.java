@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import scot.gov.publications.ApsZipImporter;
 import scot.gov.publications.ApsZipImporterException;
 import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.ImportTimings;
 import scot.gov.publications.repo.Publication;
 import scot.gov.publications.repo.PublicationRepository;
 import scot.gov.publications.repo.PublicationRepositoryException;
@@ -53,6 +54,7 @@ public class PublicationUploader  {
         MDC.put("filename", publication.getFilename());
 
         LOG.info("Importing publication \"{}\"", publication.getTitle());
+        ImportTimings timings = new ImportTimings();
         File extractedZip = null;
         try {
             // mark it as processingq
@@ -60,13 +62,18 @@ public class PublicationUploader  {
             repository.update(publication);
 
             // download the file from s3
+            long start = timings.start();
             InputStream storageStream = storage.get(publication);
             downloadedFile = fileUtil.createTempFile("downloadedPublicationFromS3", "zip", storageStream);
+            timings.record("download", start, downloadedFile.length(), null);
+
+            start = timings.start();
             extractedZip = zipUtil.getZipToProcess(downloadedFile);
             ZipFile zipFile = new ZipFile(extractedZip);
+            timings.record("unzip", start, extractedZip.length(), zipFile.size());
 
             // try to import it
-            String path = apsZipImporter.importApsZip(zipFile, publication);
+            String path = apsZipImporter.importApsZip(zipFile, publication, timings);
 
             // save it as done
             publication.setState(State.DONE.name());
@@ -98,12 +105,25 @@ public class PublicationUploader  {
         } catch (PublicationRepositoryException e) {
             LOG.error("Failed to save publication status", e);
         } finally {
+            saveTimingsQuietly(publication, timings);
             MDC.remove("publicationID");
             MDC.remove("username");
             MDC.remove("filename");
         }
     }
 
+    /**
+     * Save the timings of the phases that ran, even if the import failed.  Failing to save them does not affect the
+     * import.
+     */
+    private void saveTimingsQuietly(Publication publication, ImportTimings timings) {
+        try {
+            repository.saveTimings(publication.getId(), timings.getPhases());
+        } catch (PublicationRepositoryException e) {
+            LOG.error("Failed to save import timings", e);
+        }
+    }
+
     private void populateErrorInformation(Publication publication, String details) {
         publication.setState(State.FAILED.name());
         publication.setStatedetails(details);
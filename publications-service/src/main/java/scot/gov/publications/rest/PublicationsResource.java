@@ -8,8 +8,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.publications.ApsZipImporterException;
 import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.ingest.IngestedUpload;
+import scot.gov.publications.ingest.UploadIngester;
 import scot.gov.publications.metadata.Metadata;
-import scot.gov.publications.metadata.MetadataExtractor;
 import scot.gov.publications.repo.ListResult;
 import scot.gov.publications.repo.Publication;
 import scot.gov.publications.repo.PublicationRepository;
@@ -18,10 +19,10 @@ import scot.gov.publications.repo.State;
 import scot.gov.publications.storage.PublicationStorage;
 import scot.gov.publications.storage.PublicationStorageException;
 import scot.gov.publications.util.FileUtil;
-import scot.gov.publications.util.ZipUtil;
 
 import javax.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
@@ -30,8 +31,6 @@ import jakarta.ws.rs.Path;
 import java.io.*;
 import java.sql.Timestamp;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * REST service that allow uploading APS zip files to be imported into Hippo.  It also allows tracking of
@@ -52,15 +51,14 @@ public class PublicationsResource {
     PublicationRepository repository;
 
     @Inject
-    PublicationUploader publicationUploader;
+    ImportQueue importQueue;
 
-    FileUtil fileUtil = new FileUtil();
-
-    ZipUtil zipUtil = new ZipUtil();
+    @Inject
+    AdmissionControl admissionControl;
 
-    MetadataExtractor metadataExtractor = new MetadataExtractor();
+    FileUtil fileUtil = new FileUtil();
 
-    ExecutorService executor = Executors.newSingleThreadExecutor();
+    UploadIngester uploadIngester = new UploadIngester();
 
     /**
      * Get a paged list of publications with an optional queryString that can be used to perform a partial and case insensitive
@@ -89,17 +87,65 @@ public class PublicationsResource {
         }
     }
 
+    /**
+     * Download the zip for a publication.
+     *
+     * The ETag is the checksum of the zip, so a client that already has it gets a 304 from If-None-Match without the
+     * zip being read from storage.  A single byte Range is passed through to storage so that interrupted downloads
+     * can be resumed.
+     *
+     * @param id Id of the publication to download
+     * @param range optional Range header
+     * @param ifRange optional If-Range header, the range is only honoured if this is the same strong ETag
+     * @param ifNoneMatch optional If-None-Match header
+     * @return the zip, part of it, or 304 if the client already has it
+     */
     @GET
     @Produces({ MediaType.APPLICATION_OCTET_STREAM})
     @Path("{id}/download")
-    @PathParam("id")
-    public Response download(@PathParam("id") String id) {
+    public Response download(
+            @PathParam("id") String id,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @HeaderParam("If-None-Match") String ifNoneMatch) {
         try {
             Publication publication = repository.get(id);
+            if (publication == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+
+            EntityTag etag = new EntityTag(publication.getChecksum());
+            if (matches(ifNoneMatch, etag)) {
+                return Response.notModified(etag).build();
+            }
+
+            String disposition = "attachment; filename=\"" + publication.getFilename() + "\"";
+            if (range != null && (ifRange == null || ifRangeMatches(ifRange, etag))) {
+                long length = storage.length(publication);
+                ByteRange byteRange = ByteRange.parse(range, length);
+                if (byteRange != null && !byteRange.isSatisfiable()) {
+                    return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header("Content-Range", "bytes */" + length)
+                            .build();
+                }
+                if (byteRange != null) {
+                    InputStream is = storage.get(publication, byteRange.getStart(), byteRange.getEnd());
+                    return Response.status(Response.Status.PARTIAL_CONTENT)
+                            .entity(streamingOutput(is))
+                            .tag(etag)
+                            .header("Accept-Ranges", "bytes")
+                            .header("Content-Range", byteRange.contentRange())
+                            .header("Content-Length", byteRange.size())
+                            .header("Content-Disposition", disposition)
+                            .build();
+                }
+            }
+
             InputStream is = storage.get(publication);
-            StreamingOutput streamingOutput= os -> IOUtils.copy(is, os);
-            return Response.ok(streamingOutput)
-                    .header("Content-Disposition", "attachment; filename=\"" + publication.getFilename() + "\"" )
+            return Response.ok(streamingOutput(is))
+                    .tag(etag)
+                    .header("Accept-Ranges", "bytes")
+                    .header("Content-Disposition", disposition)
                     .build();
         } catch(PublicationRepositoryException | PublicationStorageException e) {
             LOG.error("Failed to download document ", e);
@@ -107,9 +153,53 @@ public class PublicationsResource {
         }
     }
 
+    /**
+     * Copy a stream to the response, closing it even if the client disconnects part way through.
+     */
+    private StreamingOutput streamingOutput(InputStream is) {
+        return os -> {
+            try (InputStream in = is) {
+                IOUtils.copy(in, os);
+            }
+        };
+    }
+
+    /**
+     * Determine if an If-None-Match header matches an entity tag.  Weak tags are compared on their value.
+     */
+    boolean matches(String header, EntityTag etag) {
+        if (StringUtils.isBlank(header)) {
+            return false;
+        }
+
+        for (String candidate : header.split(",")) {
+            String value = StringUtils.removeStart(candidate.trim(), "W/");
+            if ("*".equals(value) || StringUtils.strip(value, "\"").equals(etag.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if an If-Range header allows a range to be served.  RFC 7233 requires a strong comparison, so a weak
+     * tag never matches.  The header may instead be an HTTP-date, but downloads are not sent with a Last-Modified
+     * date to compare it against, so the full zip is always returned for a date.
+     */
+    boolean ifRangeMatches(String header, EntityTag etag) {
+        String value = header.trim();
+        if (!value.startsWith("\"")) {
+            // a weak tag or a date
+            return false;
+        }
+        return StringUtils.strip(value, "\"").equals(etag.getValue());
+    }
+
     /**
      * The details for a publication for an id.
      *
+     * The publication includes how long each phase of its last import took.
+     *
      * @param id Id of the publication to fetch
      * @return the publications, will throw a web applicaiton exception if it is not found.
      */
@@ -122,6 +212,7 @@ public class PublicationsResource {
             if (publication == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
+            publication.setTimings(repository.getTimings(id));
             return Response.ok(publication).build();
         } catch (PublicationRepositoryException e) {
             LOG.error("Failed to get publication {}", id, e);
@@ -160,51 +251,62 @@ public class PublicationsResource {
      *
      * @param fileUpload A multipart file upload containing a zip in the expected format.
      * @param username the user posting this content *(set by proxette)
-     * @return Response indicating if the zip has been accepted.
+     * @return Response indicating if the zip has been accepted, 429 if the import queue is too far behind.
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces({ MediaType.APPLICATION_JSON })
     public Response postFormData(@MultipartForm UploadRequest fileUpload, @HeaderParam("X-User") String username) {
 
-        // extract the zip file from the uploaded file
+        // refuse the upload if the import queue is too far behind to import it within the latency budget
+        long retryAfter = admissionControl.retryAfter();
+        if (retryAfter > 0) {
+            return Response.status(429)
+                    .header("Retry-After", retryAfter)
+                    .entity(UploadResponse.error("Too many publications waiting to be imported, retry later"))
+                    .build();
+        }
+
+        // stream the uploaded file to disk, reading its checksum, nested zip and metadata as it is written
         File zipFile = null;
-        File extractedZipFile = null;
+        IngestedUpload upload = null;
         try {
             // assert that the upload contains data and a filename
             assertRequiredFields(fileUpload);
-
-            // save the zip file to disk
-            zipFile = fileUtil.createTempFile("zipUpload", "zip", new ByteArrayInputStream(fileUpload.getFileData()));
-
-            // the up-loaded zip file contains a zip - extract it
-            extractedZipFile = zipUtil.getZipToProcess(zipFile);
-
+            zipFile = fileUtil.createTempFile("zipUpload", "zip");
+            upload = uploadIngester.ingest(fileUpload.getFileData(), zipFile);
         } catch (IllegalArgumentException | IOException e) {
             // return a client error since we were not able to extract the zip file.  ensure that any temp files are deleted.
             LOG.error("Failed to extract zip", e);
             FileUtils.deleteQuietly(zipFile);
-            FileUtils.deleteQuietly(extractedZipFile);
             return Response.status(400).entity(UploadResponse.error("Failed to extract zip file")).build();
+        } catch (ApsZipImporterException e) {
+            LOG.error("Failed to extract metadata from zip",  e);
+            FileUtils.deleteQuietly(zipFile);
+            return Response.status(400).entity(UploadResponse.error(e.getMessage())).build();
         }
 
         Publication publication = null;
         try {
             // get the publication details from the zip
-            publication = newPublication(zipFile, extractedZipFile, username, fileUpload.getFilename());
-
-            // upload the file to s3
-            storage.save(publication, zipFile);
+            publication = newPublication(upload, username, fileUpload.getFilename());
+
+            // upload the file to s3 unless identical content has already been stored.  zips are stored by checksum
+            // so only publications with a checksum we have seen before are checked in s3.
+            boolean alreadyStored = repository.hasChecksum(publication.getChecksum()) && storage.exists(publication);
+            if (alreadyStored) {
+                LOG.info("Content with checksum {} is already stored", publication.getChecksum());
+                storage.cacheLocally(publication, upload.getZip());
+            } else {
+                storage.save(publication, upload.getZip());
+            }
 
             // save the details in the repository
             repository.create(publication);
 
-            // submit the publication to the processing queue and return accepted status code
-            importPublication(publication);
-            return Response.accepted(UploadResponse.accepted(publication)).build();
-        } catch (ApsZipImporterException e) {
-            LOG.error("Failed to extract metadata from zip",  e);
-            return Response.status(400).entity(UploadResponse.error(e.getMessage())).build();
+            // the publication is now queued as PENDING, wake the import workers and return accepted status code
+            importQueue.wake();
+            return Response.accepted(UploadResponse.accepted(publication, alreadyStored)).build();
         } catch (PublicationStorageException e) {
             String msg = "Failed to upload zip file to s3";
             LOG.error(msg,  e);
@@ -215,8 +317,8 @@ public class PublicationsResource {
             return Response.status(500).entity(UploadResponse.error("Failed to save publication to the repository")).build();
         } finally {
             // ensure that temp files are deleted
-            FileUtils.deleteQuietly(zipFile);
-            FileUtils.deleteQuietly(extractedZipFile);
+            FileUtils.deleteQuietly(upload.getZip());
+            FileUtils.deleteQuietly(upload.getZipToProcess());
         }
     }
 
@@ -230,18 +332,8 @@ public class PublicationsResource {
         }
     }
 
-    private void importPublication(Publication publication) {
-        executor.submit(() -> publicationUploader.importPublication(publication));
-    }
-
-    private Publication newPublication(
-            File zip,
-            File extractedZip,
-            String username,
-            String filename)
-                throws ApsZipImporterException {
-
-        Metadata metadata = metadataExtractor.extract(extractedZip);
+    private Publication newPublication(IngestedUpload upload, String username, String filename) {
+        Metadata metadata = upload.getMetadata();
         Publication publication = new Publication();
         publication.setId(UUID.randomUUID().toString());
         publication.setUsername(username);
@@ -251,12 +343,7 @@ public class PublicationsResource {
         publication.setState(State.PENDING.name());
         publication.setEmbargodate(Timestamp.from(metadata.getPublicationDateWithTimezone().toInstant()));
         publication.setContact(contactEmail(metadata));
-
-        try {
-            publication.setChecksum(fileUtil.hash(zip));
-        } catch (IOException e) {
-            throw new ApsZipImporterException("Unable to calculate checksum", e);
-        }
+        publication.setChecksum(upload.getChecksum());
         return publication;
     }
 
@@ -3,12 +3,14 @@ package scot.gov.publications.rest;
 import org.jboss.resteasy.annotations.providers.multipart.PartType;
 
 import jakarta.ws.rs.FormParam;
+import java.io.InputStream;
 
 public class UploadRequest {
 
     private String filename;
 
-    private byte[] fileData;
+    // the zip is exposed as a stream so that it is never held in memory as a whole
+    private InputStream fileData;
 
     public String getFilename() {
         return filename;
@@ -19,13 +21,13 @@ public class UploadRequest {
         this.filename = filename;
     }
 
-    public byte[] getFileData() {
+    public InputStream getFileData() {
         return fileData;
     }
 
     @FormParam("file")
     @PartType("application/octet-stream")
-    public void setFileData(byte[] fileData) {
+    public void setFileData(InputStream fileData) {
         this.fileData = fileData;
     }
 }
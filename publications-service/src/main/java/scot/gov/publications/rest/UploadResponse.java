@@ -12,6 +12,9 @@ public class UploadResponse {
 
     private Publication publication;
 
+    // true if identical content had already been uploaded and so was not stored again
+    private boolean alreadyStored;
+
     public boolean isAccepted() {
         return accepted;
     }
@@ -36,6 +39,14 @@ public class UploadResponse {
         this.publication = publication;
     }
 
+    public boolean isAlreadyStored() {
+        return alreadyStored;
+    }
+
+    public void setAlreadyStored(boolean alreadyStored) {
+        this.alreadyStored = alreadyStored;
+    }
+
     public static UploadResponse error(String message) {
         UploadResponse response = new UploadResponse();
         response.setAccepted(false);
@@ -43,11 +54,12 @@ public class UploadResponse {
         return response;
     }
 
-    public static UploadResponse accepted(Publication publication) {
+    public static UploadResponse accepted(Publication publication, boolean alreadyStored) {
         UploadResponse response = new UploadResponse();
         response.setAccepted(true);
         response.setMessage("accepted");
         response.setPublication(publication);
+        response.setAlreadyStored(alreadyStored);
         return response;
     }
 }
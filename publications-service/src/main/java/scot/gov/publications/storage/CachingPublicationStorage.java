@@ -0,0 +1,235 @@
+package scot.gov.publications.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.Publication;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Keeps a bounded, least recently used cache of zips on local disk in front of s3, keyed by their checksum.
+ *
+ * Zips saved through this node are copied into the cache so that the importer can read them without downloading
+ * them again, as are uploads whose content s3 already had.  Publications uploaded to other nodes are not in the cache
+ * and are read from s3.
+ */
+public class CachingPublicationStorage implements PublicationStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingPublicationStorage.class);
+
+    private static final String PARTIAL = ".partial";
+
+    @Inject
+    PublicationsConfiguration configuration;
+
+    @Inject
+    S3PublicationStorage delegate;
+
+    // sizes of the cached zips by checksum, in access order so that the first entry is the least recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    private Path directory;
+
+    public boolean ok() throws PublicationStorageException {
+        return delegate.ok();
+    }
+
+    public void save(Publication publication, File file) throws PublicationStorageException {
+        delegate.save(publication, file);
+        if (enabled()) {
+            cache(publication.getChecksum(), file);
+        }
+    }
+
+    /**
+     * Zips are only cached once s3 has them, so a cached zip does not need to be checked in s3.
+     */
+    public boolean exists(Publication publication) throws PublicationStorageException {
+        if (enabled() && lookup(publication.getChecksum()) != null) {
+            return true;
+        }
+        return delegate.exists(publication);
+    }
+
+    @Override
+    public void cacheLocally(Publication publication, File file) {
+        if (enabled() && lookup(publication.getChecksum()) == null) {
+            cache(publication.getChecksum(), file);
+        }
+    }
+
+    public InputStream get(Publication publication) throws PublicationStorageException {
+        File cached = enabled() ? lookup(publication.getChecksum()) : null;
+        if (cached != null) {
+            try {
+                LOG.info("Reading {} from the local cache", publication.getChecksum());
+                return Files.newInputStream(cached.toPath());
+            } catch (IOException e) {
+                LOG.warn("Failed to read {} from the local cache, falling back to s3", publication.getChecksum(), e);
+                remove(publication.getChecksum());
+            }
+        }
+        return delegate.get(publication);
+    }
+
+    public InputStream get(Publication publication, long start, long end) throws PublicationStorageException {
+        File cached = enabled() ? lookup(publication.getChecksum()) : null;
+        if (cached != null) {
+            InputStream in = null;
+            try {
+                in = Files.newInputStream(cached.toPath());
+                IOUtils.skipFully(in, start);
+                return new BoundedInputStream(in, end - start + 1);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(in);
+                LOG.warn("Failed to read {} from the local cache, falling back to s3", publication.getChecksum(), e);
+            }
+        }
+        return delegate.get(publication, start, end);
+    }
+
+    public long length(Publication publication) throws PublicationStorageException {
+        File cached = enabled() ? lookup(publication.getChecksum()) : null;
+        return cached != null ? cached.length() : delegate.length(publication);
+    }
+
+    public Set<String> listKeys() throws PublicationStorageException {
+        return delegate.listKeys();
+    }
+
+    public Map<String, String> deleteKeys(Collection<String> keys) throws PublicationStorageException {
+        keys.forEach(this::remove);
+        return delegate.deleteKeys(keys);
+    }
+
+    /**
+     * Copy a file into the cache.  The copy is written to a partial file outside of the lock and then moved into
+     * place, so that readers never see a half written zip.  Failures are logged since s3 still has the zip.
+     */
+    void cache(String checksum, File file) {
+        if (file.length() > maxBytes()) {
+            return;
+        }
+
+        try {
+            Path target = directory().resolve(checksum);
+            Path partial = Files.createTempFile(directory(), checksum, PARTIAL);
+            Files.copy(file.toPath(), partial, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                add(directory, checksum, Files.size(target));
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to cache {}", checksum, e);
+        }
+    }
+
+    synchronized File lookup(String checksum) {
+        try {
+            directory();
+        } catch (IOException e) {
+            LOG.warn("Failed to open the local cache", e);
+            return null;
+        }
+
+        if (entries.get(checksum) == null) {
+            return null;
+        }
+        File file = directory.resolve(checksum).toFile();
+        if (!file.exists()) {
+            remove(checksum);
+            return null;
+        }
+        return file;
+    }
+
+    private synchronized void remove(String checksum) {
+        Long length = entries.remove(checksum);
+        if (length != null) {
+            size -= length;
+            FileUtils.deleteQuietly(directory.resolve(checksum).toFile());
+        }
+    }
+
+    private void add(Path dir, String checksum, long length) {
+        Long previous = entries.put(checksum, length);
+        if (previous != null) {
+            size -= previous;
+        }
+        size += length;
+        evict(dir);
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is within its size limit.  Removing a zip that is
+     * still being read is safe, the reader keeps its open file.
+     */
+    private void evict(Path dir) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxBytes() && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            FileUtils.deleteQuietly(dir.resolve(eldest.getKey()).toFile());
+        }
+    }
+
+    /**
+     * The cache directory, created on first use.  Zips left by a previous run are added to the cache oldest first
+     * and any partial copies are deleted.
+     */
+    private synchronized Path directory() throws IOException {
+        if (directory != null) {
+            return directory;
+        }
+
+        Path dir = isNotBlank(configuration.getCache().getDirectory())
+                ? Paths.get(configuration.getCache().getDirectory())
+                : Paths.get(System.getProperty("java.io.tmpdir"), "publications-cache");
+        Files.createDirectories(dir);
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : paths.sorted(Comparator.comparing(p -> p.toFile().lastModified())).collect(toList())) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(PARTIAL)) {
+                    FileUtils.deleteQuietly(path.toFile());
+                } else {
+                    add(dir, name, Files.size(path));
+                }
+            }
+        }
+        directory = dir;
+        LOG.info("Using local cache {} containing {} zips", directory, entries.size());
+        return directory;
+    }
+
+    private boolean enabled() {
+        return configuration.getCache().getMaxSize() > 0;
+    }
+
+    private long maxBytes() {
+        return configuration.getCache().getMaxSize() * 1024L * 1024L;
+    }
+}
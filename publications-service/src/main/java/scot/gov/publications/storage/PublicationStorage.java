@@ -26,6 +26,24 @@ public interface PublicationStorage {
      */
     void save(Publication publication, File file) throws PublicationStorageException;
 
+    /**
+     * Keep a local copy of content that is already stored, for storage that keeps local copies.  Used when saving is
+     * skipped because identical content has already been stored.
+     * @param publication the publication the content belongs to.
+     * @param file The content of the publication
+     */
+    default void cacheLocally(Publication publication, File file) {
+        // nothing is kept locally by default
+    }
+
+    /**
+     * Determine if the content for a publication is already stored.
+     * @param publication the publication to check.
+     * @return true if content with the publication's checksum is already stored.
+     * @throws PublicationStorageException If we cannot check the repository.
+     */
+    boolean exists(Publication publication) throws PublicationStorageException;
+
     /**
      * Read the contents of a publication from the repository.
      * @param publication the publication to read
@@ -34,6 +52,24 @@ public interface PublicationStorage {
      */
     InputStream get(Publication publication) throws PublicationStorageException;
 
+    /**
+     * Read a range of the contents of a publication from the repository.
+     * @param publication the publication to read
+     * @param start offset of the first byte to read
+     * @param end offset of the last byte to read, inclusive
+     * @return Input stream of the requested bytes.
+     * @throws PublicationStorageException If we cannot read the content.
+     */
+    InputStream get(Publication publication, long start, long end) throws PublicationStorageException;
+
+    /**
+     * The length of the contents of a publication.
+     * @param publication the publication
+     * @return length of the content in bytes.
+     * @throws PublicationStorageException If we cannot read the length.
+     */
+    long length(Publication publication) throws PublicationStorageException;
+
 
     /**
      * List the available keys.
@@ -1,16 +1,27 @@
 package scot.gov.publications.storage;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.publications.PublicationsConfiguration;
 import scot.gov.publications.repo.Publication;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
@@ -18,12 +29,22 @@ import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -31,8 +52,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.StringUtils.substringAfter;
 
 /**
  * Store and fetch zip files in s3.
@@ -43,12 +72,20 @@ public class S3PublicationStorage implements PublicationStorage {
 
     private static String README = "README.txt";
 
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    // smallest part size in megabytes allowed by s3 for all but the last part of a multipart upload
+    private static final int MIN_PART_SIZE = 5;
+
     @Inject
     PublicationsConfiguration.S3 configuration;
 
     @Inject
     S3Client s3;
 
+    // shared by all transfers so that the configured concurrency bounds the number of parts in flight
+    private ExecutorService executor;
+
     /**
      * Determine if the storage service is healthly by trying to ensure that the readme file exists.
      *
@@ -83,27 +120,264 @@ public class S3PublicationStorage implements PublicationStorage {
         }
     }
 
+    public boolean exists(Publication publication) throws PublicationStorageException {
+        try {
+            return doesObjectExist(configuration.getBucket(), getPath(publication));
+        } catch (SdkException e) {
+            throw new PublicationStorageException(e);
+        }
+    }
+
+    /**
+     * Save a zip to s3.  Zips larger than the configured part size are uploaded as a multipart upload with
+     * several parts uploaded at the same time.
+     */
     public void save(Publication publication, File file) throws PublicationStorageException {
         String path = getPath(publication);
         try {
-            s3.putObject(
-                PutObjectRequest.builder().bucket(configuration.getBucket()).key(path).build(),
-                RequestBody.fromFile(file)
-            );
+            if (file.length() <= partSize()) {
+                s3.putObject(
+                    PutObjectRequest.builder().bucket(configuration.getBucket()).key(path).build(),
+                    RequestBody.fromFile(file)
+                );
+            } else {
+                multipartUpload(path, file);
+            }
         } catch (SdkException e) {
             throw new PublicationStorageException(e);
         }
     }
 
+    private void multipartUpload(String path, File file) throws PublicationStorageException {
+        String uploadId = s3.createMultipartUpload(
+                CreateMultipartUploadRequest.builder().bucket(configuration.getBucket()).key(path).build())
+                .uploadId();
+        List<PartTask<CompletedPart>> tasks = new ArrayList<>();
+        try {
+            long partSize = partSize();
+            int partNumber = 1;
+            for (long offset = 0; offset < file.length(); offset += partSize) {
+                long length = Math.min(partSize, file.length() - offset);
+                tasks.add(submit(uploadPart(path, uploadId, partNumber++, file, offset, length)));
+            }
+            List<CompletedPart> parts = awaitAll(tasks);
+            s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(configuration.getBucket())
+                    .key(path)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (PublicationStorageException | SdkException e) {
+            // parts still uploading after the abort would be left behind in the bucket
+            cancelAll(tasks);
+            abortQuietly(path, uploadId);
+            throw e;
+        }
+    }
+
+    private Callable<CompletedPart> uploadPart(String path, String uploadId, int partNumber, File file, long offset, long length) {
+        return () -> {
+            UploadPartRequest request = UploadPartRequest.builder()
+                    .bucket(configuration.getBucket())
+                    .key(path)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .contentLength(length)
+                    .build();
+            // the provider may be asked for the content more than once if the sdk retries the part
+            ContentStreamProvider provider = () -> partStream(file, offset, length);
+            UploadPartResponse response = s3.uploadPart(request, RequestBody.fromContentProvider(provider, length, OCTET_STREAM));
+            return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+        };
+    }
+
+    private InputStream partStream(File file, long offset, long length) {
+        try {
+            InputStream in = new FileInputStream(file);
+            IOUtils.skipFully(in, offset);
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void abortQuietly(String path, String uploadId) {
+        try {
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(configuration.getBucket()).key(path).uploadId(uploadId).build());
+        } catch (SdkException e) {
+            LOG.warn("Failed to abort multipart upload {} for {}", uploadId, path, e);
+        }
+    }
+
+    /**
+     * Read the zip for a publication.  The first part of the zip is requested on its own: if that is the whole zip
+     * then it is streamed directly, otherwise the remaining parts are downloaded in parallel ranged requests into a
+     * temp file that is deleted when the returned stream is closed.
+     */
     public InputStream get(Publication publication) throws PublicationStorageException {
         String path = getPath(publication);
         try {
-            return s3.getObject(GetObjectRequest.builder().bucket(configuration.getBucket()).key(path).build());
+            ResponseInputStream<GetObjectResponse> first = s3.getObject(getRequest(path, 0, partSize()));
+            long length = objectLength(first.response());
+            if (length <= partSize()) {
+                return first;
+            }
+            return rangedDownload(path, first, length);
         } catch (SdkException e) {
             throw new PublicationStorageException(e);
         }
     }
 
+    public InputStream get(Publication publication, long start, long end) throws PublicationStorageException {
+        try {
+            return s3.getObject(getRequest(getPath(publication), start, end + 1));
+        } catch (SdkException e) {
+            throw new PublicationStorageException(e);
+        }
+    }
+
+    public long length(Publication publication) throws PublicationStorageException {
+        try {
+            return s3.headObject(HeadObjectRequest.builder()
+                    .bucket(configuration.getBucket())
+                    .key(getPath(publication))
+                    .build())
+                    .contentLength();
+        } catch (SdkException e) {
+            throw new PublicationStorageException(e);
+        }
+    }
+
+    private InputStream rangedDownload(String path, InputStream first, long length) throws PublicationStorageException {
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile("s3download", ".zip");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                long partSize = partSize();
+                List<PartTask<Void>> tasks = new ArrayList<>();
+                try {
+                    for (long offset = partSize; offset < length; offset += partSize) {
+                        long start = offset;
+                        long end = Math.min(offset + partSize, length);
+                        tasks.add(submit(() -> {
+                            try (InputStream in = s3.getObject(getRequest(path, start, end))) {
+                                write(in, channel, start, end - start);
+                            }
+                            return null;
+                        }));
+                    }
+                    try (InputStream in = first) {
+                        write(in, channel, 0, partSize);
+                    }
+                    awaitAll(tasks);
+                } finally {
+                    // no part may still be writing once the channel is closed
+                    cancelAll(tasks);
+                }
+            }
+            return Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(first);
+            deleteQuietly(tempFile);
+            throw new PublicationStorageException(e);
+        } catch (PublicationStorageException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+    }
+
+    private void write(InputStream in, FileChannel channel, long position, long length) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        long written = 0;
+        while (written < length) {
+            long count = channel.transferFrom(source, position + written, length - written);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of s3 stream at " + (position + written));
+            }
+            written += count;
+        }
+    }
+
+    /**
+     * Request the bytes from start (inclusive) to end (exclusive).
+     */
+    private GetObjectRequest getRequest(String path, long start, long end) {
+        return GetObjectRequest.builder()
+                .bucket(configuration.getBucket())
+                .key(path)
+                .range(String.format("bytes=%d-%d", start, end - 1))
+                .build();
+    }
+
+    /**
+     * The length of the object from the Content-Range of a ranged response, or -1 if the whole object was returned.
+     */
+    private long objectLength(GetObjectResponse response) {
+        if (response == null || response.contentRange() == null) {
+            return -1;
+        }
+        return Long.parseLong(substringAfter(response.contentRange(), "/"));
+    }
+
+    private <T> PartTask<T> submit(Callable<T> body) {
+        PartTask<T> task = new PartTask<>(body);
+        task.future = executor().submit(task);
+        return task;
+    }
+
+    private <T> List<T> awaitAll(List<PartTask<T>> tasks) throws PublicationStorageException {
+        List<T> results = new ArrayList<>();
+        for (PartTask<T> task : tasks) {
+            results.add(await(task.future));
+        }
+        return results;
+    }
+
+    /**
+     * Cancel any parts that have not finished and wait for those already running to stop.
+     */
+    private <T> void cancelAll(List<PartTask<T>> tasks) {
+        for (PartTask<T> task : tasks) {
+            task.future.cancel(true);
+        }
+        try {
+            for (PartTask<T> task : tasks) {
+                task.awaitStopped();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> T await(Future<T> future) throws PublicationStorageException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PublicationStorageException(e);
+        } catch (ExecutionException e) {
+            throw new PublicationStorageException(e.getCause());
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path != null) {
+            FileUtils.deleteQuietly(path.toFile());
+        }
+    }
+
+    private long partSize() {
+        return Math.max(MIN_PART_SIZE, configuration.getPartSize()) * 1024L * 1024L;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, configuration.getConcurrency()));
+        }
+        return executor;
+    }
+
     public Set<String> listKeys() throws PublicationStorageException {
         Set<String> keys = new HashSet<>();
         try {
@@ -177,4 +451,42 @@ public class S3PublicationStorage implements PublicationStorage {
         return Paths.get(configuration.getPath()).resolve(name).toString();
     }
 
+
+    /**
+     * A part of a transfer run on the shared executor.  A cancelled future does not say whether its task is still
+     * running, so the task records when it has stopped.
+     */
+    private static class PartTask<T> implements Callable<T> {
+
+        private final Callable<T> body;
+
+        // set by whichever comes first of the task starting and the task being cancelled
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        private Future<T> future;
+
+        PartTask(Callable<T> body) {
+            this.body = body;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return body.call();
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        void awaitStopped() throws InterruptedException {
+            if (!claimed.compareAndSet(false, true)) {
+                stopped.await();
+            }
+        }
+    }
 }
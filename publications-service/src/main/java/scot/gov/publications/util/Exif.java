@@ -1,6 +1,6 @@
 package scot.gov.publications.util;
 
-import javax.jcr.Binary;
+import java.io.InputStream;
 
 /**
  * Interface fo object capable of extracting page count from binaries.
@@ -8,7 +8,7 @@ import javax.jcr.Binary;
 public interface Exif {
 
     /**
-     * Extract tje page count from a bionary containing a pdf.
+     * Extract tje page count from a stream containing a pdf.
      */
-    long pageCount(Binary binary, String mimeType);
+    long pageCount(InputStream in, String mimeType);
 }
@@ -0,0 +1,111 @@
+package scot.gov.publications.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads page counts with PdfPageCounter, which only parses the cross reference, catalog and page tree of the pdf,
+ * rather than running exiftool.  Files that PdfPageCounter cannot read are passed to the fallback.
+ *
+ * Zip entries cannot be read at random, so the pdf is read into memory first, or into a memory mapped temporary file
+ * if it is larger than MAX_IN_MEMORY.  The in memory buffer doubles as it grows, so a page count holds at most
+ * 2 * MAX_IN_MEMORY bytes of heap.  Page counts run on the AssetPreparer pool, one per core, so pdfs buffered for page
+ * counts use at most 8MB of heap per core; larger pdfs are read through the page cache rather than the heap.
+ */
+public class ExifPdfParserImpl implements Exif {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExifPdfParserImpl.class);
+
+    // pdfs larger than this are written to a temporary file and memory mapped
+    static final int MAX_IN_MEMORY = 4 * 1024 * 1024;
+
+    private final Exif fallback;
+
+    PdfPageCounter pageCounter = new PdfPageCounter();
+
+    int maxInMemory = MAX_IN_MEMORY;
+
+    public ExifPdfParserImpl(Exif fallback) {
+        this.fallback = fallback;
+    }
+
+    public long pageCount(InputStream in, String mimeType) {
+
+        if (FileType.forMimeType(mimeType) != FileType.PDF) {
+            return 0;
+        }
+
+        File file = null;
+        try {
+            Buffer head = new Buffer();
+            IOUtils.copyLarge(in, head, 0, maxInMemory + 1L);
+            if (head.size() <= maxInMemory) {
+                return pageCount(head.byteBuffer(), head::inputStream, mimeType);
+            }
+
+            file = File.createTempFile("pagecount-tmp-", ".pdf");
+            try (OutputStream out = new FileOutputStream(file)) {
+                head.writeTo(out);
+                IOUtils.copy(in, out);
+            }
+            File pdf = file;
+            return pageCount(map(file), () -> new FileInputStream(pdf), mimeType);
+        } catch (IOException e) {
+            LOG.warn("Failed to get page count", e);
+            return 0;
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private long pageCount(ByteBuffer pdf, Source source, String mimeType) throws IOException {
+        try {
+            return pageCounter.pageCount(pdf);
+        } catch (IOException e) {
+            LOG.info("Could not read page count from pdf, using {}: {}",
+                    fallback.getClass().getSimpleName(), e.getMessage());
+            try (InputStream in = source.open()) {
+                return fallback.pageCount(in, mimeType);
+            }
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Gives access to the bytes written without copying them as toByteArray does.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        ByteBuffer byteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        InputStream inputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Source {
+        InputStream open() throws IOException;
+    }
+}
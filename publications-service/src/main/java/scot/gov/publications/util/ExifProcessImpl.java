@@ -4,24 +4,42 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
 
-import javax.jcr.Binary;
-import javax.jcr.RepositoryException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toMap;
 
 public class ExifProcessImpl implements Exif {
 
     private static final Logger LOG = LoggerFactory.getLogger(ExifProcessImpl.class);
 
+    // arguments passed to exiftool before the filename
+    static final List<String> ARGUMENTS = asList(
+            "-s2",
+            "-d",
+            "%FT%T%z",
+            "-PageCount",
+            "-ModifyDate");
 
-    public long pageCount(Binary binary, String mimeType) {
+    final ProcessRunner processRunner;
+
+    public ExifProcessImpl() {
+        this(new ProcessRunner(new PublicationsConfiguration()));
+    }
+
+    public ExifProcessImpl(ProcessRunner processRunner) {
+        this.processRunner = processRunner;
+    }
+
+    public long pageCount(InputStream in, String mimeType) {
 
         if (FileType.forMimeType(mimeType) != FileType.PDF) {
             return 0;
@@ -31,10 +49,13 @@ public class ExifProcessImpl implements Exif {
         File file = null;
         try {
             file = File.createTempFile("exit-tmp-", "tmp");
-            File tmp = writeBinaryToTempFile(binary, file);
+            File tmp = writeStreamToTempFile(in, file);
             List<String> exifOutput = runExiftool(tmp);
             return extractPageCount(exifOutput);
-        } catch (IOException | RepositoryException | InterruptedException e ) {
+        } catch (IOException e) {
+            LOG.warn("Failed to get page count", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             LOG.warn("Failed to get page count", e);
         } finally {
             FileUtils.deleteQuietly(file);
@@ -43,32 +64,24 @@ public class ExifProcessImpl implements Exif {
         return 0;
     }
 
-    private static File writeBinaryToTempFile(Binary binary, File file) throws IOException, RepositoryException {
-        FileOutputStream out = new FileOutputStream(file);
-        IOUtils.copy(binary.getStream(), out);
-        IOUtils.closeQuietly(out);
+    private static File writeStreamToTempFile(InputStream in, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            IOUtils.copy(in, out);
+        }
         return file;
     }
 
-    private static List<String> runExiftool(File file) throws IOException, InterruptedException {
-        // could block indefinitely because it doesn't read stderr
-        ProcessBuilder builder =
-                new ProcessBuilder("exiftool",
-                        "-s2",
-                        "-d",
-                        "%FT%T%z",
-                        "-PageCount",
-                        "-ModifyDate",
-                        file.getAbsolutePath());
-
-        Process process = builder.start();
-        List<String> output = IOUtils.readLines(process.getInputStream(), UTF_8);
-
-        int code = process.waitFor();
-        if (code != 0) {
-            throw new IOException("returned code from the process is " + code);
+    List<String> runExiftool(File file) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("exiftool");
+        command.addAll(ARGUMENTS);
+        command.add(file.getAbsolutePath());
+        ProcessResult result = processRunner.run("exiftool", command);
+
+        if (!result.isSuccess()) {
+            throw new IOException("returned code from the process is " + result.getExitCode() + ": " + result.getError());
         }
-        return output;
+        return asList(result.getOutput().split("\\R"));
     }
 
     static long extractPageCount(List<String> output) {
@@ -0,0 +1,211 @@
+package scot.gov.publications.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+/**
+ * Extracts page counts using a pool of long running exiftool processes.
+ *
+ * Starting perl dominates the time it takes exiftool to read a pdf, so rather than starting exiftool for every file
+ * each worker is started once with -stay_open and is sent the arguments for each file on stdin.  exiftool writes
+ * {readyN} once it has finished with the arguments ending in -executeN, which marks the end of the output for that
+ * file.
+ *
+ * A worker that fails or does not respond within the process timeout is killed and the file is tried once more with
+ * a new worker.  Errors written by exiftool are discarded so that a worker can never block on a full stderr pipe.
+ */
+public class ExifStayOpenImpl extends ExifProcessImpl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExifStayOpenImpl.class);
+
+    static final String TOOL = "exiftool-stay-open";
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "exiftool-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // command used to start a worker
+    List<String> command = asList("exiftool", "-stay_open", "True", "-@", "-");
+
+    private final Duration timeout;
+
+    private final Semaphore permits;
+
+    // idle workers, most recently used first
+    private final Deque<Worker> idle = new ArrayDeque<>();
+
+    public ExifStayOpenImpl(ProcessRunner processRunner) {
+        super(processRunner);
+        this.timeout = Duration.ofSeconds(processRunner.configuration.getProcesses().getTimeout());
+        this.permits = new Semaphore(Math.max(1, processRunner.configuration.getProcesses().getExiftoolPoolSize()), true);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "exiftool-shutdown"));
+    }
+
+    @Override
+    List<String> runExiftool(File file) throws IOException, InterruptedException {
+        if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timed out waiting for an exiftool worker");
+        }
+
+        try {
+            try {
+                return execute(file);
+            } catch (IOException e) {
+                LOG.warn("exiftool worker failed, retrying with a new worker", e);
+                return execute(file);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stop all idle workers.
+     */
+    public void close() {
+        List<Worker> workers;
+        synchronized (idle) {
+            workers = new ArrayList<>(idle);
+            idle.clear();
+        }
+        workers.forEach(Worker::stop);
+    }
+
+    private List<String> execute(File file) throws IOException {
+        Worker worker = take();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<String> output = worker.execute(file, timeout);
+            ok = true;
+            return output;
+        } finally {
+            processRunner.record(TOOL, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), ok, worker.killed);
+            if (ok) {
+                synchronized (idle) {
+                    idle.addFirst(worker);
+                }
+            } else {
+                worker.stop();
+            }
+        }
+    }
+
+    private Worker take() throws IOException {
+        while (true) {
+            Worker worker;
+            synchronized (idle) {
+                worker = idle.pollFirst();
+            }
+            if (worker == null) {
+                return Worker.start(command);
+            }
+            if (worker.process.isAlive()) {
+                return worker;
+            }
+            LOG.info("Discarding exiftool worker that has exited");
+        }
+    }
+
+    static class Worker {
+
+        final Process process;
+
+        final BufferedWriter in;
+
+        final BufferedReader out;
+
+        int sequence;
+
+        volatile boolean killed;
+
+        Worker(Process process) {
+            this.process = process;
+            this.in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), UTF_8));
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+        }
+
+        static Worker start(List<String> command) throws IOException {
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return new Worker(process);
+        }
+
+        List<String> execute(File file, Duration timeout) throws IOException {
+            int id = ++sequence;
+            ScheduledFuture<?> kill = WATCHDOG.schedule(this::kill, timeout.toMillis(), TimeUnit.MILLISECONDS);
+            try {
+                for (String argument : ARGUMENTS) {
+                    writeLine(argument);
+                }
+                writeLine(file.getAbsolutePath());
+                writeLine("-execute" + id);
+                in.flush();
+
+                String ready = "{ready" + id + "}";
+                List<String> output = new ArrayList<>();
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.equals(ready)) {
+                        return output;
+                    }
+                    output.add(line);
+                }
+                throw new IOException(killed
+                        ? "exiftool did not respond within " + timeout
+                        : "exiftool exited unexpectedly");
+            } finally {
+                kill.cancel(false);
+            }
+        }
+
+        void stop() {
+            try {
+                writeLine("-stay_open");
+                writeLine("False");
+                in.close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+
+        private void kill() {
+            killed = true;
+            process.destroyForcibly();
+        }
+
+        private void writeLine(String line) throws IOException {
+            in.write(line);
+            in.write('\n');
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -40,15 +41,34 @@ public class FileUtil {
     }
 
     public String hash(File zip) throws IOException {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            try (InputStream in = new DigestInputStream(new FileInputStream(zip), digest)) {
-                byte[] buffer = new byte[8192];
-                while (in.read(buffer) != -1) {
-                    // digest updated by DigestInputStream
-                }
+        MessageDigest digest = md5();
+        try (InputStream in = new DigestInputStream(new FileInputStream(zip), digest)) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // digest updated by DigestInputStream
             }
-            return HexFormat.of().formatHex(digest.digest());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copy content into a file, calculating its MD5 checksum as it is written.  The content is streamed through a
+     * fixed size buffer so memory use does not depend on the size of the content.
+     *
+     * @return hex encoded MD5 checksum of the content
+     */
+    public String copyAndHash(InputStream content, File file) throws IOException {
+        MessageDigest digest = md5();
+        try (InputStream in = new DigestInputStream(content, digest);
+             OutputStream out = new FileOutputStream(file)) {
+            IOUtils.copy(in, out);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public MessageDigest md5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new IOException(e);
         }
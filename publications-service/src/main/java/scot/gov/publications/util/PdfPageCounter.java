@@ -0,0 +1,772 @@
+package scot.gov.publications.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the page count of a pdf from its page tree without reading the rest of the document.
+ *
+ * The cross reference sections are found from the startxref offset at the end of the file, following /Prev and
+ * /XRefStm links so that incrementally updated and linearized files are read correctly.  Both cross reference tables
+ * and cross reference streams are supported, as are objects held in object streams.  Only the trailer, the catalog
+ * and the root of the page tree are then parsed, and the page count is the /Count of the page tree root.
+ *
+ * Streams compressed with anything other than FlateDecode are not supported.  An IOException is thrown for anything
+ * that cannot be read so that callers can fall back to a more forgiving tool.
+ */
+public class PdfPageCounter {
+
+    private static final byte[] STARTXREF = "startxref".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] PDF_HEADER = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+
+    // the trailer is expected within this many bytes of the end of the file
+    private static final int TRAILER_SEARCH = 4096;
+
+    // guards against cycles and absurdly long chains of cross reference sections or references
+    private static final int MAX_DEPTH = 256;
+
+    /**
+     * Count the pages of a pdf held in a buffer.
+     *
+     * @throws IOException if the page count could not be read
+     */
+    public long pageCount(ByteBuffer pdf) throws IOException {
+        try {
+            return new Document(pdf).pageCount();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed pdf", e);
+        }
+    }
+
+    /**
+     * Indirect reference to an object.
+     */
+    static class Ref {
+
+        final int number;
+
+        Ref(int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * A keyword such as obj or stream.
+     */
+    static class Keyword {
+
+        final String value;
+
+        Keyword(String value) {
+            this.value = value;
+        }
+
+        boolean is(String keyword) {
+            return value.equals(keyword);
+        }
+    }
+
+    /**
+     * Stream object: its dictionary and where its data is.
+     */
+    static class Stream {
+
+        final Map<String, Object> dictionary;
+
+        final ByteBuffer buffer;
+
+        final int start;
+
+        Stream(Map<String, Object> dictionary, ByteBuffer buffer, int start) {
+            this.dictionary = dictionary;
+            this.buffer = buffer;
+            this.start = start;
+        }
+    }
+
+    // an entry in the cross reference: either an offset in the file or an index within an object stream
+    private static class XrefEntry {
+
+        final boolean compressed;
+
+        final long offset;
+
+        final int objectStream;
+
+        final int index;
+
+        XrefEntry(long offset) {
+            this.compressed = false;
+            this.offset = offset;
+            this.objectStream = 0;
+            this.index = 0;
+        }
+
+        XrefEntry(int objectStream, int index) {
+            this.compressed = true;
+            this.offset = 0;
+            this.objectStream = objectStream;
+            this.index = index;
+        }
+    }
+
+    private static class Document {
+
+        final ByteBuffer buffer;
+
+        // offset of the %PDF header: some files have junk before it that offsets do not count
+        final int headerOffset;
+
+        final Map<Integer, XrefEntry> xref = new HashMap<>();
+
+        final Set<Long> loadedSections = new HashSet<>();
+
+        final Map<Integer, Parser> objectStreams = new HashMap<>();
+
+        final Map<Integer, int[]> objectStreamOffsets = new HashMap<>();
+
+        Map<String, Object> trailer;
+
+        Document(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.headerOffset = Math.max(0, indexOf(buffer, PDF_HEADER, 0, Math.min(buffer.limit(), 1024)));
+        }
+
+        long pageCount() throws IOException {
+            loadXref(startxref(), 0);
+            if (trailer == null) {
+                throw new IOException("No trailer");
+            }
+            Map<String, Object> catalog = dictionary(resolve(trailer.get("Root"), 0));
+            Map<String, Object> pages = dictionary(resolve(catalog.get("Pages"), 0));
+            Object count = resolve(pages.get("Count"), 0);
+            if (!(count instanceof Number) || ((Number) count).longValue() < 0) {
+                throw new IOException("Page tree has no valid /Count");
+            }
+            return ((Number) count).longValue();
+        }
+
+        private long startxref() throws IOException {
+            int from = Math.max(0, buffer.limit() - TRAILER_SEARCH);
+            int at = lastIndexOf(buffer, STARTXREF, from, buffer.limit());
+            if (at < 0) {
+                throw new IOException("No startxref");
+            }
+            Parser parser = new Parser(buffer, at + STARTXREF.length);
+            return number(parser.readObject()).longValue();
+        }
+
+        private void loadXref(long offset, int depth) throws IOException {
+            if (depth > MAX_DEPTH || !loadedSections.add(offset)) {
+                return;
+            }
+
+            Parser parser = new Parser(buffer, position(offset));
+            parser.skipWhitespace();
+            Map<String, Object> sectionTrailer;
+            if (parser.startsWith("xref")) {
+                parser.skip("xref".length());
+                sectionTrailer = readXrefTable(parser);
+            } else {
+                sectionTrailer = readXrefStream(parser);
+            }
+
+            if (trailer == null) {
+                trailer = sectionTrailer;
+            }
+
+            // entries in a hybrid file's cross reference stream take precedence over those in previous sections
+            if (sectionTrailer.get("XRefStm") instanceof Number) {
+                loadXref(number(sectionTrailer.get("XRefStm")).longValue(), depth + 1);
+            }
+            if (sectionTrailer.get("Prev") instanceof Number) {
+                loadXref(number(sectionTrailer.get("Prev")).longValue(), depth + 1);
+            }
+        }
+
+        private Map<String, Object> readXrefTable(Parser parser) throws IOException {
+            while (true) {
+                Object token = parser.readObject();
+                if (token instanceof Keyword && ((Keyword) token).is("trailer")) {
+                    return dictionary(parser.readObject());
+                }
+                int first = number(token).intValue();
+                int count = number(parser.readObject()).intValue();
+                for (int i = 0; i < count; i++) {
+                    long entryOffset = number(parser.readObject()).longValue();
+                    parser.readObject();
+                    Object type = parser.readObject();
+                    // newer sections are read first, so only add entries that have not been seen
+                    if (type instanceof Keyword && ((Keyword) type).is("n")) {
+                        xref.putIfAbsent(first + i, new XrefEntry(entryOffset));
+                    }
+                }
+            }
+        }
+
+        private Map<String, Object> readXrefStream(Parser parser) throws IOException {
+            Object object = readIndirectObject(parser, 0);
+            if (!(object instanceof Stream)) {
+                throw new IOException("Expected cross reference stream");
+            }
+            Stream stream = (Stream) object;
+            Map<String, Object> dictionary = stream.dictionary;
+            byte[] data = decode(stream, 0);
+
+            List<Object> widths = array(dictionary.get("W"));
+            int[] w = new int[3];
+            for (int i = 0; i < 3; i++) {
+                w[i] = number(widths.get(i)).intValue();
+            }
+            int entrySize = w[0] + w[1] + w[2];
+
+            List<Object> index = dictionary.containsKey("Index")
+                    ? array(dictionary.get("Index"))
+                    : List.of(0L, dictionary.get("Size"));
+
+            int position = 0;
+            for (int i = 0; i + 1 < index.size(); i += 2) {
+                int first = number(index.get(i)).intValue();
+                int count = number(index.get(i + 1)).intValue();
+                for (int j = 0; j < count && position + entrySize <= data.length; j++) {
+                    // the type defaults to 1 if its width is zero
+                    long type = w[0] == 0 ? 1 : field(data, position, w[0]);
+                    long second = field(data, position + w[0], w[1]);
+                    long third = field(data, position + w[0] + w[1], w[2]);
+                    position += entrySize;
+                    if (type == 1) {
+                        xref.putIfAbsent(first + j, new XrefEntry(second));
+                    } else if (type == 2) {
+                        xref.putIfAbsent(first + j, new XrefEntry((int) second, (int) third));
+                    }
+                }
+            }
+            return dictionary;
+        }
+
+        private static long field(byte[] data, int position, int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (data[position + i] & 0xff);
+            }
+            return value;
+        }
+
+        Object resolve(Object object, int depth) throws IOException {
+            if (!(object instanceof Ref)) {
+                return object;
+            }
+            if (depth > MAX_DEPTH) {
+                throw new IOException("Too many levels of indirection");
+            }
+
+            int number = ((Ref) object).number;
+            XrefEntry entry = xref.get(number);
+            if (entry == null) {
+                throw new IOException("Object " + number + " is not in the cross reference");
+            }
+            Object resolved = entry.compressed
+                    ? readCompressedObject(entry, depth)
+                    : readIndirectObject(new Parser(buffer, position(entry.offset)), depth);
+            return resolve(resolved, depth + 1);
+        }
+
+        private Object readIndirectObject(Parser parser, int depth) throws IOException {
+            number(parser.readObject());
+            number(parser.readObject());
+            Object keyword = parser.readObject();
+            if (!(keyword instanceof Keyword) || !((Keyword) keyword).is("obj")) {
+                throw new IOException("Expected obj at offset " + parser.position);
+            }
+
+            Object object = parser.readObject();
+            if (!(object instanceof Map)) {
+                return object;
+            }
+
+            int afterDictionary = parser.position;
+            Object next = parser.readObject();
+            if (!(next instanceof Keyword) || !((Keyword) next).is("stream")) {
+                parser.position = afterDictionary;
+                return object;
+            }
+
+            // stream data starts after the end of line that follows the stream keyword
+            int start = parser.position;
+            if (start < buffer.limit() && buffer.get(start) == '\r') {
+                start++;
+            }
+            if (start < buffer.limit() && buffer.get(start) == '\n') {
+                start++;
+            }
+            return new Stream(dictionary(object), buffer, start);
+        }
+
+        private Object readCompressedObject(XrefEntry entry, int depth) throws IOException {
+            Parser parser = objectStream(entry.objectStream, depth);
+            int[] offsets = objectStreamOffsets.get(entry.objectStream);
+            if (entry.index >= offsets.length) {
+                throw new IOException("Object stream " + entry.objectStream + " has no object " + entry.index);
+            }
+            parser.position = offsets[entry.index];
+            return parser.readObject();
+        }
+
+        private Parser objectStream(int number, int depth) throws IOException {
+            Parser parser = objectStreams.get(number);
+            if (parser != null) {
+                return parser;
+            }
+
+            XrefEntry entry = xref.get(number);
+            if (entry == null || entry.compressed) {
+                throw new IOException("Invalid object stream " + number);
+            }
+            Object object = readIndirectObject(new Parser(buffer, position(entry.offset)), depth + 1);
+            if (!(object instanceof Stream)) {
+                throw new IOException("Object " + number + " is not a stream");
+            }
+            Stream stream = (Stream) object;
+            int count = number(resolve(stream.dictionary.get("N"), depth + 1)).intValue();
+            int first = number(resolve(stream.dictionary.get("First"), depth + 1)).intValue();
+
+            parser = new Parser(ByteBuffer.wrap(decode(stream, depth + 1)), 0);
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                number(parser.readObject());
+                offsets[i] = first + number(parser.readObject()).intValue();
+            }
+            objectStreams.put(number, parser);
+            objectStreamOffsets.put(number, offsets);
+            return parser;
+        }
+
+        private byte[] decode(Stream stream, int depth) throws IOException {
+            Map<String, Object> dictionary = stream.dictionary;
+            Object length = resolve(dictionary.get("Length"), depth + 1);
+            int size = number(length).intValue();
+            if (size < 0 || stream.start + size > stream.buffer.limit()) {
+                throw new IOException("Invalid stream length " + size);
+            }
+            byte[] raw = new byte[size];
+            stream.buffer.duplicate().position(stream.start).get(raw);
+
+            Object filter = resolve(dictionary.get("Filter"), depth + 1);
+            if (filter instanceof List) {
+                List<?> filters = (List<?>) filter;
+                if (filters.size() > 1) {
+                    throw new IOException("Unsupported filters " + filters);
+                }
+                filter = filters.isEmpty() ? null : filters.get(0);
+            }
+            if (filter == null) {
+                return raw;
+            }
+            if (!"FlateDecode".equals(filter)) {
+                throw new IOException("Unsupported filter " + filter);
+            }
+
+            byte[] inflated = inflate(raw);
+            Object parameters = resolve(dictionary.get("DecodeParms"), depth + 1);
+            if (parameters instanceof List) {
+                List<?> list = (List<?>) parameters;
+                parameters = list.isEmpty() ? null : list.get(0);
+            }
+            return parameters instanceof Map ? unpredict(inflated, dictionary(parameters)) : inflated;
+        }
+
+        private static byte[] inflate(byte[] raw) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(raw);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length * 4);
+                byte[] chunk = new byte[8192];
+                while (!inflater.finished()) {
+                    int read = inflater.inflate(chunk);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        // tolerate streams that are missing their final checksum
+                        break;
+                    }
+                    out.write(chunk, 0, read);
+                }
+                return out.toByteArray();
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid FlateDecode stream", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        /**
+         * Reverse the png predictors used by cross reference and object streams.
+         */
+        private static byte[] unpredict(byte[] data, Map<String, Object> parameters) throws IOException {
+            int predictor = parameters.containsKey("Predictor") ? number(parameters.get("Predictor")).intValue() : 1;
+            if (predictor < 10) {
+                if (predictor == 1) {
+                    return data;
+                }
+                throw new IOException("Unsupported predictor " + predictor);
+            }
+
+            int columns = parameters.containsKey("Columns") ? number(parameters.get("Columns")).intValue() : 1;
+            int colors = parameters.containsKey("Colors") ? number(parameters.get("Colors")).intValue() : 1;
+            int bits = parameters.containsKey("BitsPerComponent")
+                    ? number(parameters.get("BitsPerComponent")).intValue() : 8;
+            int bytesPerPixel = Math.max(1, colors * bits / 8);
+            int rowLength = (columns * colors * bits + 7) / 8;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            byte[] previous = new byte[rowLength];
+            byte[] row = new byte[rowLength];
+            for (int position = 0; position < data.length; position += rowLength + 1) {
+                int type = data[position] & 0xff;
+                int available = Math.min(rowLength, data.length - position - 1);
+                System.arraycopy(data, position + 1, row, 0, available);
+                for (int i = 0; i < rowLength; i++) {
+                    int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xff : 0;
+                    int up = previous[i] & 0xff;
+                    int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xff : 0;
+                    int value = row[i] & 0xff;
+                    switch (type) {
+                        case 0:
+                            break;
+                        case 1:
+                            value += left;
+                            break;
+                        case 2:
+                            value += up;
+                            break;
+                        case 3:
+                            value += (left + up) / 2;
+                            break;
+                        case 4:
+                            value += paeth(left, up, upLeft);
+                            break;
+                        default:
+                            throw new IOException("Unsupported png filter " + type);
+                    }
+                    row[i] = (byte) value;
+                }
+                out.write(row, 0, rowLength);
+                byte[] swap = previous;
+                previous = row;
+                row = swap;
+            }
+            return out.toByteArray();
+        }
+
+        private static int paeth(int left, int up, int upLeft) {
+            int estimate = left + up - upLeft;
+            int distanceLeft = Math.abs(estimate - left);
+            int distanceUp = Math.abs(estimate - up);
+            int distanceUpLeft = Math.abs(estimate - upLeft);
+            if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+                return left;
+            }
+            return distanceUp <= distanceUpLeft ? up : upLeft;
+        }
+
+        private int position(long offset) throws IOException {
+            long position = offset + headerOffset;
+            if (offset < 0 || position >= buffer.limit()) {
+                throw new IOException("Offset " + offset + " is outside the file");
+            }
+            return (int) position;
+        }
+    }
+
+    /**
+     * Tokeniser for pdf objects.  Strings are read but their contents are not decoded since they are not needed.
+     */
+    static class Parser {
+
+        final ByteBuffer buffer;
+
+        int position;
+
+        Parser(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        Object readObject() throws IOException {
+            skipWhitespace();
+            if (position >= buffer.limit()) {
+                throw new IOException("Unexpected end of pdf");
+            }
+
+            int c = peek();
+            if (c == '<') {
+                if (peek(1) == '<') {
+                    position += 2;
+                    return readDictionary();
+                }
+                skipPast('>');
+                return new byte[0];
+            }
+            if (c == '[') {
+                position++;
+                return readArray();
+            }
+            if (c == '(') {
+                skipString();
+                return new byte[0];
+            }
+            if (c == '/') {
+                position++;
+                return readToken();
+            }
+            if (isNumberStart(c)) {
+                return readNumberOrRef();
+            }
+            if (isDelimiter(c)) {
+                // stray delimiter such as ] or >, returned as a keyword so that callers can detect it
+                position++;
+                return new Keyword(String.valueOf((char) c));
+            }
+
+            String keyword = readToken();
+            switch (keyword) {
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                default:
+                    return new Keyword(keyword);
+            }
+        }
+
+        private Map<String, Object> readDictionary() throws IOException {
+            Map<String, Object> dictionary = new LinkedHashMap<>();
+            while (true) {
+                skipWhitespace();
+                if (peek() == '>' && peek(1) == '>') {
+                    position += 2;
+                    return dictionary;
+                }
+                if (peek() != '/') {
+                    throw new IOException("Expected name in dictionary at " + position);
+                }
+                position++;
+                String key = readToken();
+                Object value = readObject();
+                if (!(value instanceof Keyword && ((Keyword) value).is("null"))) {
+                    dictionary.put(key, value);
+                }
+            }
+        }
+
+        private List<Object> readArray() throws IOException {
+            List<Object> array = new ArrayList<>();
+            while (true) {
+                skipWhitespace();
+                if (peek() == ']') {
+                    position++;
+                    return array;
+                }
+                array.add(readObject());
+            }
+        }
+
+        private Object readNumberOrRef() throws IOException {
+            Number number = readNumber();
+            if (!(number instanceof Long)) {
+                return number;
+            }
+
+            // an integer followed by another integer and R is an indirect reference
+            int afterNumber = position;
+            skipWhitespace();
+            if (position < buffer.limit() && Character.isDigit(peek())) {
+                Number generation = readNumber();
+                skipWhitespace();
+                if (generation instanceof Long && position < buffer.limit() && peek() == 'R'
+                        && (position + 1 >= buffer.limit() || isTerminator(peek(1)))) {
+                    position++;
+                    return new Ref(number.intValue());
+                }
+            }
+            position = afterNumber;
+            return number;
+        }
+
+        private Number readNumber() throws IOException {
+            String token = readToken();
+            try {
+                if (token.indexOf('.') >= 0) {
+                    return Double.parseDouble(token);
+                }
+                return Long.parseLong(token.startsWith("+") ? token.substring(1) : token);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number " + token, e);
+            }
+        }
+
+        private String readToken() {
+            int start = position;
+            while (position < buffer.limit() && !isTerminator(peek())) {
+                position++;
+            }
+            byte[] bytes = new byte[position - start];
+            buffer.duplicate().position(start).get(bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        private void skipString() throws IOException {
+            int depth = 0;
+            while (position < buffer.limit()) {
+                int c = peek();
+                position++;
+                if (c == '\\') {
+                    position++;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return;
+                }
+            }
+            throw new IOException("Unterminated string");
+        }
+
+        private void skipPast(char c) throws IOException {
+            while (position < buffer.limit()) {
+                if (peek() == c) {
+                    position++;
+                    return;
+                }
+                position++;
+            }
+            throw new IOException("Expected " + c);
+        }
+
+        void skipWhitespace() {
+            while (position < buffer.limit()) {
+                int c = peek();
+                if (c == '%') {
+                    while (position < buffer.limit() && peek() != '\r' && peek() != '\n') {
+                        position++;
+                    }
+                } else if (isWhitespace(c)) {
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        boolean startsWith(String keyword) {
+            if (position + keyword.length() > buffer.limit()) {
+                return false;
+            }
+            for (int i = 0; i < keyword.length(); i++) {
+                if (peek(i) != keyword.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void skip(int count) {
+            position += count;
+        }
+
+        private int peek() {
+            return buffer.get(position) & 0xff;
+        }
+
+        private int peek(int offset) {
+            int at = position + offset;
+            return at < buffer.limit() ? buffer.get(at) & 0xff : -1;
+        }
+
+        private static boolean isNumberStart(int c) {
+            return Character.isDigit(c) || c == '+' || c == '-' || c == '.';
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == 0 || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == ' ';
+        }
+
+        private static boolean isDelimiter(int c) {
+            return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']'
+                    || c == '{' || c == '}' || c == '/' || c == '%';
+        }
+
+        private static boolean isTerminator(int c) {
+            return c == -1 || isWhitespace(c) || isDelimiter(c);
+        }
+    }
+
+    private static Number number(Object object) throws IOException {
+        if (!(object instanceof Number)) {
+            throw new IOException("Expected number but was " + describe(object));
+        }
+        return (Number) object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> dictionary(Object object) throws IOException {
+        if (object instanceof Stream) {
+            return ((Stream) object).dictionary;
+        }
+        if (!(object instanceof Map)) {
+            throw new IOException("Expected dictionary but was " + describe(object));
+        }
+        return (Map<String, Object>) object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Object object) throws IOException {
+        if (!(object instanceof List)) {
+            throw new IOException("Expected array but was " + describe(object));
+        }
+        return (List<Object>) object;
+    }
+
+    private static String describe(Object object) {
+        if (object instanceof Keyword) {
+            return ((Keyword) object).value;
+        }
+        return object == null ? "missing" : object.getClass().getSimpleName();
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] target, int from, int to) {
+        for (int i = from; i + target.length <= to; i++) {
+            if (matches(buffer, target, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte[] target, int from, int to) {
+        for (int i = to - target.length; i >= from; i--) {
+            if (matches(buffer, target, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer buffer, byte[] target, int at) {
+        for (int j = 0; j < target.length; j++) {
+            if (buffer.get(at + j) != target[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package scot.gov.publications.util;
+
+/**
+ * The exit code and output of an external process run by ProcessRunner.
+ */
+public class ProcessResult {
+
+    private final int exitCode;
+
+    private final String output;
+
+    private final String error;
+
+    public ProcessResult(int exitCode, String output, String error) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.error = error;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+}
@@ -0,0 +1,219 @@
+package scot.gov.publications.util;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scot.gov.publications.PublicationsConfiguration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs external tools such as graphicsmagick and exiftool.
+ *
+ * The number of processes running at once is limited, by default to the number of processors, so that a large
+ * publication cannot start more processes than the machine can run.  The output and error streams of every process
+ * are read by a shared pool of threads so that a process can never block writing to a full pipe, and a process that
+ * runs for longer than the timeout is killed.  The timeout starts once the process has a permit to run; the wait for
+ * a permit has its own limit.  The number of runs, failures, timeouts and the time taken are recorded
+ * for each tool.
+ */
+@Singleton
+public class ProcessRunner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessRunner.class);
+
+    @Inject
+    PublicationsConfiguration configuration;
+
+    private final ExecutorService pumps = Executors.newCachedThreadPool(daemonThreads());
+
+    private final Map<String, ToolMetrics> metrics = new TreeMap<>();
+
+    private Semaphore permits;
+
+    @Inject
+    public ProcessRunner() {
+        // default constructor for injection
+    }
+
+    public ProcessRunner(PublicationsConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Run a command using the configured timeout.
+     *
+     * @param tool name the metrics for this command are recorded against
+     * @param command the command and its arguments
+     * @return the exit code and output of the process
+     * @throws IOException if the process could not be started, or was killed because it ran for too long
+     * @throws InterruptedException if interrupted while waiting for the process
+     */
+    public ProcessResult run(String tool, List<String> command) throws IOException, InterruptedException {
+        return run(tool, command, Duration.ofSeconds(configuration.getProcesses().getTimeout()));
+    }
+
+    public ProcessResult run(String tool, List<String> command, Duration timeout)
+            throws IOException, InterruptedException {
+
+        // waiting for a permit is bounded separately, so that time spent queued behind other processes does not
+        // count against the time this process is allowed to run for
+        long permitTimeout = TimeUnit.SECONDS.toNanos(configuration.getProcesses().getPermitTimeout());
+        if (!permits().tryAcquire(permitTimeout, TimeUnit.NANOSECONDS)) {
+            record(tool, 0, false, true);
+            throw new IOException(String.format("Timed out waiting to run %s", tool));
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        boolean ok = false;
+        boolean timedOut = false;
+        try {
+            ProcessResult result = execute(command, deadline);
+            ok = result.isSuccess();
+            return result;
+        } catch (TimeoutException e) {
+            timedOut = true;
+            throw new IOException(String.format("%s did not finish within %s: %s",
+                    tool, timeout, String.join(" ", command)), e);
+        } finally {
+            permits.release();
+            record(tool, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), ok, timedOut);
+        }
+    }
+
+    /**
+     * Runs, failures, timeouts and timings for each tool, keyed by tool name.
+     */
+    public synchronized Map<String, Map<String, Number>> metrics() {
+        Map<String, Map<String, Number>> result = new LinkedHashMap<>();
+        metrics.forEach((tool, toolMetrics) -> result.put(tool, toolMetrics.toMap()));
+        return result;
+    }
+
+    private ProcessResult execute(List<String> command, long deadline)
+            throws IOException, InterruptedException, TimeoutException {
+
+        Process process = new ProcessBuilder(command).start();
+        try {
+            process.getOutputStream().close();
+            Future<String> output = pumps.submit(read(process.getInputStream()));
+            Future<String> error = pumps.submit(read(process.getErrorStream()));
+
+            if (!process.waitFor(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException();
+            }
+
+            return new ProcessResult(
+                    process.exitValue(),
+                    get(output, deadline),
+                    get(error, deadline));
+        } finally {
+            if (process.isAlive()) {
+                LOG.warn("Killing process {}", String.join(" ", command));
+                // kill children first, e.g. the ghostscript that gm runs for a pdf, since they are reparented once
+                // the process itself is killed
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private static String get(Future<String> future, long deadline)
+            throws IOException, InterruptedException, TimeoutException {
+        try {
+            // the streams are closed once the process exits, so this only waits if a child process holds them open
+            return future.get(remaining(deadline), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Callable<String> read(InputStream stream) {
+        return () -> {
+            try (InputStream in = stream) {
+                return IOUtils.toString(in, UTF_8);
+            }
+        };
+    }
+
+    private synchronized Semaphore permits() {
+        if (permits == null) {
+            int concurrency = configuration.getProcesses().getConcurrency();
+            if (concurrency <= 0) {
+                concurrency = Runtime.getRuntime().availableProcessors();
+            }
+            permits = new Semaphore(concurrency, true);
+        }
+        return permits;
+    }
+
+    synchronized void record(String tool, long millis, boolean ok, boolean timedOut) {
+        ToolMetrics toolMetrics = metrics.computeIfAbsent(tool, k -> new ToolMetrics());
+        toolMetrics.runs++;
+        toolMetrics.totalMillis += millis;
+        toolMetrics.maxMillis = Math.max(toolMetrics.maxMillis, millis);
+        if (!ok) {
+            toolMetrics.failures++;
+        }
+        if (timedOut) {
+            toolMetrics.timeouts++;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "process-output-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class ToolMetrics {
+
+        long runs;
+
+        long failures;
+
+        long timeouts;
+
+        long totalMillis;
+
+        long maxMillis;
+
+        Map<String, Number> toMap() {
+            Map<String, Number> map = new LinkedHashMap<>();
+            map.put("runs", runs);
+            map.put("failures", failures);
+            map.put("timeouts", timeouts);
+            map.put("meanMillis", runs == 0 ? 0 : totalMillis / runs);
+            map.put("maxMillis", maxMillis);
+            return map;
+        }
+    }
+}
@@ -22,21 +22,28 @@ public class ZipUtil {
      * then extract the nested zip.  If the file is not nested then just return the original file.
      */
     public File getZipToProcess(File file) throws IOException {
-        ZipFile zipFile = new ZipFile(file);
-        List<ZipEntry> zipEntries = zipFile.stream()
-                .filter(ZipEntryUtil::isZip)
-                .filter(entry -> !entry.getName().startsWith("__MACOSX/"))
-                .collect(toList());
-
-        if (zipEntries.isEmpty()) {
-            return file;
-        }
+        try (ZipFile zipFile = new ZipFile(file)) {
+            List<ZipEntry> zipEntries = zipFile.stream()
+                    .filter(ZipUtil::isNestedZip)
+                    .collect(toList());
+
+            if (zipEntries.isEmpty()) {
+                return file;
+            }
+
+            if (zipEntries.size() > 1) {
+                throw new IllegalArgumentException("More than one zip in the zip!");
+            }
 
-        if (zipEntries.size() > 1) {
-            throw new IllegalArgumentException("More than one zip in the zip!");
+            ZipEntry entry = zipEntries.get(0);
+            return fileUtil.createTempFile("extractedFromZip", "zip", zipFile.getInputStream(entry));
         }
+    }
 
-        ZipEntry entry = zipEntries.get(0);
-        return fileUtil.createTempFile("extractedFromZip", "zip", zipFile.getInputStream(entry));
+    /**
+     * Is this entry a zip nested inside the uploaded zip (ignoring any resource forks added by macOS)?
+     */
+    public static boolean isNestedZip(ZipEntry entry) {
+        return ZipEntryUtil.isZip(entry) && !entry.getName().startsWith("__MACOSX/");
     }
 }
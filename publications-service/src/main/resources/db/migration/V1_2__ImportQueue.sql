@@ -0,0 +1,5 @@
+ALTER TABLE publication ADD COLUMN claimedby CHARACTER VARYING(255);
+
+ALTER TABLE publication ADD COLUMN claimeddate timestamp;
+
+CREATE INDEX publication_state_idx ON publication (state, createddate);
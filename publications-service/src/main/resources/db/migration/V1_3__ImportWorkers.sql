@@ -0,0 +1,10 @@
+CREATE TABLE importlock
+(
+  id integer NOT NULL,
+
+  CONSTRAINT importlock_pkey PRIMARY KEY (id)
+);
+
+INSERT INTO importlock (id) VALUES (1);
+
+CREATE INDEX publication_isbn_idx ON publication (isbn);
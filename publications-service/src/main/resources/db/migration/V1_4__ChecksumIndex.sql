@@ -0,0 +1 @@
+CREATE INDEX publication_checksum_idx ON publication (checksum);
@@ -0,0 +1 @@
+CREATE INDEX publication_state_modified_idx ON publication (state, lastmodifieddate);
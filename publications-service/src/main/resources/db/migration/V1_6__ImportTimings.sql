@@ -0,0 +1,11 @@
+CREATE TABLE importphase
+(
+  publicationid character varying(255) NOT NULL,
+  seq integer NOT NULL,
+  phase character varying(50) NOT NULL,
+  durationms bigint NOT NULL,
+  bytes bigint,
+  entries integer,
+
+  CONSTRAINT importphase_pkey PRIMARY KEY (publicationid, seq)
+);
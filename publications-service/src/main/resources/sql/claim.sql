@@ -0,0 +1,9 @@
+SELECT id FROM publication p
+WHERE p.state = 'PENDING'
+AND NOT EXISTS (
+  SELECT 1 FROM publication q
+  WHERE q.state = 'PROCESSING'
+  AND (q.isbn = p.isbn OR LOWER(q.title) = LOWER(p.title)))
+ORDER BY p.createddate
+LIMIT 1
+FOR UPDATE SKIP LOCKED
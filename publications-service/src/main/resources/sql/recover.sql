@@ -0,0 +1,7 @@
+UPDATE publication SET
+  state = 'PENDING',
+  claimedby = NULL,
+  claimeddate = NULL,
+  lastmodifieddate = ?
+  WHERE state = 'PROCESSING'
+  AND (claimedby IS NULL OR claimedby = ? OR claimeddate < ?)
@@ -14,10 +14,14 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scot.gov.jcr.TestRepository;
+import scot.gov.publications.hippo.HippoPaths;
 import scot.gov.publications.hippo.HippoUtils;
+import scot.gov.publications.hippo.PublicationNodeUpdater;
+import scot.gov.publications.hippo.ReferenceDataIndex;
 import scot.gov.publications.hippo.ZipFixtures;
 import scot.gov.publications.imageprocessing.ImageProcessing;
 import scot.gov.publications.imageprocessing.ImageProcessingException;
+import scot.gov.publications.imageprocessing.Java2DImageProcessingImpl;
 import scot.gov.publications.manifest.Manifest;
 import scot.gov.publications.manifest.ManifestEntry;
 import scot.gov.publications.manifest.ManifestParser;
@@ -26,6 +30,7 @@ import scot.gov.publications.metadata.Metadata;
 import scot.gov.publications.metadata.MetadataParser;
 import scot.gov.publications.metadata.MetadataParserException;
 import scot.gov.publications.metadata.MetadataWrapper;
+import scot.gov.publications.prepare.AssetPreparer;
 import scot.gov.publications.repo.Publication;
 
 import javax.jcr.*;
@@ -34,6 +39,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
@@ -65,14 +71,14 @@ public class ApsZipImporterTest {
         objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
         objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
         sut = new ApsZipImporter();
-        sut.imageProcessing = fakeImageProcessing();
-        sut.exif = (binary, mime) -> 100;
+        sut.assetPreparer = new AssetPreparer(fakeImageProcessing(), (in, mime) -> 100);
 
         // get a session with the test repository
         session = TestRepository.session();
         sut.sessionFactory = () -> TestRepository.session();
         sut.configuration = new PublicationsConfiguration();
         sut.configuration.getHippo().setUser("testuser");
+        sut.referenceData = new ReferenceDataIndex(sut.configuration, Clock.systemDefaultZone());
 
 
     }
@@ -434,6 +440,52 @@ public class ApsZipImporterTest {
         }
     }
 
+    /**
+     * An import that saves checkpoints should remove what it has saved if it fails.
+     */
+    @Test
+    public void failedCheckpointedImportRemovesSavedCheckpoints() throws Exception {
+        // ARRANGE - save after every item and add an entry that will fail once the images have been saved
+        sut.configuration.getHippo().setCheckpointSize(1);
+        Path fixturePath = ZipFixtures.copyFixture("failedCheckpointedImportRemovesSavedCheckpoints");
+        Metadata metadata = loadMetadata(fixturePath);
+        metadata.setIsbn("failedCheckpointedImportRemovesSavedCheckpoints");
+        saveMetadata(metadata, fixturePath);
+        Manifest manifest = loadManifest(fixturePath);
+        manifest.getEntries().add(new ManifestEntry("nosuchfile.pdf", "No such file"));
+        saveManifest(manifest, fixturePath);
+
+        // ACT
+        try {
+            sut.importApsZip(ZipFixtures.zipDirectory(fixturePath), new Publication());
+            fail("An exception should have been thrown");
+        } catch (ApsZipImporterException e) {
+            // expected
+        }
+
+        // ASSERT - nothing from the import is left in the repository
+        session.refresh(false);
+        assertNull(new PublicationNodeUpdater(session, sut.configuration).findPublicationNodeToUpdate(metadata));
+    }
+
+    /**
+     * A checkpointed import should produce the same publication as one that saves once.
+     */
+    @Test
+    public void canImportExampleZipWithCheckpoints() throws Exception {
+        // ARRANGE
+        sut.configuration.getHippo().setCheckpointSize(2);
+
+        // ACT
+        String path = sut.importApsZip(ZipFixtures.exampleZip(), new Publication());
+
+        // ASSERT
+        Node publicationFolder = session.getNode(path);
+        assertEquals(17, publicationFolder.getNode("pages").getNodes().getSize());
+        assertEquals(1, publicationFolder.getNode("documents").getNodes().getSize());
+        assertFalse(session.hasPendingChanges());
+    }
+
     /**
      * Rejects unrecognised file types
      *
@@ -555,6 +607,153 @@ public class ApsZipImporterTest {
         assertEquals(1, documentsFolder.getNodes().getSize());
     }
 
+    /**
+     * Re-importing a publication where only one page has changed should only rewrite that page.
+     */
+    @Test
+    public void reimportOnlyRewritesChangedPages() throws Exception {
+        // ARRANGE - import a publication
+        Path fixturePath = ZipFixtures.copyFixture("reimportOnlyRewritesChangedPages");
+        Metadata metadata = loadMetadata(fixturePath);
+        metadata.setIsbn("reimportOnlyRewritesChangedPages");
+        saveMetadata(metadata, fixturePath);
+        Publication publication = new Publication();
+        String path = sut.importApsZip(ZipFixtures.zipDirectory(fixturePath), publication);
+        Node pages = session.getNode(path + "/pages");
+        String unchangedPage = pages.getNode("1/1").getIdentifier();
+        String changedPage = pages.getNode("2/2").getIdentifier();
+        String changedPageHandle = pages.getNode("2").getIdentifier();
+        Node documents = session.getNode(path + "/documents");
+        List<String> documentHandles = new ArrayList<>();
+        documents.getNodes().forEachRemaining(handle -> documentHandles.add(((Node) handle).getName()));
+        String document = documents.getNodes().nextNode().getIdentifier();
+
+        // correct the text of one page
+        File pageFile = fixturePath.resolve("SCT12181804281-02.htm").toFile();
+        String html = FileUtils.readFileToString(pageFile, "UTF-8");
+        FileUtils.write(pageFile, html.replace("<div class=\"mainText\">", "<div class=\"mainText\"><p>Corrected</p>"), "UTF-8");
+
+        // ACT
+        sut.importApsZip(ZipFixtures.zipDirectory(fixturePath), publication);
+
+        // ASSERT - only the changed page has been written, the handle is kept so that links to it still work
+        session.refresh(false);
+        pages = session.getNode(path + "/pages");
+        assertEquals(unchangedPage, pages.getNode("1/1").getIdentifier());
+        assertNotEquals(changedPage, pages.getNode("2/2").getIdentifier());
+        assertEquals(changedPageHandle, pages.getNode("2").getIdentifier());
+        assertTrue(pages.getNode("2/2/govscot:content").getProperty("hippostd:content").getString().contains("Corrected"));
+
+        // the documents have not changed and are still in the same order
+        documents = session.getNode(path + "/documents");
+        assertEquals(document, documents.getNodes().nextNode().getIdentifier());
+        List<String> reimportedHandles = new ArrayList<>();
+        documents.getNodes().forEachRemaining(handle -> reimportedHandles.add(((Node) handle).getName()));
+        assertEquals(documentHandles, reimportedHandles);
+    }
+
+    /**
+     * A document that has been retitled but whose content has not changed should reuse the binary, page count and
+     * thumbnails of the existing document rather than preparing them again.
+     */
+    @Test
+    public void retitledDocumentReusesExistingContent() throws Exception {
+        // ARRANGE - import a publication
+        Path fixturePath = ZipFixtures.copyFixture("retitledDocumentReusesExistingContent");
+        Metadata metadata = loadMetadata(fixturePath);
+        metadata.setIsbn("retitledDocumentReusesExistingContent");
+        saveMetadata(metadata, fixturePath);
+        Publication publication = new Publication();
+        String path = sut.importApsZip(ZipFixtures.zipDirectory(fixturePath), publication);
+        Node original = variantWithSuffix(session.getNode(path + "/documents"), ".pdf");
+        String originalId = original.getIdentifier();
+        byte[] originalData = IOUtils.toByteArray(
+                original.getNode("govscot:document").getProperty("jcr:data").getBinary().getStream());
+        Map<String, byte[]> originalThumbnails = thumbnailsBySuffix(original);
+
+        // retitle the pdf, and count pages differently so that we can tell if it is prepared again
+        File manifestFile = fixturePath.resolve("manifest.txt").toFile();
+        String manifest = FileUtils.readFileToString(manifestFile, "UTF-8");
+        FileUtils.write(manifestFile,
+                manifest.replace("Homelessness in Scotland: Bi-annual update", "Retitled homelessness statistics"),
+                "UTF-8");
+        sut.assetPreparer = new AssetPreparer(fakeImageProcessing(), (in, mime) -> 7);
+
+        // ACT
+        sut.importApsZip(ZipFixtures.zipDirectory(fixturePath), publication);
+
+        // ASSERT
+        session.refresh(false);
+        Node retitled = variantWithSuffix(session.getNode(path + "/documents"), ".pdf");
+        Node document = retitled.getNode("govscot:document");
+        assertTrue(document.getProperty("hippo:filename").getString().startsWith("retitled-homelessness-statistics"));
+        assertNotEquals(originalId, retitled.getIdentifier());
+        assertEquals(100, retitled.getProperty("govscot:pageCount").getLong());
+        assertArrayEquals(originalData, IOUtils.toByteArray(document.getProperty("jcr:data").getBinary().getStream()));
+        Map<String, byte[]> thumbnails = thumbnailsBySuffix(retitled);
+        assertFalse(thumbnails.isEmpty());
+        assertEquals(originalThumbnails.keySet(), thumbnails.keySet());
+        for (Map.Entry<String, byte[]> thumbnail : originalThumbnails.entrySet()) {
+            assertArrayEquals(thumbnail.getValue(), thumbnails.get(thumbnail.getKey()));
+        }
+    }
+
+    /**
+     * ImageIO fails to decode CMYK jpegs with an embedded colour profile, so their thumbnails have to come from the
+     * fallback image processing rather than failing the import.
+     */
+    @Test
+    public void importsImageImageIOFailsToDecode() throws Exception {
+        // ARRANGE
+        Path fixturePath = ZipFixtures.copyFixture("importsImageImageIOFailsToDecode");
+        Metadata metadata = loadMetadata(fixturePath);
+        metadata.setIsbn("importsImageImageIOFailsToDecode");
+        saveMetadata(metadata, fixturePath);
+        Files.copy(ApsZipImporterTest.class.getResourceAsStream("/examplecmyk.jpg"),
+                fixturePath.resolve("examplecmyk.jpg"));
+        sut.assetPreparer = new AssetPreparer(
+                new Java2DImageProcessingImpl(fakeImageProcessing()), (in, mime) -> 100);
+
+        // ACT
+        String path = sut.importApsZip(ZipFixtures.zipDirectory(fixturePath), new Publication());
+
+        // ASSERT
+        String galleryPath = HippoPaths.IMG_ROOT + StringUtils.substringAfter(path, "/content/documents/govscot/");
+        Node imageSet = session.getNode(galleryPath + "/examplecmyk.jpg/examplecmyk.jpg");
+        Node original = imageSet.getNode("hippogallery:original");
+        assertEquals(64, original.getProperty("hippogallery:width").getLong());
+        assertEquals(48, original.getProperty("hippogallery:height").getLong());
+        assertTrue(imageSet.hasNode("hippogallery:thumbnail"));
+    }
+
+    Node variantWithSuffix(Node documents, String suffix) throws RepositoryException {
+        NodeIterator it = documents.getNodes();
+        while (it.hasNext()) {
+            Node variant = it.nextNode().getNodes().nextNode();
+            if (variant.getNode("govscot:document").getProperty("hippo:filename").getString().endsWith(suffix)) {
+                return variant;
+            }
+        }
+        throw new AssertionError("No document ending with " + suffix);
+    }
+
+    /**
+     * The thumbnails of a document, keyed by the part of their filename after the document filename.
+     */
+    Map<String, byte[]> thumbnailsBySuffix(Node variant) throws Exception {
+        String filename = variant.getNode("govscot:document").getProperty("hippo:filename").getString();
+        Map<String, byte[]> thumbnails = new HashMap<>();
+        NodeIterator it = variant.getNodes("govscot:thumbnails");
+        while (it.hasNext()) {
+            Node thumbnail = it.nextNode();
+            String thumbnailFilename = thumbnail.getProperty("hippo:filename").getString();
+            thumbnails.put(
+                    StringUtils.removeStart(thumbnailFilename, filename),
+                    IOUtils.toByteArray(thumbnail.getProperty("jcr:data").getBinary().getStream()));
+        }
+        return thumbnails;
+    }
+
     @Test
     public void canImportWithUpdate() throws Exception {
 
@@ -1059,10 +1258,8 @@ public class ApsZipImporterTest {
 
             private File tmpFile() throws ImageProcessingException {
                 try {
-                    Path tmpDir = ZipFixtures.fixturesDirectory();
-                    if (!Files.exists(tmpDir)) {
-                        Files.createDirectory(tmpDir);
-                    }
+                    // documents and images are prepared in parallel, so more than one thread may get here at once
+                    Path tmpDir = Files.createDirectories(ZipFixtures.fixturesDirectory());
                     File imageFile = File.createTempFile("coverImageBlah", ".jpeg", tmpDir.toFile());
                     IOUtils.copy(
                             ApsZipImporterTest.class.getResourceAsStream("/exampleImage.jpeg"),
@@ -0,0 +1,138 @@
+package scot.gov.publications.hippo;
+
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HippoSessionFactoryTest {
+
+    HippoSessionFactory sut;
+
+    List<Session> logins = new ArrayList<>();
+
+    Instant now = Instant.parse("2024-01-01T12:00:00Z");
+
+    @Before
+    public void setup() {
+        sut = new HippoSessionFactory() {
+            @Override
+            Session login() {
+                Session session = mock(Session.class);
+                when(session.isLive()).thenReturn(true);
+                logins.add(session);
+                return session;
+            }
+        };
+        sut.configuration = new PublicationsConfiguration();
+        sut.configuration.getHippo().setPoolSize(2);
+        sut.configuration.getHippo().setPoolTimeout(0);
+        sut.configuration.getHippo().setIdleTimeout(10);
+        sut.clock = Clock.fixed(now, ZoneId.systemDefault());
+    }
+
+    @Test
+    public void releasedSessionIsReused() throws Exception {
+        // ARRANGE
+        Session first = sut.newSession();
+        sut.release(first);
+
+        // ACT
+        Session second = sut.newSession();
+
+        // ASSERT
+        assertSame(first, second);
+        assertEquals(1, logins.size());
+        verify(first).refresh(false);
+        verify(first, never()).logout();
+    }
+
+    @Test
+    public void sessionThatIsNoLongerLiveIsReplaced() throws Exception {
+        // ARRANGE
+        Session first = sut.newSession();
+        sut.release(first);
+        when(first.isLive()).thenReturn(false);
+
+        // ACT
+        Session second = sut.newSession();
+
+        // ASSERT
+        assertNotSame(first, second);
+        verify(first).logout();
+    }
+
+    @Test
+    public void sessionIdleForAWhileIsCheckedAgainstTheRepository() throws Exception {
+        // ARRANGE
+        Session first = sut.newSession();
+        sut.release(first);
+        when(first.itemExists(HippoPaths.ROOT)).thenThrow(new RepositoryException("arg"));
+        sut.clock = Clock.fixed(now.plus(Duration.ofMinutes(1)), ZoneId.systemDefault());
+
+        // ACT
+        Session second = sut.newSession();
+
+        // ASSERT
+        assertNotSame(first, second);
+        verify(first).logout();
+    }
+
+    @Test
+    public void idleSessionsAreEvicted() throws Exception {
+        // ARRANGE
+        Session first = sut.newSession();
+        sut.release(first);
+        sut.clock = Clock.fixed(now.plus(Duration.ofMinutes(11)), ZoneId.systemDefault());
+
+        // ACT
+        Session second = sut.newSession();
+
+        // ASSERT
+        assertNotSame(first, second);
+        verify(first).logout();
+        assertEquals(1, sut.metrics().get("size").intValue());
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void exceptionThrownIfPoolIsExhausted() throws Exception {
+        // ARRANGE
+        sut.newSession();
+        sut.newSession();
+
+        // ACT
+        sut.newSession();
+
+        // ASSERT -- see expected exception
+    }
+
+    @Test
+    public void sessionsAreNotPooledIfPoolSizeIsZero() throws Exception {
+        // ARRANGE
+        sut.configuration.getHippo().setPoolSize(0);
+        Session first = sut.newSession();
+
+        // ACT
+        sut.release(first);
+
+        // ASSERT
+        verify(first).logout();
+        assertNotSame(first, sut.newSession());
+    }
+}
@@ -3,7 +3,7 @@ package scot.gov.publications.hippo;
 import org.junit.Test;
 import org.mockito.Mockito;
 import scot.gov.publications.ApsZipImporterException;
-import scot.gov.publications.imageprocessing.ImageProcessing;
+import scot.gov.publications.prepare.PreparedAssets;
 
 
 import javax.jcr.Node;
@@ -25,13 +25,13 @@ public class ImageUploaderTest {
     public void repoExceptionRethrownAsApsZipImporterException() throws Exception {
         // ARRANGE
         Session session = mock(Session.class);
-        ImageUploader sut = new ImageUploader(session, mock(ImageProcessing.class));
+        ImageUploader sut = new ImageUploader(session);
 
         sut.hippoUtils = mock(HippoUtils.class);
         when(sut.hippoUtils.pathFromNode(any())).thenThrow(new RepositoryException("arg"));
 
         // ACT
-        sut.createImages(mock(ZipFile.class), mock(Node.class));
+        sut.createImages(mock(ZipFile.class), mock(Node.class), new PreparedAssets());
 
         // ASSERT -- see epxected
     }
@@ -41,7 +41,7 @@ public class ImageUploaderTest {
 
         ZipFile zipFile = ZipFixtures.exampleZip();
         Session session = mock(Session.class);
-        ImageUploader sut = new ImageUploader(session, mock(ImageProcessing.class));
+        ImageUploader sut = new ImageUploader(session);
         Node node = mock(Node.class);
         Node pubFolder = Mockito.mock(Node.class);
         Node imgSetNode = Mockito.mock(Node.class);
@@ -54,7 +54,7 @@ public class ImageUploaderTest {
         when(sut.hippoUtils.pathFromNode(any())).thenReturn(singletonList("path"));
         when(sut.hippoPaths.ensureImagePath(any())).thenReturn(node);
         when(imgSetNode.getParent()).thenReturn(imgGalleryNode);
-        when(sut.imageNodeFactory.ensureImageSetNodeExists(any(), any(), any(), any(), any())).thenReturn(imgSetNode);
+        when(sut.imageNodeFactory.ensureImageSetNodeExists(any(), any(), any(), any(), any(), any())).thenReturn(imgSetNode);
 
         Set<String> expectedFilenames = new HashSet<>();
         Collections.addAll(expectedFilenames,
@@ -66,7 +66,7 @@ public class ImageUploaderTest {
                 "SCT04185156361_g06.gif");
 
         // ACT
-        Map<String, String> actual = sut.createImages(zipFile, pubFolder);
+        Map<String, String> actual = sut.createImages(zipFile, pubFolder, new PreparedAssets());
 
         // ARRANGE
         assertEquals(actual.keySet(), expectedFilenames);
@@ -0,0 +1,116 @@
+package scot.gov.publications.hippo;
+
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PreparedQueriesTest {
+
+    @Test
+    public void queryIsParsedOnceAndValuesAreBound() throws Exception {
+        // ARRANGE
+        Session session = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        ValueFactory valueFactory = mock(ValueFactory.class);
+        Value one = mock(Value.class);
+        Value two = mock(Value.class);
+        Query query = mock(Query.class);
+        QueryResult result = mock(QueryResult.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(valueFactory);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(valueFactory.createValue("one")).thenReturn(one);
+        when(valueFactory.createValue("two")).thenReturn(two);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenAnswer(invocation -> HippoUtilsTest.iterator(Collections.emptyList()));
+        PreparedQueries sut = new PreparedQueries(session);
+        String statement = "SELECT * FROM [govscot:Publication] WHERE [govscot:isbn] = $isbn";
+
+        // ACT
+        sut.findOne(statement, Collections.singletonMap("isbn", "one"));
+        sut.findOne(statement, Collections.singletonMap("isbn", "two"));
+
+        // ASSERT
+        verify(queryManager, times(1)).createQuery(statement, Query.JCR_SQL2);
+        verify(query).bindValue("isbn", one);
+        verify(query).bindValue("isbn", two);
+        verify(query, times(2)).execute();
+    }
+
+    @Test
+    public void findOneReturnsNullIfMoreThanOneResult() throws Exception {
+        // ARRANGE
+        Session session = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult result = mock(QueryResult.class);
+        Node node = mock(Node.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(mock(ValueFactory.class));
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenAnswer(invocation -> HippoUtilsTest.iterator(Arrays.asList(node, node)));
+        PreparedQueries sut = new PreparedQueries(session);
+
+        // ACT
+        Node actual = sut.findOne("SELECT * FROM [nt:base]", Collections.emptyMap());
+        Node first = sut.findFirst("SELECT * FROM [nt:base]", Collections.emptyMap());
+
+        // ASSERT
+        assertNull(actual);
+        assertSame(node, first);
+    }
+
+    @Test
+    public void findOneWithSelectorReturnsNodeFromOnlyRow() throws Exception {
+        // ARRANGE
+        Session session = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult result = mock(QueryResult.class);
+        RowIterator rows = mock(RowIterator.class);
+        Row row = mock(Row.class);
+        Node node = mock(Node.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(mock(ValueFactory.class));
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getRows()).thenReturn(rows);
+        when(rows.hasNext()).thenReturn(true, false);
+        when(rows.nextRow()).thenReturn(row);
+        when(row.getNode("d")).thenReturn(node);
+        PreparedQueries sut = new PreparedQueries(session);
+
+        // ACT
+        Node actual = sut.findOne("SELECT d.* FROM [nt:base] AS d INNER JOIN [nt:base] AS f ON ISCHILDNODE(d, f)",
+                "d", Collections.emptyMap());
+
+        // ASSERT
+        assertSame(node, actual);
+    }
+}
@@ -17,6 +17,7 @@ import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
 
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.*;
 import static scot.gov.publications.hippo.Constants.GOVSCOT_GOVSCOTURL;
 import static scot.gov.publications.hippo.Constants.HIPPOSTD_STATE;
@@ -218,6 +219,26 @@ public class PublicationNodeUpdaterTest {
         // ASSERT - see expected exception
     }
 
+    @Test
+    public void publicationNodeIsOnlyQueriedOncePerIsbn() throws Exception {
+        // ARRANGE
+        PublicationNodeUpdater sut = new PublicationNodeUpdater(null, null);
+        Node nodeWithISBN = mock(Node.class);
+        Property state = stringProperty("published");
+        when(nodeWithISBN.getProperty(HIPPOSTD_STATE)).thenReturn(state);
+        sut.session = sessionbWithPubs(nodeWithISBN);
+        Metadata input = metadata();
+
+        // ACT
+        Node first = sut.findPublicationNodeToUpdate(input);
+        Node second = sut.findPublicationNodeToUpdate(input);
+
+        // ASSERT
+        assertSame(nodeWithISBN, first);
+        assertSame(nodeWithISBN, second);
+        verify(sut.session.getWorkspace().getQueryManager(), times(1)).createQuery(any(), any());
+    }
+
     Session sessionbWithPubs(Node ...pubs) throws RepositoryException {
         Session session = mock(Session.class);
         Workspace workspace = mock(Workspace.class);
@@ -225,6 +246,7 @@ public class PublicationNodeUpdaterTest {
         Query query = mock(Query.class);
         QueryResult result = mock(QueryResult.class);
         when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(mock(ValueFactory.class));
         when(workspace.getQueryManager()).thenReturn(queryManager);
         when(queryManager.createQuery(any(), any())).thenReturn(query);
         when(query.execute()).thenReturn(result);
@@ -0,0 +1,173 @@
+package scot.gov.publications.hippo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.jcr.TestRepository;
+import scot.gov.publications.PublicationsConfiguration;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+import static org.apache.commons.lang3.ObjectUtils.firstNonNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * These tests run against an embedded JCR repository: see TestRepository.
+ */
+public class ReferenceDataIndexTest {
+
+    Session session;
+
+    ReferenceDataIndex sut;
+
+    Instant now = Instant.parse("2024-01-01T12:00:00Z");
+
+    @Before
+    public void setup() throws Exception {
+        session = TestRepository.session();
+        sut = new ReferenceDataIndex(new PublicationsConfiguration(), Clock.fixed(now, ZoneId.systemDefault()));
+    }
+
+    @After
+    public void teardown() {
+        session.logout();
+    }
+
+    @Test
+    public void findsTheSameHandlesAsQueries() throws Exception {
+        PreparedQueries queries = new PreparedQueries(session);
+        HandleQueries handleQueries = new HandleQueries(queries);
+        assertSameNode(
+                firstNonNull(
+                        handleQueries.roleHandle("commissioner-fair-access"),
+                        handleQueries.personHandle("commissioner-fair-access")),
+                sut.roleOrPersonHandle(session, "commissioner-fair-access"));
+        assertSameNode(
+                firstNonNull(
+                        handleQueries.roleHandle("sheila-rowan"),
+                        handleQueries.personHandle("sheila-rowan")),
+                sut.roleOrPersonHandle(session, "sheila-rowan"));
+        assertSameNode(
+                handleQueries.directorateHandle("advanced-learning-and-science"),
+                sut.directorateHandle(session, "advanced-learning-and-science"));
+        assertSameNode(
+                queries.findOne("SELECT * FROM [govscot:PolicyLatest] AS p " +
+                        "WHERE ISDESCENDANTNODE(p, '/content/documents/govscot/policies/digital/latest') " +
+                        "AND p.[hippostd:state] = $state", singletonMap("state", "published")),
+                sut.policyLatest(session, "digital"));
+    }
+
+    @Test
+    public void unknownNamesAreNotFound() throws Exception {
+        assertNull(sut.roleOrPersonHandle(session, "no-such-role"));
+        assertNull(sut.directorateHandle(session, "no-such-directorate"));
+        assertNull(sut.topicHandle(session, "no-such-topic"));
+        assertNull(sut.policyLatest(session, "no-such-policy"));
+        assertFalse(sut.isPublicationType(session, "no-such-type"));
+    }
+
+    @Test
+    public void indexIsBuiltOnceWithinTtl() throws Exception {
+        // ARRANGE
+        sut.hippoUtils = mock(HippoUtils.class);
+        sut.roleOrPersonHandle(session, "commissioner-fair-access");
+        sut.hippoUtils = mock(HippoUtils.class);
+
+        // ACT
+        sut.roleOrPersonHandle(session, "sheila-rowan");
+
+        // ASSERT
+        verify(sut.hippoUtils, never()).executeXpathQuery(any(), anyString(), any());
+    }
+
+    @Test
+    public void indexIsRebuiltAfterTtl() throws Exception {
+        // ARRANGE
+        sut.roleOrPersonHandle(session, "commissioner-fair-access");
+        sut.hippoUtils = mock(HippoUtils.class);
+        sut.clock = Clock.fixed(now.plus(Duration.ofMinutes(11)), ZoneId.systemDefault());
+
+        // ACT
+        Node actual = sut.roleOrPersonHandle(session, "commissioner-fair-access");
+
+        // ASSERT - the rebuilt index is empty since the queries were mocked
+        verify(sut.hippoUtils, atLeastOnce()).executeXpathQuery(any(), anyString(), any());
+        assertNull(actual);
+    }
+
+    @Test(timeout = 30000)
+    public void previousIndexIsUsedWhileAnotherThreadRebuildsIt() throws Exception {
+        // ARRANGE - a rebuild that does not finish until it is released
+        Node expected = sut.roleOrPersonHandle(session, "commissioner-fair-access");
+        CountDownLatch rebuildStarted = new CountDownLatch(1);
+        CountDownLatch releaseRebuild = new CountDownLatch(1);
+        sut.hippoUtils = mock(HippoUtils.class);
+        doAnswer(invocation -> {
+            rebuildStarted.countDown();
+            releaseRebuild.await();
+            return null;
+        }).when(sut.hippoUtils).executeXpathQuery(any(), anyString(), any());
+        sut.clock = Clock.fixed(now.plus(Duration.ofMinutes(11)), ZoneId.systemDefault());
+        Session rebuildSession = TestRepository.session();
+        Thread rebuild = new Thread(() -> {
+            try {
+                sut.roleOrPersonHandle(rebuildSession, "commissioner-fair-access");
+            } catch (RepositoryException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        rebuild.start();
+        assertTrue(rebuildStarted.await(10, TimeUnit.SECONDS));
+
+        // ACT
+        Node actual = sut.roleOrPersonHandle(session, "commissioner-fair-access");
+
+        // ASSERT
+        releaseRebuild.countDown();
+        rebuild.join();
+        rebuildSession.logout();
+        assertSameNode(expected, actual);
+    }
+
+    @Test
+    public void disabledIndexIsAlwaysEmpty() throws Exception {
+        // ARRANGE
+        ReferenceDataIndex disabled = ReferenceDataIndex.disabled();
+
+        // ACT
+        Node actual = disabled.roleOrPersonHandle(session, "commissioner-fair-access");
+
+        // ASSERT
+        assertNull(actual);
+    }
+
+    void assertSameNode(Node expected, Node actual) throws RepositoryException {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getIdentifier(), actual.getIdentifier());
+        assertTrue(actual.isNodeType(expected.getPrimaryNodeType().getName()));
+    }
+}
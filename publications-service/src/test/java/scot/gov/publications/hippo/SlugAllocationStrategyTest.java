@@ -2,16 +2,20 @@ package scot.gov.publications.hippo;
 
 import org.junit.Test;
 
-import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 import javax.jcr.Workspace;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
-import static java.util.Collections.*;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
@@ -21,9 +25,7 @@ public class SlugAllocationStrategyTest {
     public void canAllocateSlugWithNoClash() throws RepositoryException {
 
         // ARRANGE
-        SlugAllocationStrategy sut = new SlugAllocationStrategy(null);
-        sut.hippoUtils = mock(HippoUtils.class);
-        when(sut.hippoUtils.findFirst(any(), any(), any())).thenReturn(null);
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(sessionWithSlugs());
 
         // ACT
         String actual = sut.allocate("MY Publication title");
@@ -37,13 +39,12 @@ public class SlugAllocationStrategyTest {
     public void canAllocateSlugWithOneClash() throws RepositoryException {
 
         // ARRANGE
-        SlugAllocationStrategy sut = new SlugAllocationStrategy(sessionWithOneClash());
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(sessionWithSlugs("publication-title"));
 
         // ACT
         String actual = sut.allocate("MY Publication title");
 
         // ASSERT
-        // my is a stopword ... spaces are replaces with hyphens
         assertEquals("publication-title-2", actual);
     }
 
@@ -51,85 +52,108 @@ public class SlugAllocationStrategyTest {
     public void canAllocateSlugWithTwoClashes() throws RepositoryException {
 
         // ARRANGE
-        SlugAllocationStrategy sut = new SlugAllocationStrategy(sessionWithTwoClashes());
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(
+                sessionWithSlugs("publication-title", "publication-title-2"));
 
         // ACT
         String actual = sut.allocate("MY Publication title");
 
         // ASSERT
-        // my is a stopword ... spaces are replaces with hyphens
         assertEquals("publication-title-3", actual);
     }
 
-    @Test(expected = RepositoryException.class)
-    public void throwsRepoExceptionIfCantTalkToRepo() throws RepositoryException {
+    @Test
+    public void firstFreeNumberIsUsed() throws RepositoryException {
 
         // ARRANGE
-        SlugAllocationStrategy sut = new SlugAllocationStrategy(null);
-        sut.hippoUtils = mock(HippoUtils.class);
-        when(sut.hippoUtils.findFirst(any(), any(), any())).thenThrow(new RepositoryException());
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(
+                sessionWithSlugs("publication-title", "publication-title-3", "publication-title-4"));
 
         // ACT
-        sut.allocate("MY Publication title");
+        String actual = sut.allocate("MY Publication title");
 
-        // ASSERT - expect exception
+        // ASSERT
+        assertEquals("publication-title-2", actual);
     }
 
-    Session sessionWithOneClash() throws RepositoryException {
-        Session session = mock(Session.class);
-        Workspace workspace = mock(Workspace.class);
-        QueryManager queryManager = mock(QueryManager.class);
-        when(workspace.getQueryManager()).thenReturn(queryManager);
+    @Test
+    public void slugsThatOnlyShareAPrefixAreIgnored() throws RepositoryException {
 
-        Query query1 = mock(Query.class);
-        QueryResult result1 = singleResult();
-        when(query1.execute()).thenReturn(result1);
+        // ARRANGE
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(
+                sessionWithSlugs("publication-title", "publication-title-annex", "publication-title-2-annex"));
 
-        Query query2 = mock(Query.class);
-        QueryResult result2 = emptyResult();
-        when(query2.execute()).thenReturn(result2);
+        // ACT
+        String actual = sut.allocate("MY Publication title");
 
-        when(queryManager.createQuery(any(), any())).thenReturn(query1).thenReturn(query2);
-        when(session.getWorkspace()).thenReturn(workspace);
-        return session;
+        // ASSERT
+        assertEquals("publication-title-2", actual);
     }
 
-    Session sessionWithTwoClashes() throws RepositoryException {
-        Session session = mock(Session.class);
-        Workspace workspace = mock(Workspace.class);
-        QueryManager queryManager = mock(QueryManager.class);
-        when(workspace.getQueryManager()).thenReturn(queryManager);
+    @Test
+    public void manyClashesNeedOnlyOneQuery() throws RepositoryException {
+
+        // ARRANGE
+        List<String> slugs = new ArrayList<>();
+        slugs.add("minutes");
+        for (int i = 2; i <= 100; i++) {
+            slugs.add("minutes-" + i);
+        }
+        Session session = sessionWithSlugs(slugs.toArray(new String[0]));
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(session);
 
-        Query query1 = mock(Query.class);
-        QueryResult result1 = singleResult();
-        when(query1.execute()).thenReturn(result1);
+        // ACT
+        String actual = sut.allocate("Minutes");
 
-        Query query2 = mock(Query.class);
-        QueryResult result2 = singleResult();
-        when(query2.execute()).thenReturn(result2);
+        // ASSERT
+        assertEquals("minutes-101", actual);
+        verify(session.getWorkspace().getQueryManager(), times(1)).createQuery(any(), any());
+    }
 
-        Query query3 = mock(Query.class);
-        QueryResult result3 = emptyResult();
-        when(query3.execute()).thenReturn(result3);
+    @Test(expected = RepositoryException.class)
+    public void throwsRepoExceptionIfCantTalkToRepo() throws RepositoryException {
 
-        when(queryManager.createQuery(any(), any())).thenReturn(query1).thenReturn(query2).thenReturn(query3);
-        when(session.getWorkspace()).thenReturn(workspace);
-        return session;
+        // ARRANGE
+        Session session = mock(Session.class);
+        when(session.getWorkspace()).thenThrow(new RepositoryException());
+        SlugAllocationStrategy sut = new SlugAllocationStrategy(session);
+
+        // ACT
+        sut.allocate("MY Publication title");
+
+        // ASSERT - expect exception
     }
 
-    QueryResult emptyResult() throws RepositoryException {
-        QueryResult queryResult = mock(QueryResult.class);
-        NodeIterator iterator = mock(NodeIterator.class);
-        when(queryResult.getNodes()).thenReturn(iterator);
-        return queryResult;
+    Session sessionWithSlugs(String... slugs) throws RepositoryException {
+        Session session = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult result = mock(QueryResult.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getValueFactory()).thenReturn(mock(ValueFactory.class));
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(any(), any())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        RowIterator rows = rows(slugs);
+        when(result.getRows()).thenReturn(rows);
+        return session;
     }
 
-    QueryResult singleResult() throws RepositoryException {
-        QueryResult queryResult = mock(QueryResult.class);
-        Node node = mock(Node.class);
-        NodeIterator iterator = HippoUtilsTest.iterator(singletonList(node));
-        when(queryResult.getNodes()).thenReturn(iterator);
-        return queryResult;
+    RowIterator rows(String... slugs) throws RepositoryException {
+        List<Row> rows = new ArrayList<>();
+        for (String slug : slugs) {
+            Row row = mock(Row.class);
+            Value value = mock(Value.class);
+            when(value.getString()).thenReturn(slug);
+            when(row.getValue("govscot:slug")).thenReturn(value);
+            rows.add(row);
+        }
+        Iterator<Row> it = rows.iterator();
+        RowIterator rowIterator = mock(RowIterator.class);
+        when(rowIterator.hasNext()).thenAnswer(invocation -> it.hasNext());
+        when(rowIterator.nextRow()).thenAnswer(invocation -> it.next());
+        return rowIterator;
     }
 
 }
@@ -26,9 +26,10 @@ public class TopicUpdaterTest {
 
         TopicsUpdater sut = new TopicsUpdater(null);
         sut.hippoUtils = mock(HippoUtils.class);
+        sut.handleQueries = mock(HandleQueries.class);
 
         Node topicNode = topicNode("farming-id");
-        when(sut.hippoUtils.findOneXPath(any(), contains("farming-and-rural"))).thenReturn(topicNode);
+        when(sut.handleQueries.topicHandle("farming-and-rural")).thenReturn(topicNode);
 
         // ACT
         sut.ensureTopics(publicationNode, input);
@@ -49,8 +50,9 @@ public class TopicUpdaterTest {
 
         TopicsUpdater sut = new TopicsUpdater(null);
         sut.hippoUtils = mock(HippoUtils.class);
+        sut.handleQueries = mock(HandleQueries.class);
         Node topicNode = topicNode("farming-id");
-        when(sut.hippoUtils.findOneXPath(any(), contains("farming-and-rural"))).thenReturn(topicNode);
+        when(sut.handleQueries.topicHandle("farming-and-rural")).thenReturn(topicNode);
         when(sut.hippoUtils.find(any(), any())).thenReturn(topicNode);
 
         // ACT
@@ -71,8 +73,9 @@ public class TopicUpdaterTest {
 
         TopicsUpdater sut = new TopicsUpdater(null);
         sut.hippoUtils = mock(HippoUtils.class);
+        sut.handleQueries = mock(HandleQueries.class);
         Node topicNode = topicNode("farming-id");
-        when(sut.hippoUtils.findOneXPath(any(), contains("farming-and-rural"))).thenReturn(topicNode);
+        when(sut.handleQueries.topicHandle("farming-and-rural")).thenReturn(topicNode);
         when(sut.hippoUtils.find(any(), any())).thenReturn(topicNode);
 
         // ACT
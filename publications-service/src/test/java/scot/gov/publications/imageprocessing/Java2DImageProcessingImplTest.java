@@ -0,0 +1,131 @@
+package scot.gov.publications.imageprocessing;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class Java2DImageProcessingImplTest {
+
+    ImageProcessing delegate = mock(ImageProcessing.class);
+
+    Java2DImageProcessingImpl sut = new Java2DImageProcessingImpl(delegate);
+
+    @Test
+    public void createsThumbnailForEachWidthKeepingAspectRatio() throws Exception {
+        // ARRANGE
+        BufferedImage original = ImageIO.read(Java2DImageProcessingImplTest.class.getResourceAsStream("/examplejpg.jpg"));
+        InputStream in = Java2DImageProcessingImplTest.class.getResourceAsStream("/examplejpg.jpg");
+
+        // ACT
+        Map<Integer, File> actual = sut.thumbnails(in, asList(107, 330, 214, 165));
+
+        // ASSERT
+        assertEquals(4, actual.size());
+        for (Map.Entry<Integer, File> entry : actual.entrySet()) {
+            BufferedImage thumbnail = ImageIO.read(entry.getValue());
+            int expectedHeight = (int) Math.round((double) original.getHeight() * entry.getKey() / original.getWidth());
+            assertEquals(entry.getKey().intValue(), thumbnail.getWidth());
+            assertEquals(expectedHeight, thumbnail.getHeight());
+        }
+        actual.values().forEach(FileUtils::deleteQuietly);
+    }
+
+    @Test
+    public void canCreateSingleThumbnail() throws Exception {
+        // ARRANGE
+        InputStream in = Java2DImageProcessingImplTest.class.getResourceAsStream("/exampleImage.jpeg");
+
+        // ACT
+        File actual = sut.thumbnail(in, 60);
+
+        // ASSERT
+        assertEquals(60, ImageIO.read(actual).getWidth());
+        FileUtils.deleteQuietly(actual);
+    }
+
+    @Test
+    public void unsupportedImagesAreHandedToDelegate() throws Exception {
+        // ARRANGE
+        Map<Integer, File> expected = emptyMap();
+        when(delegate.thumbnails(any(), any())).thenReturn(expected);
+        InputStream in = new ByteArrayInputStream("not an image".getBytes());
+        Collection<Integer> widths = asList(330, 214);
+
+        // ACT
+        Map<Integer, File> actual = sut.thumbnails(in, widths);
+
+        // ASSERT
+        assertSame(expected, actual);
+        verify(delegate).thumbnails(any(), eq(widths));
+    }
+
+    @Test
+    public void imagesImageIOFailsToDecodeAreHandedToDelegate() throws Exception {
+        // ARRANGE - a cmyk jpeg with an embedded colour profile, which ImageIO throws an exception for
+        Map<Integer, File> expected = emptyMap();
+        when(delegate.thumbnails(any(), any())).thenReturn(expected);
+        InputStream in = Java2DImageProcessingImplTest.class.getResourceAsStream("/examplecmyk.jpg");
+        Collection<Integer> widths = asList(330, 214);
+
+        // ACT
+        Map<Integer, File> actual = sut.thumbnails(in, widths);
+
+        // ASSERT
+        assertSame(expected, actual);
+        verify(delegate).thumbnails(any(), eq(widths));
+    }
+
+    @Test
+    public void pdfThumbnailsAreAllCreatedFromOneCoverImage() throws Exception {
+        // ARRANGE
+        File cover = File.createTempFile("cover", ".jpg");
+        FileUtils.copyInputStreamToFile(Java2DImageProcessingImplTest.class.getResourceAsStream("/examplejpg.jpg"), cover);
+        when(delegate.extractPdfCoverImage(any())).thenReturn(cover);
+        InputStream in = Java2DImageProcessingImplTest.class.getResourceAsStream("/examplepdf.pdf");
+
+        // ACT
+        Map<Integer, File> actual = sut.pdfThumbnails(in, asList(330, 214, 165, 107));
+
+        // ASSERT
+        verify(delegate, times(1)).extractPdfCoverImage(any());
+        verify(delegate, never()).thumbnail(any(), anyInt());
+        assertEquals(4, actual.size());
+        assertEquals(107, ImageIO.read(actual.get(107)).getWidth());
+        assertFalse(cover.exists());
+        actual.values().forEach(FileUtils::deleteQuietly);
+    }
+
+    @Test
+    public void pdfCoverImagesAreExtractedByDelegate() throws Exception {
+        // ARRANGE
+        File expected = new File("cover.png");
+        when(delegate.extractPdfCoverImage(any())).thenReturn(expected);
+
+        // ACT
+        File actual = sut.extractPdfCoverImage(new ByteArrayInputStream(new byte[0]));
+
+        // ASSERT
+        assertSame(expected, actual);
+    }
+}
@@ -0,0 +1,138 @@
+package scot.gov.publications.imageprocessing;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailCacheTest {
+
+    private static final int KB = 1024;
+
+    ThumbnailCache sut;
+
+    File directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("thumbnails").toFile();
+        sut = new ThumbnailCache(configuration());
+    }
+
+    @After
+    public void teardown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void getReturnsCopiesOfCachedThumbnails() throws Exception {
+        // ARRANGE
+        Map<Integer, File> thumbnails = new HashMap<>();
+        thumbnails.put(330, file(330, 10));
+        thumbnails.put(214, file(214, 10));
+        sut.put("hash", thumbnails);
+
+        // ACT
+        Map<Integer, File> actual = sut.get("hash", asList(330, 214));
+
+        // ASSERT
+        assertNotNull(actual);
+        assertEquals(2, actual.size());
+        assertNotEquals(new File(directory, "hash-330.png"), actual.get(330));
+        assertArrayEquals(Files.readAllBytes(thumbnails.get(330).toPath()), Files.readAllBytes(actual.get(330).toPath()));
+        assertEquals(1, sut.metrics().get("hits").intValue());
+
+        // deleting the copies leaves the cache intact
+        actual.values().forEach(FileUtils::deleteQuietly);
+        assertNotNull(sut.get("hash", asList(330, 214)));
+    }
+
+    @Test
+    public void getReturnsNullUnlessEveryWidthIsCached() throws Exception {
+        // ARRANGE
+        sut.put("hash", singletonMap(330, file(330, 10)));
+
+        // ACT
+        Map<Integer, File> actual = sut.get("hash", asList(330, 214));
+
+        // ASSERT
+        assertNull(actual);
+        assertEquals(1, sut.metrics().get("misses").intValue());
+    }
+
+    @Test
+    public void leastRecentlyUsedThumbnailIsEvictedWhenCacheIsFull() throws Exception {
+        // ARRANGE
+        sut.put("one", singletonMap(330, file(330, 400 * KB)));
+        sut.put("two", singletonMap(330, file(330, 400 * KB)));
+        sut.get("one", singleton(330)).values().forEach(FileUtils::deleteQuietly);
+
+        // ACT
+        sut.put("three", singletonMap(330, file(330, 400 * KB)));
+
+        // ASSERT
+        assertTrue(new File(directory, "one-330.png").exists());
+        assertFalse(new File(directory, "two-330.png").exists());
+        assertTrue(new File(directory, "three-330.png").exists());
+        assertNull(sut.get("two", singleton(330)));
+    }
+
+    @Test
+    public void thumbnailsFromPreviousRunAreUsed() throws Exception {
+        // ARRANGE
+        sut.put("hash", singletonMap(107, file(107, 10)));
+
+        // ACT
+        Map<Integer, File> actual = new ThumbnailCache(configuration()).get("hash", singleton(107));
+
+        // ASSERT
+        assertNotNull(actual);
+    }
+
+    @Test
+    public void disabledCacheIsAlwaysEmpty() throws Exception {
+        // ARRANGE
+        ThumbnailCache disabled = ThumbnailCache.disabled();
+        disabled.put("hash", singletonMap(107, file(107, 10)));
+
+        // ACT
+        Map<Integer, File> actual = disabled.get("hash", singleton(107));
+
+        // ASSERT
+        assertNull(actual);
+    }
+
+    PublicationsConfiguration configuration() {
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getCache().setThumbnailDirectory(directory.getAbsolutePath());
+        configuration.getCache().setThumbnailMaxSize(1);
+        return configuration;
+    }
+
+    File file(int width, int size) throws Exception {
+        File file = File.createTempFile("thumbnail" + width, ".png");
+        file.deleteOnExit();
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) width);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
@@ -20,6 +20,7 @@ public class ThumbnailsProviderTest {
     public void imageProcessingExcpetionThrown() throws Exception {
         ImageProcessing imageProcessing = mock(GraphicsMagickImageProcessingImpl.class);
         Mockito.when(imageProcessing.extractPdfCoverImage(Mockito.any())).thenThrow(new ImageProcessingException("arg"));
+        Mockito.when(imageProcessing.pdfThumbnails(Mockito.any(), Mockito.any())).thenCallRealMethod();
         ThumbnailsProvider sut = new ThumbnailsProvider(imageProcessing);
         InputStream docStream = ThumbnailsProviderTest.class.getResourceAsStream("/examplepdf.pdf");
         String mimeType = FileType.PDF.getMimeType();
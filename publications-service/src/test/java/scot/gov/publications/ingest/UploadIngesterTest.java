@@ -0,0 +1,89 @@
+package scot.gov.publications.ingest;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.ApsZipImporterException;
+import scot.gov.publications.util.FileUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class UploadIngesterTest {
+
+    FileUtil fileUtil = new FileUtil();
+
+    File zip;
+
+    IngestedUpload upload;
+
+    @Before
+    public void setup() throws IOException {
+        zip = fileUtil.createTempFile("ingestertest", "zip");
+    }
+
+    @After
+    public void teardown() {
+        FileUtils.deleteQuietly(zip);
+        if (upload != null) {
+            FileUtils.deleteQuietly(upload.getZipToProcess());
+        }
+    }
+
+    @Test
+    public void canIngestNestedZip() throws Exception {
+        // ARRANGE
+        UploadIngester sut = new UploadIngester();
+
+        // ACT
+        upload = sut.ingest(resource("/nestedzip.zip"), zip);
+
+        // ASSERT
+        assertTrue(upload.isNested());
+        assertTrue(upload.getZipToProcess().exists());
+        assertNotNull(upload.getMetadata());
+        assertEquals(fileUtil.hash(zip), upload.getChecksum());
+    }
+
+    @Test
+    public void canIngestZip() throws Exception {
+        // ARRANGE
+        UploadIngester sut = new UploadIngester();
+
+        // ACT
+        upload = sut.ingest(resource("/examplezip.zip"), zip);
+
+        // ASSERT
+        assertFalse(upload.isNested());
+        assertNotNull(upload.getMetadata());
+        assertEquals(fileUtil.hash(zip), upload.getChecksum());
+    }
+
+    @Test(expected = ApsZipImporterException.class)
+    public void exceptionThrownIfMultipleMetadataFiles() throws Exception {
+        new UploadIngester().ingest(resource("/zipWithTwoMetadataFiles.zip"), zip);
+    }
+
+    @Test(expected = ApsZipImporterException.class)
+    public void exceptionThrownIfNoMetadataFile() throws Exception {
+        new UploadIngester().ingest(resource("/zipWithNoMetadata.zip"), zip);
+    }
+
+    @Test(expected = IOException.class)
+    public void exceptionThrownIfNotAZip() throws Exception {
+        new UploadIngester().ingest(new ByteArrayInputStream("not a zip".getBytes(UTF_8)), zip);
+    }
+
+    InputStream resource(String path) {
+        return UploadIngesterTest.class.getResourceAsStream(path);
+    }
+}
@@ -0,0 +1,167 @@
+package scot.gov.publications.prepare;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import scot.gov.publications.ApsZipImporterException;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.hippo.ZipFixtures;
+import scot.gov.publications.imageprocessing.ImageProcessing;
+import scot.gov.publications.imageprocessing.ImageProcessingException;
+import scot.gov.publications.imageprocessing.ThumbnailCache;
+import scot.gov.publications.manifest.Manifest;
+import scot.gov.publications.manifest.ManifestEntry;
+import scot.gov.publications.manifest.ManifestExtractor;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AssetPreparerTest {
+
+    @Before
+    public void init() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @Test
+    public void preparesDocumentsAndImages() throws Exception {
+        // ARRANGE
+        ImageProcessing imageProcessing = mock(ImageProcessing.class);
+        when(imageProcessing.thumbnails(any(BufferedImage.class), any())).thenAnswer(this::thumbnails);
+        when(imageProcessing.extractPdfCoverImage(any(InputStream.class)))
+                .thenAnswer(invocation -> File.createTempFile("cover", ".png"));
+        AssetPreparer sut = new AssetPreparer(imageProcessing, (in, mimeType) -> 7);
+        ZipFile zipFile = ZipFixtures.exampleZip();
+        Manifest manifest = new ManifestExtractor().extract(zipFile);
+        File thumbnail;
+
+        // ACT
+        try (PreparedAssets actual = sut.prepare(zipFile, manifest)) {
+
+            // ASSERT
+            for (ManifestEntry manifestEntry : manifest.getEntries()) {
+                ZipEntry zipEntry = manifest.findZipEntry(zipFile, manifestEntry);
+                assertEquals(7, actual.getDocument(zipEntry.getName()).getPageCount());
+            }
+            PreparedImage image = actual.getImage("SCT04185156361/SCT04185156361_g02.gif");
+            assertNotNull(image);
+            assertTrue(image.getWidth() > 0);
+            assertTrue(image.getHeight() > 0);
+            thumbnail = image.getThumbnail();
+            assertTrue(thumbnail.exists());
+        }
+
+        // closing the assets deletes the thumbnails
+        assertFalse(thumbnail.exists());
+    }
+
+    @Test
+    public void documentsWithExistingContentAreNotPrepared() throws Exception {
+        // ARRANGE
+        ImageProcessing imageProcessing = mock(ImageProcessing.class);
+        when(imageProcessing.thumbnails(any(BufferedImage.class), any())).thenAnswer(this::thumbnails);
+        AssetPreparer sut = new AssetPreparer(imageProcessing, (in, mimeType) -> 7);
+        ZipFile zipFile = ZipFixtures.exampleZip();
+        Manifest manifest = new ManifestExtractor().extract(zipFile);
+        Set<String> existingContentHashes = new HashSet<>();
+        for (ManifestEntry manifestEntry : manifest.getEntries()) {
+            ZipEntry zipEntry = manifest.findZipEntry(zipFile, manifestEntry);
+            try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                existingContentHashes.add(AssetPreparer.contentHash(in));
+            }
+        }
+
+        // ACT
+        try (PreparedAssets actual = sut.prepare(zipFile, manifest, existingContentHashes)) {
+
+            // ASSERT
+            for (ManifestEntry manifestEntry : manifest.getEntries()) {
+                ZipEntry zipEntry = manifest.findZipEntry(zipFile, manifestEntry);
+                PreparedDocument document = actual.getDocument(zipEntry.getName());
+                assertTrue(document.isExisting());
+                assertTrue(existingContentHashes.contains(document.getContentHash()));
+            }
+            verify(imageProcessing, never()).extractPdfCoverImage(any(InputStream.class));
+        }
+    }
+
+    @Test
+    public void cachedThumbnailsAreNotCreatedAgain() throws Exception {
+        // ARRANGE
+        File directory = Files.createTempDirectory("thumbnails").toFile();
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getCache().setThumbnailDirectory(directory.getAbsolutePath());
+        ThumbnailCache thumbnailCache = new ThumbnailCache(configuration);
+        ZipFile zipFile = ZipFixtures.exampleZip();
+        Manifest manifest = new ManifestExtractor().extract(zipFile);
+        new AssetPreparer(thumbnailingImageProcessing(), (in, mimeType) -> 7, thumbnailCache)
+                .prepare(zipFile, manifest)
+                .close();
+        ImageProcessing imageProcessing = thumbnailingImageProcessing();
+        AssetPreparer sut = new AssetPreparer(imageProcessing, (in, mimeType) -> 7, thumbnailCache);
+
+        // ACT
+        try (PreparedAssets actual = sut.prepare(zipFile, manifest)) {
+
+            // ASSERT
+            verify(imageProcessing, never()).thumbnails(any(BufferedImage.class), any());
+            verify(imageProcessing, never()).pdfThumbnails(any(InputStream.class), any());
+            assertTrue(actual.getImage("SCT04185156361/SCT04185156361_g02.gif").getThumbnail().exists());
+            assertTrue(thumbnailCache.metrics().get("hits").intValue() > 0);
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    @Test(expected = ApsZipImporterException.class)
+    public void thumbnailFailureRethrownAsApsZipImporterException() throws Exception {
+        // ARRANGE
+        ImageProcessing imageProcessing = mock(ImageProcessing.class);
+        when(imageProcessing.thumbnails(any(BufferedImage.class), any())).thenThrow(new ImageProcessingException("arg"));
+        when(imageProcessing.extractPdfCoverImage(any(InputStream.class)))
+                .thenAnswer(invocation -> File.createTempFile("cover", ".png"));
+        AssetPreparer sut = new AssetPreparer(imageProcessing, (in, mimeType) -> 7);
+        ZipFile zipFile = ZipFixtures.exampleZip();
+        Manifest manifest = new ManifestExtractor().extract(zipFile);
+
+        // ACT
+        sut.prepare(zipFile, manifest);
+
+        // ASSERT -- see expected exception
+    }
+
+    ImageProcessing thumbnailingImageProcessing() throws Exception {
+        ImageProcessing imageProcessing = mock(ImageProcessing.class);
+        when(imageProcessing.thumbnails(any(BufferedImage.class), any())).thenAnswer(this::thumbnails);
+        when(imageProcessing.pdfThumbnails(any(InputStream.class), any())).thenAnswer(this::thumbnails);
+        return imageProcessing;
+    }
+
+    Map<Integer, File> thumbnails(InvocationOnMock invocation) throws Exception {
+        Map<Integer, File> thumbnails = new HashMap<>();
+        for (Integer width : invocation.<Collection<Integer>>getArgument(1)) {
+            thumbnails.put(width, File.createTempFile("thumbnail", ".png"));
+        }
+        return thumbnails;
+    }
+}
@@ -18,7 +18,10 @@ import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class PublicationRepositoryTest {
@@ -37,6 +40,7 @@ public class PublicationRepositoryTest {
     @After
     public void teardown() throws Exception {
         sut.queryRunner.update("TRUNCATE TABLE publication");
+        sut.queryRunner.update("TRUNCATE TABLE importphase");
     }
 
     @Test
@@ -231,6 +235,135 @@ public class PublicationRepositoryTest {
         // ASSERT - see expected
     }
 
+    @Test
+    public void claimNextPendingClaimsOldestPendingPublication() throws Exception {
+        // ARRANGE
+        Publication done = examplePublication("done");
+        done.setState(State.DONE.name());
+        sut.create(done);
+        Publication pending = examplePublication("pending");
+        sut.create(pending);
+
+        // ACT
+        Publication claimed = sut.claimNextPending("node");
+        Publication next = sut.claimNextPending("node");
+
+        // ASSERT
+        assertEquals(pending.getId(), claimed.getId());
+        assertEquals(State.PROCESSING.name(), claimed.getState());
+        assertEquals(State.PROCESSING.name(), sut.get(pending.getId()).getState());
+        assertNull(next);
+    }
+
+    @Test
+    public void claimNextPendingSkipsIsbnAlreadyBeingProcessed() throws Exception {
+        // ARRANGE
+        sut.create(examplePublication("first"));
+        Publication sameIsbn = examplePublication("second");
+        sameIsbn.setIsbn("firstisbn");
+        sut.create(sameIsbn);
+        sut.create(examplePublication("third"));
+
+        // ACT
+        Publication first = sut.claimNextPending("node");
+        Publication second = sut.claimNextPending("othernode");
+        Publication third = sut.claimNextPending("node");
+
+        // ASSERT
+        assertNotEquals(first.getIsbn(), second.getIsbn());
+        assertNull(third);
+        assertEquals(1, sut.waitingPublications().stream()
+                .filter(publication -> State.PENDING.name().equals(publication.getState())).count());
+    }
+
+    @Test
+    public void recoverOrphansReturnsOwnAndStaleClaimsToPending() throws Exception {
+        // ARRANGE
+        sut.create(examplePublication("own"));
+        sut.create(examplePublication("other"));
+        Publication own = sut.claimNextPending("node");
+        Publication other = sut.claimNextPending("othernode");
+
+        // ACT
+        int recovered = sut.recoverOrphans("node", Timestamp.from(sut.clock.instant().minusSeconds(60)));
+
+        // ASSERT
+        assertEquals(1, recovered);
+        assertEquals(State.PENDING.name(), sut.get(own.getId()).getState());
+        assertEquals(State.PROCESSING.name(), sut.get(other.getId()).getState());
+    }
+
+    @Test
+    public void countsWaitingAndFinishedPublications() throws Exception {
+        // ARRANGE
+        sut.create(examplePublication("pending"));
+        Publication done = examplePublication("done");
+        sut.create(done);
+        done.setState(State.DONE.name());
+        sut.update(done);
+        Publication failed = examplePublication("failed");
+        sut.create(failed);
+        failed.setState(State.FAILED.name());
+        sut.update(failed);
+
+        // ACT
+        long waiting = sut.countWaiting();
+        long finished = sut.countFinishedSince(Timestamp.from(sut.clock.instant().minusSeconds(60)));
+        long finishedLater = sut.countFinishedSince(Timestamp.from(sut.clock.instant().plusSeconds(60)));
+
+        // ASSERT
+        assertEquals(1, waiting);
+        assertEquals(2, finished);
+        assertEquals(0, finishedLater);
+    }
+
+    @Test
+    public void oldestWaitingFindsEarliestCreatedPendingPublication() throws Exception {
+        // ARRANGE
+        Timestamp earlier = Timestamp.from(sut.clock.instant().minusSeconds(600));
+        Publication older = examplePublication("older");
+        older.setCreateddate(earlier);
+        sut.create(older);
+        Publication newer = examplePublication("newer");
+        newer.setCreateddate(Timestamp.from(sut.clock.instant()));
+        sut.create(newer);
+
+        // ACT
+        Timestamp actual = sut.oldestWaiting();
+
+        // ASSERT
+        assertEquals(earlier, actual);
+    }
+
+    @Test
+    public void oldestWaitingIsNullWhenNothingIsWaiting() throws Exception {
+        // ARRANGE
+        Publication done = examplePublication("done");
+        sut.create(done);
+        done.setState(State.DONE.name());
+        sut.update(done);
+
+        // ACT
+        Timestamp actual = sut.oldestWaiting();
+
+        // ASSERT
+        assertNull(actual);
+    }
+
+    @Test
+    public void hasChecksumFindsExistingChecksum() throws Exception {
+        // ARRANGE
+        sut.create(examplePublication("one"));
+
+        // ACT
+        boolean existing = sut.hasChecksum("onechecksum");
+        boolean missing = sut.hasChecksum("twochecksum");
+
+        // ASSERT
+        assertTrue(existing);
+        assertFalse(missing);
+    }
+
     @Test
     public void allChecksumsGreenpath() throws Exception {
         // ARRANGE
@@ -251,6 +384,28 @@ public class PublicationRepositoryTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void savedTimingsReplacePreviousImport() throws Exception {
+        // ARRANGE
+        Publication publication = examplePublication();
+        sut.create(publication);
+        sut.saveTimings(publication.getId(), Arrays.asList(phase("download", 10, 1000L, null), phase("save", 20, null, 5)));
+
+        // ACT
+        sut.saveTimings(publication.getId(), Arrays.asList(phase("download", 30, 2000L, null), phase("unzip", 40, null, 7)));
+        List<ImportPhase> actual = sut.getTimings(publication.getId());
+
+        // ASSERT
+        assertEquals(2, actual.size());
+        assertEquals("download", actual.get(0).getPhase());
+        assertEquals(30, actual.get(0).getDurationms());
+        assertEquals(Long.valueOf(2000), actual.get(0).getBytes());
+        assertNull(actual.get(0).getEntries());
+        assertEquals("unzip", actual.get(1).getPhase());
+        assertEquals(Integer.valueOf(7), actual.get(1).getEntries());
+        assertTrue(sut.getTimings("other").isEmpty());
+    }
+
     @Test(expected = PublicationRepositoryException.class)
     public void allChecksumsExceptionWrapped() throws Exception {
         sut.queryRunner = exceptionThrowingQueryRunner();
@@ -270,6 +425,15 @@ public class PublicationRepositoryTest {
         }
     }
 
+    ImportPhase phase(String name, long durationms, Long bytes, Integer entries) {
+        ImportPhase phase = new ImportPhase();
+        phase.setPhase(name);
+        phase.setDurationms(durationms);
+        phase.setBytes(bytes);
+        phase.setEntries(entries);
+        return phase;
+    }
+
     Publication examplePublication() {
         return examplePublication("");
     }
@@ -0,0 +1,122 @@
+package scot.gov.publications.rest;
+
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.PublicationRepository;
+import scot.gov.publications.repo.PublicationRepositoryException;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdmissionControlTest {
+
+    AdmissionControl sut;
+
+    @Before
+    public void setup() {
+        sut = new AdmissionControl();
+        sut.configuration = new PublicationsConfiguration();
+        sut.configuration.getAdmission().setLatencyBudget(60);
+        sut.configuration.getAdmission().setWindow(60);
+        sut.configuration.getAdmission().setMinWaiting(10);
+        sut.repository = mock(PublicationRepository.class);
+        sut.clock = Clock.systemUTC();
+    }
+
+    @Test
+    public void acceptsWhenFewPublicationsAreWaiting() throws Exception {
+        // ARRANGE
+        when(sut.repository.countWaiting()).thenReturn(5L);
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(0, actual);
+    }
+
+    @Test
+    public void acceptsWhenBacklogFitsWithinBudget() throws Exception {
+        // ARRANGE - 120 imports an hour, so 99 waiting plus this one take 50 minutes
+        when(sut.repository.countWaiting()).thenReturn(99L);
+        when(sut.repository.countFinishedSince(any())).thenReturn(120L);
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(0, actual);
+    }
+
+    @Test
+    public void refusesWhenBacklogExceedsBudget() throws Exception {
+        // ARRANGE - 60 imports an hour, so 119 waiting plus this one take two hours, an hour over budget
+        when(sut.repository.countWaiting()).thenReturn(119L);
+        when(sut.repository.countFinishedSince(any())).thenReturn(60L);
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(3600, actual);
+    }
+
+    @Test
+    public void acceptsWhenNothingHasFinishedRecentlyAndQueueIsNew() throws Exception {
+        // ARRANGE - e.g. a burst of uploads after a quiet spell or just after the service started
+        when(sut.repository.countWaiting()).thenReturn(50L);
+        when(sut.repository.countFinishedSince(any())).thenReturn(0L);
+        when(sut.repository.oldestWaiting()).thenReturn(Timestamp.from(sut.clock.instant().minusSeconds(30)));
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(0, actual);
+    }
+
+    @Test
+    public void refusesWithDefaultRetryWhenNothingHasFinishedAndOldestIsOverBudget() throws Exception {
+        // ARRANGE
+        when(sut.repository.countWaiting()).thenReturn(50L);
+        when(sut.repository.countFinishedSince(any())).thenReturn(0L);
+        when(sut.repository.oldestWaiting()).thenReturn(Timestamp.from(sut.clock.instant().minusSeconds(2 * 3600)));
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(AdmissionControl.DEFAULT_RETRY_AFTER, actual);
+    }
+
+    @Test
+    public void acceptsIfQueueCannotBeMeasured() throws Exception {
+        // ARRANGE
+        when(sut.repository.countWaiting()).thenThrow(new PublicationRepositoryException("arg", new RuntimeException()));
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(0, actual);
+    }
+
+    @Test
+    public void acceptsWhenDisabled() throws Exception {
+        // ARRANGE
+        sut.configuration.getAdmission().setLatencyBudget(0);
+        when(sut.repository.countWaiting()).thenReturn(1000L);
+
+        // ACT
+        long actual = sut.retryAfter();
+
+        // ASSERT
+        assertEquals(0, actual);
+    }
+}
@@ -0,0 +1,72 @@
+package scot.gov.publications.rest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteRangeTest {
+
+    @Test
+    public void parsesClosedRange() {
+        // ACT
+        ByteRange actual = ByteRange.parse("bytes=10-19", 100);
+
+        // ASSERT
+        assertTrue(actual.isSatisfiable());
+        assertEquals(10, actual.getStart());
+        assertEquals(19, actual.getEnd());
+        assertEquals(10, actual.size());
+        assertEquals("bytes 10-19/100", actual.contentRange());
+    }
+
+    @Test
+    public void parsesOpenRange() {
+        // ACT
+        ByteRange actual = ByteRange.parse("bytes=90-", 100);
+
+        // ASSERT
+        assertEquals(90, actual.getStart());
+        assertEquals(99, actual.getEnd());
+    }
+
+    @Test
+    public void parsesSuffixRange() {
+        // ACT
+        ByteRange actual = ByteRange.parse("bytes=-10", 100);
+
+        // ASSERT
+        assertEquals(90, actual.getStart());
+        assertEquals(99, actual.getEnd());
+    }
+
+    @Test
+    public void endIsLimitedToContentLength() {
+        // ACT
+        ByteRange actual = ByteRange.parse("bytes=50-500", 100);
+
+        // ASSERT
+        assertEquals(99, actual.getEnd());
+    }
+
+    @Test
+    public void rangeBeyondContentIsNotSatisfiable() {
+        // ACT
+        ByteRange actual = ByteRange.parse("bytes=100-", 100);
+
+        // ASSERT
+        assertFalse(actual.isSatisfiable());
+    }
+
+    @Test
+    public void multipleOrInvalidRangesAreIgnored() {
+        // ACT & ASSERT
+        assertNull(ByteRange.parse(null, 100));
+        assertNull(ByteRange.parse("bytes=0-10,20-30", 100));
+        assertNull(ByteRange.parse("items=0-10", 100));
+        assertNull(ByteRange.parse("bytes=a-b", 100));
+        assertNull(ByteRange.parse("bytes=20-10", 100));
+    }
+}
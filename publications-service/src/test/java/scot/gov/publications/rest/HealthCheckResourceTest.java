@@ -4,14 +4,17 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.jackrabbit.rmi.client.RemoteRuntimeException;
 import org.junit.Test;
 import org.mockito.Mockito;
+import scot.gov.publications.PublicationsConfiguration;
 import scot.gov.publications.hippo.HippoPaths;
 import scot.gov.publications.hippo.HippoSessionFactory;
+import scot.gov.publications.imageprocessing.ThumbnailCache;
 import scot.gov.publications.repo.Publication;
 import scot.gov.publications.repo.PublicationRepository;
 import scot.gov.publications.repo.PublicationRepositoryException;
 import scot.gov.publications.repo.State;
 import scot.gov.publications.storage.PublicationStorage;
 import scot.gov.publications.storage.PublicationStorageException;
+import scot.gov.publications.util.ProcessRunner;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -38,6 +41,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = healthyPublicationRepository();
         sut.publicationStorage = healthlyPublicationStorage();
         sut.sessionFactory = healthySessionFactory();
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
@@ -55,6 +60,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = publicationRepositoryWithItems(Collections.singleton(pendingALongTimePublication()));
         sut.publicationStorage = healthlyPublicationStorage();
         sut.sessionFactory = healthySessionFactory();
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
@@ -74,6 +81,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = publicationRepositoryWithItems(publications);
         sut.publicationStorage = healthlyPublicationStorage();
         sut.sessionFactory = healthySessionFactory();
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
@@ -92,6 +101,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = exceptionThrowingPublicationRepository();
         sut.publicationStorage = healthlyPublicationStorage();
         sut.sessionFactory = healthySessionFactory();
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
@@ -110,6 +121,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = healthyPublicationRepository();
         sut.publicationStorage = healthlyPublicationStorage();
         sut.sessionFactory = unhealthSessionFactory(RepositoryException.class);
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
@@ -128,6 +141,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = healthyPublicationRepository();
         sut.publicationStorage = healthlyPublicationStorage();
         sut.sessionFactory = unhealthSessionFactory(RemoteRuntimeException.class);
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
@@ -146,6 +161,8 @@ public class HealthCheckResourceTest {
         sut.publicationRepository = healthyPublicationRepository();
         sut.publicationStorage = unhealthlyPublicationStorage();
         sut.sessionFactory = healthySessionFactory();
+        sut.processRunner = new ProcessRunner(new PublicationsConfiguration());
+        sut.thumbnailCache = ThumbnailCache.disabled();
 
         // ACT
         Response actual = sut.health();
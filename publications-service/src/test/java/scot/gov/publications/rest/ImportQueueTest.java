@@ -0,0 +1,119 @@
+package scot.gov.publications.rest;
+
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.Publication;
+import scot.gov.publications.repo.PublicationRepository;
+import scot.gov.publications.repo.PublicationRepositoryException;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ImportQueueTest {
+
+    @Test
+    public void processNextImportsClaimedPublication() throws Exception {
+        // ARRANGE
+        ImportQueue sut = queue();
+        Publication publication = new Publication();
+        when(sut.repository.claimNextPending(any())).thenReturn(publication);
+
+        // ACT
+        boolean actual = sut.processNext();
+
+        // ASSERT
+        assertTrue(actual);
+        verify(sut.publicationUploader).importPublication(publication);
+    }
+
+    @Test
+    public void processNextReturnsFalseIfNothingPending() throws Exception {
+        // ARRANGE
+        ImportQueue sut = queue();
+        when(sut.repository.claimNextPending(any())).thenReturn(null);
+
+        // ACT
+        boolean actual = sut.processNext();
+
+        // ASSERT
+        assertFalse(actual);
+        verify(sut.publicationUploader, never()).importPublication(any());
+    }
+
+    @Test
+    public void processNextReturnsFalseIfClaimFails() throws Exception {
+        // ARRANGE
+        ImportQueue sut = queue();
+        when(sut.repository.claimNextPending(any())).thenThrow(new PublicationRepositoryException("", null));
+
+        // ACT
+        boolean actual = sut.processNext();
+
+        // ASSERT
+        assertFalse(actual);
+    }
+
+    @Test
+    public void processNextSurvivesUncheckedExceptions() throws Exception {
+        // ARRANGE
+        ImportQueue sut = queue();
+        Publication publication = new Publication();
+        when(sut.repository.claimNextPending(any())).thenReturn(publication);
+        doThrow(new RuntimeException("arg")).when(sut.publicationUploader).importPublication(publication);
+
+        // ACT
+        boolean actual = sut.processNext();
+
+        // ASSERT
+        assertTrue(actual);
+    }
+
+    @Test
+    public void recoverOrphansUsesOrphanTimeout() throws Exception {
+        // ARRANGE
+        ImportQueue sut = queue();
+        sut.configuration.getQueue().setOrphanTimeout(10);
+
+        // ACT
+        sut.recoverOrphans();
+
+        // ASSERT
+        Timestamp expected = Timestamp.from(Instant.parse("2020-01-01T11:50:00Z"));
+        verify(sut.repository).recoverOrphans(any(), eq(expected));
+    }
+
+    @Test
+    public void nodeIdUsesConfiguredValue() {
+        // ARRANGE
+        ImportQueue sut = queue();
+        sut.configuration.getQueue().setNodeId("node-1");
+
+        // ACT
+        String actual = sut.nodeId();
+
+        // ASSERT
+        assertEquals("node-1", actual);
+    }
+
+    ImportQueue queue() {
+        ImportQueue queue = new ImportQueue();
+        queue.configuration = new PublicationsConfiguration();
+        queue.repository = mock(PublicationRepository.class);
+        queue.publicationUploader = mock(PublicationUploader.class);
+        queue.clock = Clock.fixed(Instant.parse("2020-01-01T12:00:00Z"), ZoneId.of("UTC"));
+        return queue;
+    }
+}
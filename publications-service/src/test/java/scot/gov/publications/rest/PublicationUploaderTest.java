@@ -34,10 +34,34 @@ public class PublicationUploaderTest {
         sut.importPublication(publication);
 
         // ASSERT
-        verify(sut.apsZipImporter).importApsZip(any(), any());
+        verify(sut.apsZipImporter).importApsZip(any(), any(), any());
         verify(sut.repository, atLeastOnce()).update(argThat(pub -> pub.getState().equals("DONE")));
     }
 
+    @Test
+    public void timingsSavedAfterImport() throws Exception {
+        // ARRANGE
+        PublicationUploader sut = new PublicationUploader();
+        sut.configuration = new PublicationsConfiguration();
+        sut.storage = mock(S3PublicationStorage.class);
+        when(sut.storage.get(any())).thenReturn(PublicationUploaderTest.class.getResourceAsStream("/nestedzip.zip"));
+        sut.repository = mock(PublicationRepository.class);
+        sut.apsZipImporter = mock(ApsZipImporter.class);
+        Publication publication = new Publication();
+        publication.setId("id");
+
+        // ACT
+        sut.importPublication(publication);
+
+        // ASSERT
+        verify(sut.repository).saveTimings(eq("id"), argThat(phases ->
+                phases.size() == 2
+                        && phases.get(0).getPhase().equals("download")
+                        && phases.get(0).getBytes() > 0
+                        && phases.get(1).getPhase().equals("unzip")
+                        && phases.get(1).getEntries() > 0));
+    }
+
     @Test
     public void repositoryExceptionPopulatedAndSaved() throws Exception {
         // ARRANGE
@@ -122,7 +146,7 @@ public class PublicationUploaderTest {
         when(sut.storage.get(any())).thenReturn(PublicationUploaderTest.class.getResourceAsStream("/nestedzip.zip"));
         sut.repository = mock(PublicationRepository.class);
         sut.apsZipImporter = mock(ApsZipImporter.class);
-        doThrow(new ApsZipImporterException("error message")).when(sut.apsZipImporter).importApsZip(any(), any());
+        doThrow(new ApsZipImporterException("error message")).when(sut.apsZipImporter).importApsZip(any(), any(), any());
         Publication publication = new Publication();
         publication.setId("id");
 
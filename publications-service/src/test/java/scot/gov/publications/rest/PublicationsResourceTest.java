@@ -1,24 +1,24 @@
 package scot.gov.publications.rest;
 
-import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import scot.gov.publications.ApsZipImporterException;
-import scot.gov.publications.metadata.MetadataExtractor;
+import scot.gov.publications.ingest.UploadIngester;
+import scot.gov.publications.repo.ImportPhase;
 import scot.gov.publications.repo.ListResult;
 import scot.gov.publications.repo.Publication;
 import scot.gov.publications.repo.PublicationRepository;
 import scot.gov.publications.repo.PublicationRepositoryException;
 import scot.gov.publications.storage.PublicationStorage;
 import scot.gov.publications.storage.PublicationStorageException;
-import scot.gov.publications.util.FileUtil;
 
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -79,6 +79,23 @@ public class PublicationsResourceTest {
         assertSame(actual, publication);
     }
 
+    @Test
+    public void getIncludesImportTimings() throws Exception {
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.repository = mock(PublicationRepository.class);
+        when(sut.repository.get("id")).thenReturn(new Publication());
+        List<ImportPhase> timings = Collections.singletonList(new ImportPhase());
+        when(sut.repository.getTimings("id")).thenReturn(timings);
+
+        // ACT
+        Response reponse = sut.get("id");
+        Publication actual = (Publication) reponse.getEntity();
+
+        // ASSERT
+        assertSame(timings, actual.getTimings());
+    }
+
     @Test
     public void getReturns500ForException() throws Exception {
         // ARRANGE
@@ -114,7 +131,8 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
 
         UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
 
@@ -126,6 +144,176 @@ public class PublicationsResourceTest {
         verify(sut.repository).create(argThat(pub -> pub.getState().equals("PENDING")));
         verify(sut.repository).create(argThat(pub -> pub.getContact().equals("")));
         verify(sut.storage).save(any(), any());
+        verify(sut.importQueue).wake();
+    }
+
+    @Test
+    public void postingAlreadyStoredContentSkipsStorage() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
+        when(sut.repository.hasChecksum(any())).thenReturn(true);
+        when(sut.storage.exists(any())).thenReturn(true);
+
+        UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
+
+        // ACT
+        Response actual = sut.postFormData(uploadRequest, "username");
+
+        // ASSERT
+        assertEquals(202, actual.getStatus());
+        assertTrue(((UploadResponse) actual.getEntity()).isAlreadyStored());
+        verify(sut.repository).create(any());
+        verify(sut.storage, never()).save(any(), any());
+        verify(sut.storage).cacheLocally(any(), any());
+        verify(sut.importQueue).wake();
+    }
+
+    @Test
+    public void postFormData429IfQueueIsTooFarBehind() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
+        when(sut.admissionControl.retryAfter()).thenReturn(120L);
+
+        UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
+
+        // ACT
+        Response actual = sut.postFormData(uploadRequest, "username");
+
+        // ASSERT
+        assertEquals(429, actual.getStatus());
+        assertEquals(120L, actual.getHeaders().getFirst("Retry-After"));
+        verify(sut.repository, never()).create(any());
+        verify(sut.storage, never()).save(any(), any());
+    }
+
+    @Test
+    public void download304IfClientHasChecksum() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        when(sut.repository.get("id")).thenReturn(publication);
+
+        // ACT
+        Response actual = sut.download("id", null, null, "\"other\", \"checksum\"");
+
+        // ASSERT
+        assertEquals(304, actual.getStatus());
+        verify(sut.storage, never()).get(any());
+    }
+
+    @Test
+    public void downloadPassesRangeToStorage() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        publication.setFilename("filename.zip");
+        when(sut.repository.get("id")).thenReturn(publication);
+        when(sut.storage.length(publication)).thenReturn(100L);
+        when(sut.storage.get(publication, 10, 99)).thenReturn(new ByteArrayInputStream(new byte[90]));
+
+        // ACT
+        Response actual = sut.download("id", "bytes=10-", null, null);
+
+        // ASSERT
+        assertEquals(206, actual.getStatus());
+        assertEquals("bytes 10-99/100", actual.getHeaders().getFirst("Content-Range"));
+        verify(sut.storage, never()).get(publication);
+    }
+
+    @Test
+    public void downloadPassesRangeToStorageIfRangeMatchesStrongEtag() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        publication.setFilename("filename.zip");
+        when(sut.repository.get("id")).thenReturn(publication);
+        when(sut.storage.length(publication)).thenReturn(100L);
+        when(sut.storage.get(publication, 10, 99)).thenReturn(new ByteArrayInputStream(new byte[90]));
+
+        // ACT
+        Response actual = sut.download("id", "bytes=10-", "\"checksum\"", null);
+
+        // ASSERT
+        assertEquals(206, actual.getStatus());
+    }
+
+    @Test
+    public void downloadIgnoresRangeIfRangeIsWeakEtag() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        publication.setFilename("filename.zip");
+        when(sut.repository.get("id")).thenReturn(publication);
+        when(sut.storage.get(publication)).thenReturn(new ByteArrayInputStream(new byte[100]));
+
+        // ACT
+        Response actual = sut.download("id", "bytes=10-", "W/\"checksum\"", null);
+
+        // ASSERT
+        assertEquals(200, actual.getStatus());
+        verify(sut.storage, never()).get(any(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void downloadIgnoresRangeIfRangeIsDate() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        publication.setFilename("filename.zip");
+        when(sut.repository.get("id")).thenReturn(publication);
+        when(sut.storage.get(publication)).thenReturn(new ByteArrayInputStream(new byte[100]));
+
+        // ACT
+        Response actual = sut.download("id", "bytes=10-", "Wed, 21 Oct 2015 07:28:00 GMT", null);
+
+        // ASSERT
+        assertEquals(200, actual.getStatus());
+        verify(sut.storage, never()).get(any(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void download404IfPublicationNotFound() throws Exception {
+
+        // ARRANGE
+        PublicationsResource sut = new PublicationsResource();
+        sut.storage = mock(PublicationStorage.class);
+        sut.repository = mock(PublicationRepository.class);
+
+        // ACT
+        Response actual = sut.download("id", null, null, null);
+
+        // ASSERT
+        assertEquals(404, actual.getStatus());
     }
 
     @Test
@@ -135,7 +323,8 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
 
         UploadRequest uploadRequest = new UploadRequest();
         uploadRequest.setFilename("filename");
@@ -156,7 +345,8 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
 
         UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
         uploadRequest.setFilename(null);
@@ -177,7 +367,8 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
 
         UploadRequest uploadRequest = upLoadRequest("/examplezip.zip");
 
@@ -198,9 +389,10 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
-        sut.metadataExtractor = mock(MetadataExtractor.class);
-        when(sut.metadataExtractor.extract(any(File.class))).thenThrow(new ApsZipImporterException("arg"));
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
+        sut.uploadIngester = mock(UploadIngester.class);
+        when(sut.uploadIngester.ingest(any(), any())).thenThrow(new ApsZipImporterException("arg"));
 
         UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
 
@@ -220,8 +412,10 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
-        sut.fileUtil = new ExceptionthrowingFileUtil();
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
+        sut.uploadIngester = mock(UploadIngester.class);
+        when(sut.uploadIngester.ingest(any(), any())).thenThrow(new IOException("arg"));
 
         UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
 
@@ -241,7 +435,8 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
         doThrow(PublicationStorageException.class).when(sut.storage).save(any(), any());
 
         UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
@@ -260,7 +455,8 @@ public class PublicationsResourceTest {
         PublicationsResource sut = new PublicationsResource();
         sut.storage = mock(PublicationStorage.class);
         sut.repository = mock(PublicationRepository.class);
-        sut.executor = mock(ExecutorService.class);
+        sut.importQueue = mock(ImportQueue.class);
+        sut.admissionControl = mock(AdmissionControl.class);
         doThrow(new PublicationRepositoryException("", new RuntimeException())).when(sut.repository).create(any());
 
         UploadRequest uploadRequest = upLoadRequest("/nestedzip.zip");
@@ -274,20 +470,11 @@ public class PublicationsResourceTest {
 
     UploadRequest upLoadRequest(String path) throws IOException {
         InputStream in = PublicationsResourceTest.class.getResourceAsStream(path);
-        byte[] bytes = IOUtils.toByteArray(in);
         UploadRequest request = new UploadRequest();
-        request.setFileData(bytes);
+        request.setFileData(in);
         request.setFilename("filename");
 
         return request;
     }
 
-    class ExceptionthrowingFileUtil extends FileUtil {
-
-        @Override
-        public String hash(File zip) throws IOException {
-            throw new IOException("");
-        }
-    }
-
 }
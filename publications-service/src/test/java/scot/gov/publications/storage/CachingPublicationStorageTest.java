@@ -0,0 +1,188 @@
+package scot.gov.publications.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+import scot.gov.publications.repo.Publication;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingPublicationStorageTest {
+
+    private static final int KB = 1024;
+
+    CachingPublicationStorage sut;
+
+    File directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("cache").toFile();
+        sut = new CachingPublicationStorage();
+        sut.configuration = new PublicationsConfiguration();
+        sut.configuration.getCache().setDirectory(directory.getAbsolutePath());
+        sut.configuration.getCache().setMaxSize(1);
+        sut.delegate = mock(S3PublicationStorage.class);
+    }
+
+    @After
+    public void teardown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void getReadsSavedZipFromCache() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+        File file = file("content", 10);
+
+        // ACT
+        sut.save(publication, file);
+        String actual;
+        try (InputStream in = sut.get(publication)) {
+            actual = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+
+        // ASSERT
+        verify(sut.delegate).save(publication, file);
+        verify(sut.delegate, never()).get(publication);
+        assertEquals(FileUtils.readFileToString(file, StandardCharsets.UTF_8), actual);
+    }
+
+    @Test
+    public void getFallsBackToDelegateIfNotCached() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+        InputStream expected = new ByteArrayInputStream(new byte[0]);
+        when(sut.delegate.get(publication)).thenReturn(expected);
+
+        // ACT
+        InputStream actual = sut.get(publication);
+
+        // ASSERT
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void leastRecentlyUsedZipIsEvictedWhenCacheIsFull() throws Exception {
+        // ARRANGE
+        Publication one = publication("one");
+        Publication two = publication("two");
+        Publication three = publication("three");
+        sut.save(one, file("one", 400 * KB));
+        sut.save(two, file("two", 400 * KB));
+        sut.get(one).close();
+
+        // ACT
+        sut.save(three, file("three", 400 * KB));
+
+        // ASSERT
+        assertTrue(new File(directory, "one").exists());
+        assertFalse(new File(directory, "two").exists());
+        assertTrue(new File(directory, "three").exists());
+    }
+
+    @Test
+    public void zipsLargerThanTheCacheAreNotCached() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+
+        // ACT
+        sut.save(publication, file("large", 2 * 1024 * KB));
+
+        // ASSERT
+        assertFalse(new File(directory, "checksum").exists());
+    }
+
+    @Test
+    public void deleteKeysRemovesCachedZips() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+        sut.save(publication, file("content", 10));
+
+        // ACT
+        sut.deleteKeys(Collections.singleton("checksum"));
+
+        // ASSERT
+        assertFalse(new File(directory, "checksum").exists());
+    }
+
+    @Test
+    public void existsDoesNotCheckS3ForCachedZip() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+        sut.save(publication, file("content", 10));
+
+        // ACT
+        boolean actual = sut.exists(publication);
+
+        // ASSERT
+        assertTrue(actual);
+        verify(sut.delegate, never()).exists(publication);
+    }
+
+    @Test
+    public void existsChecksS3ForZipThatIsNotCached() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+        when(sut.delegate.exists(publication)).thenReturn(true);
+
+        // ACT
+        boolean actual = sut.exists(publication);
+
+        // ASSERT
+        assertTrue(actual);
+        verify(sut.delegate).exists(publication);
+    }
+
+    @Test
+    public void cacheLocallyCachesZipWithoutSavingToS3() throws Exception {
+        // ARRANGE
+        Publication publication = publication("checksum");
+        File file = file("content", 10);
+
+        // ACT
+        sut.cacheLocally(publication, file);
+
+        // ASSERT
+        verify(sut.delegate, never()).save(any(), any());
+        assertTrue(new File(directory, "checksum").exists());
+        try (InputStream in = sut.get(publication)) {
+            assertEquals(FileUtils.readFileToString(file, StandardCharsets.UTF_8), IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+        verify(sut.delegate, never()).get(publication);
+    }
+
+    Publication publication(String checksum) {
+        Publication publication = new Publication();
+        publication.setChecksum(checksum);
+        return publication;
+    }
+
+    File file(String name, int size) throws Exception {
+        File file = File.createTempFile(name, ".zip");
+        file.deleteOnExit();
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) 'a');
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
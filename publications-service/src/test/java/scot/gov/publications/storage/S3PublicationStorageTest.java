@@ -1,12 +1,18 @@
 package scot.gov.publications.storage;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import scot.gov.publications.PublicationsConfiguration.S3;
 import scot.gov.publications.repo.Publication;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
@@ -18,29 +24,41 @@ import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class S3PublicationStorageTest {
 
+    private static final int MB = 1024 * 1024;
+
     @Test
     public void okReturnsTrueIfReadmeExists() throws Exception {
 
@@ -163,6 +181,170 @@ public class S3PublicationStorageTest {
                 argThat((GetObjectRequest get) -> get.bucket().equals(expectedBucketName) && get.key().equals(expectedPath)));
     }
 
+    @Test
+    public void existsReturnsFalseIfNoSuchKey() throws Exception {
+        // ARRANGE
+        S3PublicationStorage sut = new S3PublicationStorage();
+        sut.configuration = new S3();
+        sut.configuration.setPath("path");
+        sut.configuration.setBucket("bucket");
+        sut.s3 = mock(S3Client.class);
+        when(sut.s3.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.builder().build());
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+
+        // ACT
+        boolean actual = sut.exists(publication);
+
+        // ASSERT
+        assertFalse(actual);
+        verify(sut.s3).headObject(
+                argThat((HeadObjectRequest head) -> head.bucket().equals("bucket") && head.key().equals("path/checksum")));
+    }
+
+    @Test
+    public void saveUsesMultipartUploadForLargeFiles() throws Exception {
+        // ARRANGE
+        S3PublicationStorage sut = new S3PublicationStorage();
+        sut.configuration = new S3();
+        sut.configuration.setPath("path");
+        sut.configuration.setBucket("bucket");
+        sut.configuration.setPartSize(5);
+        sut.s3 = mock(S3Client.class);
+        when(sut.s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        when(sut.s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        File file = File.createTempFile("test", ".zip");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[MB * 6]);
+
+        // ACT
+        sut.save(publication, file);
+
+        // ASSERT
+        verify(sut.s3, times(2)).uploadPart(
+                argThat((UploadPartRequest part) -> part.uploadId().equals("upload")), any(RequestBody.class));
+        verify(sut.s3).completeMultipartUpload(
+                argThat((CompleteMultipartUploadRequest complete) -> complete.multipartUpload().parts().size() == 2));
+        verify(sut.s3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test(expected = PublicationStorageException.class)
+    public void saveAbortsMultipartUploadIfPartFails() throws Exception {
+        // ARRANGE
+        S3PublicationStorage sut = new S3PublicationStorage();
+        sut.configuration = new S3();
+        sut.configuration.setPath("path");
+        sut.configuration.setBucket("bucket");
+        sut.configuration.setPartSize(5);
+        sut.s3 = mock(S3Client.class);
+        when(sut.s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        when(sut.s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(SdkException.create("error", null));
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        File file = File.createTempFile("test", ".zip");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[MB * 6]);
+
+        // ACT
+        try {
+            sut.save(publication, file);
+        } finally {
+            // ASSERT
+            verify(sut.s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        }
+    }
+
+    @Test
+    public void runningPartsAreStoppedBeforeMultipartUploadIsAborted() throws Exception {
+        // ARRANGE
+        S3PublicationStorage sut = new S3PublicationStorage();
+        sut.configuration = new S3();
+        sut.configuration.setPath("path");
+        sut.configuration.setBucket("bucket");
+        sut.configuration.setPartSize(5);
+        sut.s3 = mock(S3Client.class);
+        when(sut.s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        CountDownLatch slowPartStarted = new CountDownLatch(1);
+        AtomicBoolean slowPartStopped = new AtomicBoolean();
+        when(sut.s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            if (request.partNumber() == 1) {
+                slowPartStarted.await();
+                throw SdkException.create("error", null);
+            }
+            slowPartStarted.countDown();
+            try {
+                Thread.sleep(10000);
+            } finally {
+                slowPartStopped.set(true);
+            }
+            return UploadPartResponse.builder().eTag("etag").build();
+        });
+        AtomicBoolean stoppedBeforeAbort = new AtomicBoolean();
+        when(sut.s3.abortMultipartUpload(any(AbortMultipartUploadRequest.class))).thenAnswer(invocation -> {
+            stoppedBeforeAbort.set(slowPartStopped.get());
+            return null;
+        });
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+        File file = File.createTempFile("test", ".zip");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[MB * 6]);
+
+        // ACT
+        try {
+            sut.save(publication, file);
+        } catch (PublicationStorageException e) {
+            // expected
+        }
+
+        // ASSERT
+        assertTrue(stoppedBeforeAbort.get());
+    }
+
+    @Test
+    public void getDownloadsLargeObjectsInRanges() throws Exception {
+        // ARRANGE
+        S3PublicationStorage sut = new S3PublicationStorage();
+        sut.configuration = new S3();
+        sut.configuration.setPath("path");
+        sut.configuration.setBucket("bucket");
+        sut.configuration.setPartSize(5);
+        sut.s3 = mock(S3Client.class);
+        byte[] content = new byte[MB * 6];
+        new Random().nextBytes(content);
+        when(sut.s3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            String[] range = request.range().substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Math.min(Integer.parseInt(range[1]), content.length - 1);
+            GetObjectResponse response = GetObjectResponse.builder()
+                    .contentRange(String.format("bytes %d-%d/%d", start, end, content.length))
+                    .build();
+            return new ResponseInputStream<>(response,
+                    AbortableInputStream.create(new ByteArrayInputStream(content, start, end - start + 1)));
+        });
+        Publication publication = new Publication();
+        publication.setChecksum("checksum");
+
+        // ACT
+        byte[] actual;
+        try (InputStream in = sut.get(publication)) {
+            actual = IOUtils.toByteArray(in);
+        }
+
+        // ASSERT
+        assertArrayEquals(content, actual);
+        verify(sut.s3, times(2)).getObject(any(GetObjectRequest.class));
+    }
+
     @Test(expected = PublicationStorageException.class)
     public void getExceptionWrappedAsExpected() throws Exception {
 
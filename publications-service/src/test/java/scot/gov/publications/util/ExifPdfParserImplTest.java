@@ -0,0 +1,76 @@
+package scot.gov.publications.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExifPdfParserImplTest {
+
+    Exif fallback = mock(Exif.class);
+
+    ExifPdfParserImpl sut = new ExifPdfParserImpl(fallback);
+
+    @Test
+    public void pageCountIsReadWithoutFallback() throws Exception {
+        // ARRANGE
+        InputStream in = ExifPdfParserImplTest.class.getResourceAsStream("/examplepdf.pdf");
+
+        // ACT
+        long actual = sut.pageCount(in, "application/pdf");
+
+        // ASSERT
+        assertEquals(50, actual);
+        verify(fallback, never()).pageCount(any(), anyString());
+    }
+
+    @Test
+    public void pdfLargerThanMaxInMemoryIsReadFromMappedFile() throws Exception {
+        // ARRANGE
+        sut.maxInMemory = 1024;
+        InputStream in = ExifPdfParserImplTest.class.getResourceAsStream(
+                "/fixtures/exampleZipContents/SCT12181804281.pdf");
+
+        // ACT
+        long actual = sut.pageCount(in, "application/pdf");
+
+        // ASSERT
+        assertEquals(37, actual);
+        verify(fallback, never()).pageCount(any(), anyString());
+    }
+
+    @Test
+    public void fallbackUsedForMalformedPdf() throws Exception {
+        // ARRANGE
+        when(fallback.pageCount(any(), eq("application/pdf"))).thenReturn(12L);
+        InputStream in = new ByteArrayInputStream("%PDF-1.4 not really a pdf".getBytes());
+
+        // ACT
+        long actual = sut.pageCount(in, "application/pdf");
+
+        // ASSERT
+        assertEquals(12, actual);
+    }
+
+    @Test
+    public void pageCountIsZeroForNonPDF() throws Exception {
+        // ARRANGE
+        InputStream in = ExifPdfParserImplTest.class.getResourceAsStream("/examplexls.xls");
+
+        // ACT
+        long actual = sut.pageCount(in, "application/msexcel");
+
+        // ASSERT
+        assertEquals(0, actual);
+        verify(fallback, never()).pageCount(any(), anyString());
+    }
+}
@@ -0,0 +1,111 @@
+package scot.gov.publications.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * These tests use a shell script that answers requests in the same way as exiftool -stay_open so that they do not
+ * need exiftool to be installed.
+ */
+public class ExifStayOpenImplTest {
+
+    // answers every request with a page count of 3
+    private static final String STAY_OPEN =
+            "while read line; do case \"$line\" in " +
+            "-execute*) echo 'PageCount: 3'; echo \"{ready${line#-execute}}\";; " +
+            "False) exit 0;; " +
+            "esac; done";
+
+    // answers one request and then exits
+    private static final String ONE_REQUEST =
+            "while read line; do case \"$line\" in " +
+            "-execute*) echo 'PageCount: 3'; echo \"{ready${line#-execute}}\"; exit 0;; " +
+            "esac; done";
+
+    // never answers
+    private static final String UNRESPONSIVE = "exec sleep 30";
+
+    ProcessRunner processRunner;
+
+    ExifStayOpenImpl sut;
+
+    @Before
+    public void setup() {
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getProcesses().setTimeout(1);
+        configuration.getProcesses().setExiftoolPoolSize(1);
+        processRunner = new ProcessRunner(configuration);
+        sut = new ExifStayOpenImpl(processRunner);
+    }
+
+    @After
+    public void teardown() {
+        sut.close();
+    }
+
+    @Test
+    public void workerIsReusedForEachFile() throws Exception {
+        // ARRANGE
+        sut.command = asList("sh", "-c", STAY_OPEN);
+
+        // ACT
+        long first = sut.pageCount(pdf(), "application/pdf");
+        long second = sut.pageCount(pdf(), "application/pdf");
+
+        // ASSERT
+        assertEquals(3, first);
+        assertEquals(3, second);
+        Map<String, Number> metrics = processRunner.metrics().get(ExifStayOpenImpl.TOOL);
+        assertEquals(2, metrics.get("runs").intValue());
+        assertEquals(0, metrics.get("failures").intValue());
+    }
+
+    @Test
+    public void workerIsRestartedIfItExits() throws Exception {
+        // ARRANGE
+        sut.command = asList("sh", "-c", ONE_REQUEST);
+
+        // ACT
+        long first = sut.pageCount(pdf(), "application/pdf");
+        long second = sut.pageCount(pdf(), "application/pdf");
+
+        // ASSERT
+        assertEquals(3, first);
+        assertEquals(3, second);
+    }
+
+    @Test
+    public void unresponsiveWorkerIsKilled() throws Exception {
+        // ARRANGE
+        sut.command = asList("sh", "-c", UNRESPONSIVE);
+
+        // ACT
+        long actual = sut.pageCount(pdf(), "application/pdf");
+
+        // ASSERT - the file is tried once more with a new worker
+        assertEquals(0, actual);
+        Map<String, Number> metrics = processRunner.metrics().get(ExifStayOpenImpl.TOOL);
+        assertEquals(2, metrics.get("timeouts").intValue());
+    }
+
+    @Test
+    public void pageCountIsZeroForNonPDF() throws Exception {
+        // ACT
+        long actual = sut.pageCount(pdf(), "application/msexcel");
+
+        // ASSERT
+        assertEquals(0, actual);
+    }
+
+    InputStream pdf() {
+        return ExifStayOpenImplTest.class.getResourceAsStream("/examplepdf.pdf");
+    }
+}
@@ -0,0 +1,30 @@
+package scot.gov.publications.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FileUtilTest {
+
+    @Test
+    public void copyAndHashWritesContentAndReturnsSameHashAsHash() throws Exception {
+        // ARRANGE
+        FileUtil sut = new FileUtil();
+        File target = sut.createTempFile("copyAndHash", "zip");
+        target.deleteOnExit();
+        InputStream in = FileUtilTest.class.getResourceAsStream("/examplezip.zip");
+
+        // ACT
+        String actual = sut.copyAndHash(in, target);
+
+        // ASSERT
+        byte[] expectedContent = FileUtilTest.class.getResourceAsStream("/examplezip.zip").readAllBytes();
+        assertArrayEquals(expectedContent, Files.readAllBytes(target.toPath()));
+        assertEquals(sut.hash(target), actual);
+    }
+}
@@ -0,0 +1,104 @@
+package scot.gov.publications.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PdfPageCounterTest {
+
+    PdfPageCounter sut = new PdfPageCounter();
+
+    @Test
+    public void readsLinearizedPdfWithCrossReferenceAndObjectStreams() throws Exception {
+        // ARRANGE
+        ByteBuffer pdf = resource("/examplepdf.pdf");
+
+        // ACT
+        long actual = sut.pageCount(pdf);
+
+        // ASSERT
+        assertEquals(50, actual);
+    }
+
+    @Test
+    public void readsPdfWithCrossReferenceTable() throws Exception {
+        // ARRANGE
+        ByteBuffer pdf = ByteBuffer.wrap(classicPdf("junk before header\n", "/Count 3"));
+
+        // ACT
+        long actual = sut.pageCount(pdf);
+
+        // ASSERT
+        assertEquals(3, actual);
+    }
+
+    @Test
+    public void readsIndirectCount() throws Exception {
+        // ARRANGE
+        ByteBuffer pdf = ByteBuffer.wrap(classicPdf("", "/Count 4 0 R"));
+
+        // ACT
+        long actual = sut.pageCount(pdf);
+
+        // ASSERT
+        assertEquals(7, actual);
+    }
+
+    @Test(expected = IOException.class)
+    public void exceptionThrownForTruncatedPdf() throws Exception {
+        // ARRANGE
+        byte[] bytes = IOUtils.toByteArray(PdfPageCounterTest.class.getResourceAsStream("/examplepdf.pdf"));
+        ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, bytes.length / 2).slice();
+
+        // ACT
+        sut.pageCount(truncated);
+
+        // ASSERT -- see expected exception
+    }
+
+    @Test(expected = IOException.class)
+    public void exceptionThrownForNonPdf() throws Exception {
+        // ACT
+        sut.pageCount(resource("/examplexls.xls"));
+
+        // ASSERT -- see expected exception
+    }
+
+    ByteBuffer resource(String name) throws IOException {
+        return ByteBuffer.wrap(IOUtils.toByteArray(PdfPageCounterTest.class.getResourceAsStream(name)));
+    }
+
+    /**
+     * A pdf with a cross reference table, where object 4 is the number 7.
+     */
+    static byte[] classicPdf(String prefix, String count) {
+        List<String> objects = new ArrayList<>();
+        objects.add("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        objects.add("2 0 obj\n<< /Type /Pages /Kids [3 0 R] " + count + " >>\nendobj\n");
+        objects.add("3 0 obj\n<< /Type /Page /Parent 2 0 R /Contents (a (nested) string \\) ) >>\nendobj\n");
+        objects.add("4 0 obj\n7\nendobj\n");
+
+        StringBuilder body = new StringBuilder("%PDF-1.4\n%comment\n");
+        List<Integer> offsets = new ArrayList<>();
+        for (String object : objects) {
+            offsets.add(body.length());
+            body.append(object);
+        }
+        int xref = body.length();
+        body.append("xref\n0 ").append(objects.size() + 1).append('\n');
+        body.append("0000000000 65535 f\r\n");
+        for (int offset : offsets) {
+            body.append(String.format("%010d 00000 n\r\n", offset));
+        }
+        body.append("trailer\n<< /Size ").append(objects.size() + 1).append(" /Root 1 0 R >>\n");
+        body.append("startxref\n").append(xref).append("\n%%EOF\n");
+        return (prefix + body).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,169 @@
+package scot.gov.publications.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import scot.gov.publications.PublicationsConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProcessRunnerTest {
+
+    ProcessRunner sut;
+
+    @Before
+    public void setup() {
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getProcesses().setConcurrency(1);
+        sut = new ProcessRunner(configuration);
+    }
+
+    @Test
+    public void outputAndErrorAreCaptured() throws Exception {
+        // ACT
+        ProcessResult actual = sut.run("sh", asList("sh", "-c", "echo out; echo err >&2"));
+
+        // ASSERT
+        assertTrue(actual.isSuccess());
+        assertEquals("out\n", actual.getOutput());
+        assertEquals("err\n", actual.getError());
+    }
+
+    @Test
+    public void largeErrorOutputDoesNotBlockProcess() throws Exception {
+        // ACT
+        ProcessResult actual = sut.run("sh",
+                asList("sh", "-c", "i=0; while [ $i -lt 20000 ]; do echo error line $i >&2; i=$((i+1)); done"),
+                Duration.ofSeconds(30));
+
+        // ASSERT
+        assertTrue(actual.isSuccess());
+        assertTrue(actual.getError().length() > 65536);
+    }
+
+    @Test
+    public void failureIsRecorded() throws Exception {
+        // ACT
+        ProcessResult actual = sut.run("sh", asList("sh", "-c", "exit 3"));
+
+        // ASSERT
+        assertFalse(actual.isSuccess());
+        assertEquals(3, actual.getExitCode());
+        Map<String, Number> metrics = sut.metrics().get("sh");
+        assertEquals(1, metrics.get("runs").intValue());
+        assertEquals(1, metrics.get("failures").intValue());
+        assertEquals(0, metrics.get("timeouts").intValue());
+    }
+
+    @Test
+    public void processIsKilledAfterTimeout() throws Exception {
+        // ARRANGE
+        long start = System.currentTimeMillis();
+
+        // ACT
+        try {
+            sut.run("sleep", asList("sleep", "30"), Duration.ofMillis(200));
+            fail("expected timeout");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // ASSERT
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(1, sut.metrics().get("sleep").get("timeouts").intValue());
+
+        // the permit is released so that the next process can run
+        assertTrue(sut.run("sh", asList("sh", "-c", "true"), Duration.ofSeconds(5)).isSuccess());
+    }
+
+    @Test
+    public void childProcessesAreKilledAfterTimeout() throws Exception {
+        // ARRANGE
+        File pidFile = File.createTempFile("child", ".pid");
+        pidFile.deleteOnExit();
+
+        // ACT
+        try {
+            sut.run("sh", asList("sh", "-c", "sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait"),
+                    Duration.ofMillis(500));
+            fail("expected timeout");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // ASSERT
+        long pid = Long.parseLong(FileUtils.readFileToString(pidFile, StandardCharsets.UTF_8).trim());
+        Optional<ProcessHandle> child = ProcessHandle.of(pid);
+        if (child.isPresent()) {
+            child.get().onExit().get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void timeoutStartsOncePermitIsAcquired() throws Exception {
+        // ARRANGE - another process holds the only permit for longer than the timeout of the next one
+        Future<ProcessResult> running = runningProcess(2);
+
+        // ACT
+        ProcessResult actual = sut.run("sh", asList("sh", "-c", "true"), Duration.ofMillis(1000));
+
+        // ASSERT
+        assertTrue(actual.isSuccess());
+        assertTrue(running.get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals(0, sut.metrics().get("sh").get("timeouts").intValue());
+    }
+
+    @Test
+    public void waitForPermitIsBounded() throws Exception {
+        // ARRANGE
+        PublicationsConfiguration configuration = new PublicationsConfiguration();
+        configuration.getProcesses().setConcurrency(1);
+        configuration.getProcesses().setPermitTimeout(0);
+        sut = new ProcessRunner(configuration);
+        Future<ProcessResult> running = runningProcess(2);
+
+        // ACT
+        try {
+            sut.run("true", asList("true"), Duration.ofSeconds(30));
+            fail("expected timeout waiting for permit");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // ASSERT
+        assertEquals(1, sut.metrics().get("true").get("timeouts").intValue());
+        running.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start a process in another thread and wait until it is running, so that it holds the permit.
+     */
+    Future<ProcessResult> runningProcess(int seconds) throws Exception {
+        File started = File.createTempFile("started", ".txt");
+        FileUtils.deleteQuietly(started);
+        started.deleteOnExit();
+        Future<ProcessResult> running = Executors.newSingleThreadExecutor().submit(() -> sut.run("sleep",
+                asList("sh", "-c", "touch " + started.getAbsolutePath() + "; sleep " + seconds),
+                Duration.ofSeconds(30)));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!started.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(started.exists());
+        return running;
+    }
+}